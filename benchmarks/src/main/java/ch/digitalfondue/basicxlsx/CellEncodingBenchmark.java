@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Element;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static ch.digitalfondue.basicxlsx.Cell.cell;
+
+/**
+ * Cost of encoding a single cell of each type to its xml element.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CellEncodingBenchmark {
+
+    private final Function<String, Element> elementBuilder = Utils.toElementBuilder(Utils.toDocument("sheet_template.xml"));
+
+    private final Cell string = cell("Hello world, a string value");
+    private final Cell number = cell(new BigDecimal("12345.678"));
+    private final Cell bool = cell(true);
+    private final Cell date = cell(LocalDateTime.of(2018, 5, 14, 13, 26, 24));
+    private final Cell formula = Cell.formula("SUM(A1:A1000)", "42");
+
+    @Benchmark
+    public Element string() {
+        return string.toElement(elementBuilder, 1023, 27, 1);
+    }
+
+    @Benchmark
+    public Element number() {
+        return number.toElement(elementBuilder, 1023, 27, 1);
+    }
+
+    @Benchmark
+    public Element bool() {
+        return bool.toElement(elementBuilder, 1023, 27, 1);
+    }
+
+    @Benchmark
+    public Element date() {
+        return date.toElement(elementBuilder, 1023, 27, 1);
+    }
+
+    @Benchmark
+    public Element formula() {
+        return formula.toElement(elementBuilder, 1023, 27, 1);
+    }
+}
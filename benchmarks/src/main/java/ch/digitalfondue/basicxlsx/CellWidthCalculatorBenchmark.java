@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import static ch.digitalfondue.basicxlsx.Cell.cell;
+
+/**
+ * Width estimation used by the auto resize of the columns. The font metrics are created in the setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CellWidthCalculatorBenchmark {
+
+    private Cell unstyled;
+    private Cell string;
+    private Cell rotated;
+    private Cell number;
+    private Cell date;
+
+    @Setup
+    public void setup() {
+        Workbook w = new Workbook();
+        Style bold = w.defineStyle().font().bold(true).size(14).build();
+        Style rotation = w.defineStyle().rotation(45).build();
+        Style twoDecimal = w.defineStyle().numericFormat("#,##0.00").build();
+        Style dateFormat = w.defineStyle().numericFormat("dd.mm.yyyy").build();
+        unstyled = cell("A value of medium length");
+        string = cell("A value of medium length").withStyle(bold);
+        rotated = cell("A value of medium length").withStyle(rotation);
+        number = cell(new BigDecimal("1234567.891")).withStyle(twoDecimal);
+        date = cell(LocalDate.of(2018, 5, 14)).withStyle(dateFormat);
+        // warm the font metrics cache
+        unstyled();
+        string();
+        rotated();
+        number();
+        date();
+    }
+
+    @Benchmark
+    public double unstyled() {
+        return CellWidthCalculator.cellWidth(unstyled);
+    }
+
+    @Benchmark
+    public double string() {
+        return CellWidthCalculator.cellWidth(string);
+    }
+
+    @Benchmark
+    public double rotated() {
+        return CellWidthCalculator.cellWidth(rotated);
+    }
+
+    @Benchmark
+    public double number() {
+        return CellWidthCalculator.cellWidth(number);
+    }
+
+    @Benchmark
+    public double date() {
+        return CellWidthCalculator.cellWidth(date);
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * End to end "export N rows x M columns" driver, for tracking the writers across releases.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar ch.digitalfondue.basicxlsx.ExportDriver --rows 100000 --columns 12
+ * </pre>
+ *
+ * Options: --rows, --columns, --writers (comma separated, from workbook, streaming, sxssf), --warmup, --iterations,
+ * --seed and --output (file where the generated xlsx are written, by default they are only counted).
+ *
+ * The results are printed as json on the standard output. Each run is done on the current thread: the allocated
+ * bytes are the ones of the thread, the peak heap is the sum of the peak usage of the heap pools (garbage included)
+ * after a gc and a reset of the peaks.
+ */
+public final class ExportDriver {
+
+    interface Export {
+        void write(int rows, int columns, long seed, OutputStream os) throws IOException;
+    }
+
+    private static final Map<String, Export> EXPORTS = new LinkedHashMap<>();
+
+    static {
+        EXPORTS.put("workbook", ExportDriver::workbook);
+        EXPORTS.put("streaming", ExportDriver::streaming);
+        EXPORTS.put("sxssf", ExportDriver::sxssf);
+    }
+
+    private static final String[] HEADERS = {"id", "name", "quantity", "price", "date", "flag"};
+
+    private ExportDriver() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        int rows = Integer.parseInt(options.getOrDefault("rows", "100000"));
+        int columns = Integer.parseInt(options.getOrDefault("columns", "12"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "2"));
+        int iterations = Integer.parseInt(options.getOrDefault("iterations", "3"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        Path output = options.containsKey("output") ? Paths.get(options.get("output")) : null;
+        List<String> writers = Arrays.asList(options.getOrDefault("writers", String.join(",", EXPORTS.keySet())).split(","));
+        for (String writer : writers) {
+            if (!EXPORTS.containsKey(writer)) {
+                throw new IllegalArgumentException("Unknown writer " + writer + ", available: " + EXPORTS.keySet());
+            }
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"rows\": ").append(rows).append(",\n");
+        json.append("  \"columns\": ").append(columns).append(",\n");
+        json.append("  \"seed\": ").append(seed).append(",\n");
+        json.append("  \"results\": [");
+        boolean first = true;
+        for (String writer : writers) {
+            for (int i = 0; i < warmup; i++) {
+                System.err.println(writer + ": warmup " + (i + 1) + "/" + warmup);
+                run(EXPORTS.get(writer), rows, columns, seed, output);
+            }
+            for (int i = 0; i < iterations; i++) {
+                System.err.println(writer + ": iteration " + (i + 1) + "/" + iterations);
+                Result result = run(EXPORTS.get(writer), rows, columns, seed, output);
+                json.append(first ? "\n" : ",\n");
+                result.appendJson(json, writer, rows);
+                first = false;
+            }
+        }
+        json.append("\n  ]\n}");
+        System.out.println(json);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected --name value, found " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    static Result run(Export export, int rows, int columns, long seed, Path output) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool);
+            }
+        }
+
+        System.gc();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long gcTime = gcTime();
+        long gcCount = gcCount();
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long start = System.nanoTime();
+
+        long size;
+        try (CountingOutputStream os = new CountingOutputStream(output == null ? OutputStream.nullOutputStream() : Files.newOutputStream(output))) {
+            export.write(rows, columns, seed, new BufferedOutputStream(os, 65536));
+            size = os.count;
+        }
+
+        Result result = new Result();
+        result.nanos = System.nanoTime() - start;
+        result.allocatedBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+        result.gcTimeMillis = gcTime() - gcTime;
+        result.gcCount = gcCount() - gcCount;
+        result.peakHeapBytes = heapPools.stream().mapToLong(p -> p.getPeakUsage().getUsed()).sum();
+        result.fileSize = size;
+        return result;
+    }
+
+    private static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    static final class Result {
+        long nanos;
+        long allocatedBytes;
+        long gcTimeMillis;
+        long gcCount;
+        long peakHeapBytes;
+        long fileSize;
+
+        void appendJson(StringBuilder sb, String writer, int rows) {
+            sb.append("    {\"writer\": \"").append(writer).append('"')
+                    .append(", \"millis\": ").append(nanos / 1_000_000)
+                    .append(", \"rowsPerSecond\": ").append(Math.round(rows / (nanos / 1e9)))
+                    .append(", \"peakHeapBytes\": ").append(peakHeapBytes)
+                    .append(", \"gcTimeMillis\": ").append(gcTimeMillis)
+                    .append(", \"gcCount\": ").append(gcCount)
+                    .append(", \"allocatedBytes\": ").append(allocatedBytes)
+                    .append(", \"fileSize\": ").append(fileSize)
+                    .append('}');
+        }
+    }
+
+    // the writers
+
+    private static String header(int column) {
+        String header = HEADERS[column % SyntheticRows.TYPES];
+        return column < SyntheticRows.TYPES ? header : header + "_" + (column / SyntheticRows.TYPES);
+    }
+
+    private static void workbook(int rows, int columns, long seed, OutputStream os) throws IOException {
+        Workbook w = new Workbook();
+        Style price = w.defineStyle().numericFormat("#,##0.00").build();
+        Style date = w.defineStyle().numericFormat("yyyy-mm-dd").build();
+        Sheet sheet = w.sheet("data");
+        for (int c = 0; c < columns; c++) {
+            sheet.setValueAt(header(c), 0, c);
+        }
+        SyntheticRows data = new SyntheticRows(seed, columns);
+        for (int r = 1; r <= rows; r++) {
+            Object[] values = data.next();
+            for (int c = 0; c < columns; c++) {
+                Object v = values[c];
+                if (v instanceof String) {
+                    sheet.setValueAt((String) v, r, c);
+                } else if (v instanceof Long) {
+                    sheet.setValueAt((long) v, r, c);
+                } else if (v instanceof BigDecimal) {
+                    sheet.setValueAt((BigDecimal) v, r, c).withStyle(price);
+                } else if (v instanceof LocalDate) {
+                    sheet.setValueAt((LocalDate) v, r, c).withStyle(date);
+                } else if (v instanceof Boolean) {
+                    sheet.setValueAt((boolean) v, r, c);
+                }
+            }
+        }
+        w.write(os);
+        os.flush();
+    }
+
+    private static void streaming(int rows, int columns, long seed, OutputStream os) throws IOException {
+        try (StreamingWorkbook w = new StreamingWorkbook(os)) {
+            Style price = w.defineStyle().numericFormat("#,##0.00").build();
+            Style date = w.defineStyle().numericFormat("yyyy-mm-dd").build();
+            SyntheticRows data = new SyntheticRows(seed, columns);
+            w.withSheet("data", IntStream.rangeClosed(0, rows).mapToObj(r -> {
+                Cell[] cells = new Cell[columns];
+                if (r == 0) {
+                    for (int c = 0; c < columns; c++) {
+                        cells[c] = Cell.cell(header(c));
+                    }
+                    return StreamingWorkbook.row(cells);
+                }
+                Object[] values = data.next();
+                for (int c = 0; c < columns; c++) {
+                    Object v = values[c];
+                    if (v instanceof String) {
+                        cells[c] = Cell.cell((String) v);
+                    } else if (v instanceof Long) {
+                        cells[c] = Cell.cell((long) v);
+                    } else if (v instanceof BigDecimal) {
+                        cells[c] = Cell.cell((BigDecimal) v).withStyle(price);
+                    } else if (v instanceof LocalDate) {
+                        cells[c] = Cell.cell((LocalDate) v).withStyle(date);
+                    } else if (v instanceof Boolean) {
+                        cells[c] = Cell.cell((boolean) v);
+                    }
+                }
+                return StreamingWorkbook.row(cells);
+            }));
+        }
+    }
+
+    private static void sxssf(int rows, int columns, long seed, OutputStream os) throws IOException {
+        SXSSFWorkbook w = new SXSSFWorkbook(100);
+        try {
+            org.apache.poi.ss.usermodel.CellStyle price = w.createCellStyle();
+            price.setDataFormat(w.createDataFormat().getFormat("#,##0.00"));
+            org.apache.poi.ss.usermodel.CellStyle date = w.createCellStyle();
+            date.setDataFormat(w.createDataFormat().getFormat("yyyy-mm-dd"));
+            org.apache.poi.ss.usermodel.Sheet sheet = w.createSheet("data");
+            org.apache.poi.ss.usermodel.Row header = sheet.createRow(0);
+            for (int c = 0; c < columns; c++) {
+                header.createCell(c).setCellValue(header(c));
+            }
+            SyntheticRows data = new SyntheticRows(seed, columns);
+            for (int r = 1; r <= rows; r++) {
+                Object[] values = data.next();
+                org.apache.poi.ss.usermodel.Row row = sheet.createRow(r);
+                for (int c = 0; c < columns; c++) {
+                    Object v = values[c];
+                    if (v == null) {
+                        continue;
+                    }
+                    org.apache.poi.ss.usermodel.Cell cell = row.createCell(c);
+                    if (v instanceof String) {
+                        cell.setCellValue((String) v);
+                    } else if (v instanceof Long) {
+                        cell.setCellValue((long) v);
+                    } else if (v instanceof BigDecimal) {
+                        cell.setCellValue(((BigDecimal) v).doubleValue());
+                        cell.setCellStyle(price);
+                    } else if (v instanceof LocalDate) {
+                        cell.setCellValue(Date.from(((LocalDate) v).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+                        cell.setCellStyle(date);
+                    } else if (v instanceof Boolean) {
+                        cell.setCellValue((boolean) v);
+                    }
+                }
+            }
+            w.write(os);
+            os.flush();
+        } finally {
+            w.dispose();
+            w.close();
+        }
+    }
+
+    private static final class CountingOutputStream extends java.io.FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of defining many distinct styles and of committing them in the styles.xml document, and of deriving an
+ * already cached style.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StyleRegistrationBenchmark {
+
+    @State(Scope.Thread)
+    public static class Styles {
+        @Param({"10", "1000"})
+        int count;
+    }
+
+    @State(Scope.Thread)
+    public static class Derived {
+        Style base;
+
+        @Setup
+        public void setup() {
+            base = new Workbook().defineStyle().font().bold(true).build();
+            base.derive().bgColor("#ffcc00").build();
+        }
+    }
+
+    @Benchmark
+    public byte[] defineAndCommit(Styles styles) {
+        Workbook w = new Workbook();
+        for (int i = 0; i < styles.count; i++) {
+            w.defineStyle()
+                    .bgColor(String.format("#%06x", i * 7919 & 0xffffff))
+                    .numericFormat(i % 3 == 0 ? "0.00" : "#,##0")
+                    .font().size(8 + i % 10).bold(i % 2 == 0).build();
+        }
+        return w.commitStylesContent();
+    }
+
+    @Benchmark
+    public Style deriveCached(Derived derived) {
+        return derived.base.derive().bgColor("#ffcc00").build();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Reproducible generator of "order export" like rows. The column types cycle over: identifier, name, quantity,
+ * price, date, flag. The distributions try to look like real data: the names follow a zipf like distribution over a
+ * small vocabulary, the quantities are mostly small, the prices are log-normal and ~3% of the cells are empty.
+ */
+class SyntheticRows {
+
+    static final int TYPES = 6;
+
+    private static final String[] WORDS = {"basic", "steel", "paper", "office", "chair", "table", "lamp", "cable",
+            "adapter", "monitor", "keyboard", "desk", "shelf", "box", "label", "printer", "toner", "notebook", "pen",
+            "marker", "folder", "binder", "stapler", "tape", "scissors", "envelope", "calendar", "clock", "battery", "charger"};
+
+    private static final LocalDate START = LocalDate.of(2015, 1, 1);
+
+    private final Random random;
+    private final int columns;
+    private long rowIndex;
+
+    SyntheticRows(long seed, int columns) {
+        this.random = new Random(seed);
+        this.columns = columns;
+    }
+
+    /**
+     * Values of the next row: String, Long, BigDecimal, LocalDate, Boolean or null.
+     */
+    Object[] next() {
+        Object[] values = new Object[columns];
+        for (int i = 0; i < columns; i++) {
+            values[i] = i > 0 && random.nextInt(100) < 3 ? null : value(i % TYPES);
+        }
+        rowIndex++;
+        return values;
+    }
+
+    private Object value(int type) {
+        switch (type) {
+            case 0:
+                return String.format("ORD-%08d", rowIndex);
+            case 1:
+                return word() + " " + word() + (random.nextInt(4) == 0 ? " " + word() : "");
+            case 2:
+                return (long) Math.min(1000, 1 + (int) (-Math.log(1 - random.nextDouble()) * 4));
+            case 3:
+                return BigDecimal.valueOf(Math.exp(3 + random.nextGaussian() * 1.2)).setScale(2, RoundingMode.HALF_UP);
+            case 4:
+                return START.plusDays(random.nextInt(5 * 365));
+            default:
+                return random.nextInt(10) < 3;
+        }
+    }
+
+    // zipf like: the first words are a lot more frequent
+    private String word() {
+        double u = random.nextDouble();
+        return WORDS[(int) (WORDS.length * u * u * u)];
+    }
+}
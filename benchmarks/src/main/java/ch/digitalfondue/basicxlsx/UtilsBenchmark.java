@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The helpers called once per cell: coordinates formatting and date conversion.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilsBenchmark {
+
+    // A, AB, XFD
+    @Param({"0", "27", "16383"})
+    int column;
+
+    private final LocalDateTime localDateTime = LocalDateTime.of(2018, 5, 14, 13, 26, 24);
+    private final LocalDate localDate = localDateTime.toLocalDate();
+    private final Date date = new Date(1526297184000L);
+
+    @Benchmark
+    public String fromRowColumnToExcelCoordinates() {
+        return Utils.fromRowColumnToExcelCoordinates(1048575, column);
+    }
+
+    @Benchmark
+    public BigDecimal getExcelDateFromDate() {
+        return Utils.getExcelDate(date);
+    }
+
+    @Benchmark
+    public BigDecimal getExcelDateFromLocalDateTime() {
+        return Utils.getExcelDate(localDateTime);
+    }
+
+    @Benchmark
+    public BigDecimal getExcelDateFromLocalDate() {
+        return Utils.getExcelDate(localDate);
+    }
+}
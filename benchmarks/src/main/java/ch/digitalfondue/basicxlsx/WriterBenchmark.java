@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static ch.digitalfondue.basicxlsx.Cell.cell;
+
+/**
+ * Throughput of the two writers: the values are prepared in the setup, the benchmarks build the cells and write the
+ * file to a discarding output stream.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriterBenchmark {
+
+    @Param({"1000", "10000"})
+    int rows;
+
+    @Param({"5", "20"})
+    int columns;
+
+    private String[] strings;
+    private BigDecimal[] numbers;
+    private LocalDate[] dates;
+
+    @Setup
+    public void setup() {
+        strings = new String[rows];
+        numbers = new BigDecimal[rows];
+        dates = new LocalDate[rows];
+        LocalDate start = LocalDate.of(2018, 1, 1);
+        for (int i = 0; i < rows; i++) {
+            strings[i] = "value " + i;
+            numbers[i] = BigDecimal.valueOf(i * 31L, 2);
+            dates[i] = start.plusDays(i % 3650);
+        }
+    }
+
+    @Benchmark
+    public void workbook() throws IOException {
+        Workbook w = new Workbook();
+        Style date = w.defineStyle().numericFormat("dd.mm.yyyy").build();
+        Sheet s = w.sheet("data");
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                switch (c % 4) {
+                    case 0:
+                        s.setValueAt(strings[r], r, c);
+                        break;
+                    case 1:
+                        s.setValueAt(numbers[r], r, c);
+                        break;
+                    case 2:
+                        s.setValueAt(dates[r], r, c).withStyle(date);
+                        break;
+                    default:
+                        s.setValueAt(r % 2 == 0, r, c);
+                }
+            }
+        }
+        w.write(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void streamingWorkbook() throws IOException {
+        try (StreamingWorkbook w = new StreamingWorkbook(OutputStream.nullOutputStream())) {
+            Style date = w.defineStyle().numericFormat("dd.mm.yyyy").build();
+            w.withSheet("data", IntStream.range(0, rows).mapToObj(r -> {
+                Cell[] cells = new Cell[columns];
+                for (int c = 0; c < columns; c++) {
+                    cells[c] = cellAt(r, c, date);
+                }
+                return StreamingWorkbook.row(cells);
+            }));
+        }
+    }
+
+    private Cell cellAt(int row, int column, Style date) {
+        switch (column % 4) {
+            case 0:
+                return cell(strings[row]);
+            case 1:
+                return cell(numbers[row]);
+            case 2:
+                return cell(dates[row]).withStyle(date);
+            default:
+                return cell(row % 2 == 0);
+        }
+    }
+}
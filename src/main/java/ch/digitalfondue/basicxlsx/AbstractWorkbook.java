@@ -17,12 +17,16 @@ package ch.digitalfondue.basicxlsx;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.IdentityHashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
 import java.util.function.Function;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -31,6 +35,11 @@ class AbstractWorkbook {
 
     final List<Style> styles = new ArrayList<>();
     final Map<Style, Integer> styleToIdMapping = new IdentityHashMap<>();
+    final Style.DerivedStyles derivedStyles = new Style.DerivedStyles();
+    // set by the streaming writers when the style ids are committed (before the first sheet)
+    boolean hasRegisteredStyles;
+    // null if the writer does not report metrics
+    MetricsListener metricsListener;
 
     int styleIdSupplier(Cell cell) {
         if (cell.style != null) {
@@ -48,7 +57,42 @@ class AbstractWorkbook {
      * @return a style builder
      */
     public Style.StyleBuilder defineStyle() {
-        return new Style.StyleBuilder(styles::add);
+        if (hasRegisteredStyles) {
+            throw new IllegalStateException("Cannot register new styles after writing a sheet");
+        }
+        return new Style.StyleBuilder(this::registerStyle, derivedStyles);
+    }
+
+    // derived styles that are already cached can still be used after writing a sheet, new ones cannot.
+    boolean registerStyle(Style style) {
+        if (hasRegisteredStyles) {
+            throw new IllegalStateException("Cannot register new styles after writing a sheet");
+        }
+        return styles.add(style);
+    }
+
+    /**
+     * Commit the styles in a new styles document (based on our template) and return its serialized form.
+     * Used by the writers that need the styles.xml content before writing it.
+     */
+    byte[] commitStylesContent() {
+        Document doc = Utils.toDocument("styles_template.xml");
+        registerStyles(doc, styles, styleToIdMapping);
+        hasRegisteredStyles = true;
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Utils.outputDocument(doc, os);
+        return os.toByteArray();
+    }
+
+    /**
+     * Fingerprint of a styles.xml content, for checking that two writers share the same style ids.
+     */
+    static long stylesFingerprint(byte[] stylesContent) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(stylesContent)).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     static void addFileWithDocument(ZipOutputStream zos, String fileName, Document doc) throws IOException {
@@ -58,6 +102,12 @@ class AbstractWorkbook {
     }
 
 
+    static void addFileWithDocument(ZipWriter zip, String fileName, Document doc) throws IOException {
+        try (OutputStream os = new BufferedOutputStream(zip.putNextEntry(fileName))) {
+            Utils.outputDocument(doc, os);
+        }
+    }
+
     static Element getElement(Element element, String name) {
         return (Element) element.getElementsByTagNameNS(Utils.NS_SPREADSHEETML_2006_MAIN, name).item(0);
     }
@@ -73,13 +123,55 @@ class AbstractWorkbook {
 
     void commitAndWriteStyleMetadata(ZipOutputStream zos, List<Style> styles, Map<Style, Integer> styleToIdMapping) throws IOException {
         Document doc = Utils.toDocument("styles_template.xml");
+        registerStyles(doc, styles, styleToIdMapping);
+        addFileWithDocument(zos, "xl/styles.xml", doc);
+    }
+
+    // commit and write the styles, reporting to the metrics listener and the flight recorder
+    void writeStyles(ZipOutputStream zos) throws IOException {
+        Object event = JfrEvents.beginStylesCommit();
+        long start = System.nanoTime();
+        commitAndWriteStyleMetadata(zos, styles, styleToIdMapping);
+        JfrEvents.endStylesCommit(event, styles.size(), derivedStyles.hits());
+        if (metricsListener != null) {
+            metricsListener.stylesCommitted(styles.size(), System.nanoTime() - start);
+        }
+    }
+
+    // write the metadata documents, reporting to the metrics listener
+    void writeMetadata(ZipOutputStream zos, List<String> sheetNameOrder) throws IOException {
+        writeMetadata(zos, sheetNameOrder, true);
+    }
+
+    /**
+     * @param zos
+     * @param sheetNameOrder
+     * @param fullCalcOnLoad false if all the formulas have a result computed by the library
+     * @throws IOException
+     */
+    void writeMetadata(ZipOutputStream zos, List<String> sheetNameOrder, boolean fullCalcOnLoad) throws IOException {
+        long start = System.nanoTime();
+        writeMetadataDocuments(zos, sheetNameOrder, fullCalcOnLoad);
+        if (metricsListener != null) {
+            metricsListener.metadataWritten(System.nanoTime() - start);
+        }
+    }
+
+    // order of the children of the styleSheet element, as defined by the schema
+    static final List<String> STYLE_SHEET_CHILDREN = List.of("numFmts", "fonts", "fills", "borders", "cellStyleXfs",
+            "cellXfs", "cellStyles", "dxfs", "tableStyles", "colors", "extLst");
+
+    /**
+     * Add the styles to a styles document (our template or the styles.xml of an existing file).
+     */
+    static void registerStyles(Document doc, List<Style> styles, Map<Style, Integer> styleToIdMapping) {
         Function<String, Element> elementBuilder = Utils.toElementBuilder(doc);
 
-        Element fonts = getElement(doc, "fonts");
-        Element cellXfs = getElement(doc, "cellXfs");
-        Element numFmts = getElement(doc, "numFmts");
-        Element fills = getElement(doc, "fills");
-        Element borders = getElement(doc, "borders");
+        Element fonts = getOrCreateElement(doc, "fonts", STYLE_SHEET_CHILDREN);
+        Element cellXfs = getOrCreateElement(doc, "cellXfs", STYLE_SHEET_CHILDREN);
+        Element numFmts = getOrCreateElement(doc, "numFmts", STYLE_SHEET_CHILDREN);
+        Element fills = getOrCreateElement(doc, "fills", STYLE_SHEET_CHILDREN);
+        Element borders = getOrCreateElement(doc, "borders", STYLE_SHEET_CHILDREN);
 
         for (Style style : styles) {
             int styleId = style.register(elementBuilder, fonts, cellXfs, numFmts, fills, borders);
@@ -91,19 +183,55 @@ class AbstractWorkbook {
         adjustCount(numFmts, "numFmt");
         adjustCount(fills, "fill");
         adjustCount(borders, "border");
+    }
 
-        addFileWithDocument(zos, "xl/styles.xml", doc);
+    /**
+     * Get the direct child with the given name, or create it at the position required by the schema.
+     *
+     * @param doc
+     * @param name
+     * @param childrenOrder the names of the children of the root element, in the schema order
+     * @return
+     */
+    static Element getOrCreateElement(Document doc, String name, List<String> childrenOrder) {
+        Element root = doc.getDocumentElement();
+        int position = childrenOrder.indexOf(name);
+        Node following = null;
+        for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE || !Utils.NS_SPREADSHEETML_2006_MAIN.equals(child.getNamespaceURI())) {
+                continue;
+            }
+            if (name.equals(child.getLocalName())) {
+                return (Element) child;
+            }
+            int childPosition = childrenOrder.indexOf(child.getLocalName());
+            if (following == null && childPosition > position) {
+                following = child;
+            }
+        }
+        Element element = doc.createElementNS(Utils.NS_SPREADSHEETML_2006_MAIN, name);
+        root.insertBefore(element, following);
+        return element;
     }
 
     static void writeMetadataDocuments(ZipOutputStream zos,
-                                       List<String> sheetNameOrder) throws IOException {
+                                       List<String> sheetNameOrder,
+                                       boolean fullCalcOnLoad) throws IOException {
         int sheetCount = sheetNameOrder.size();
         addFileWithDocument(zos, "[Content_Types].xml", buildContentTypes(sheetCount));
         addFileWithDocument(zos, "_rels/.rels", buildRels());
-        addFileWithDocument(zos, "xl/workbook.xml", buildWorkbook(sheetCount, sheetNameOrder));
+        addFileWithDocument(zos, "xl/workbook.xml", buildWorkbook(sheetCount, sheetNameOrder, fullCalcOnLoad));
         addFileWithDocument(zos, "xl/_rels/workbook.xml.rels", buildWorkbookRels(sheetCount));
     }
 
+    static void writeMetadataDocuments(ZipWriter zip, List<String> sheetNameOrder) throws IOException {
+        int sheetCount = sheetNameOrder.size();
+        addFileWithDocument(zip, "[Content_Types].xml", buildContentTypes(sheetCount));
+        addFileWithDocument(zip, "_rels/.rels", buildRels());
+        addFileWithDocument(zip, "xl/workbook.xml", buildWorkbook(sheetCount, sheetNameOrder, true));
+        addFileWithDocument(zip, "xl/_rels/workbook.xml.rels", buildWorkbookRels(sheetCount));
+    }
+
     private static Document buildContentTypes(int sheetCount) {
         Document doc = Utils.toDocument("content_types_template.xml");
         Element root = doc.getDocumentElement();
@@ -123,8 +251,14 @@ class AbstractWorkbook {
         return Utils.toDocument("rels_template.xml");
     }
 
-    private static Document buildWorkbook(int sheetCount, List<String> sheetNameOrder) {
+    private static Document buildWorkbook(int sheetCount, List<String> sheetNameOrder, boolean fullCalcOnLoad) {
         Document doc = Utils.toDocument("workbook_template.xml");
+        if (!fullCalcOnLoad) {
+            // excel recalculates the files saved by an older calculation engine: declare a recent one (excel 2019)
+            Element calcPr = getElement(doc, "calcPr");
+            calcPr.removeAttribute("fullCalcOnLoad");
+            calcPr.setAttribute("calcId", "191029");
+        }
         Element root = getElement(doc, "sheets");
         // <sheet name="Table0" sheetId="1" r:id="rId1"/>
         for (int i = 0; i < sheetCount; i++) {
@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.awt.AWTError;
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
+import java.awt.font.TextAttribute;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measure the characters using java.awt. Used only for the fonts that are not bundled in {@link BundledFontMetrics}
+ * and only if the java.desktop module is present.
+ */
+class AwtFontMetrics implements FontMetrics.Source {
+
+    private static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext(null, true, true);
+
+    private final Font font;
+    private final float lineHeight;
+
+    AwtFontMetrics(String name, float size, boolean bold, boolean italic) {
+        Map<TextAttribute, Object> attributes = new HashMap<>();
+        attributes.put(TextAttribute.FAMILY, name);
+        attributes.put(TextAttribute.SIZE, size);
+        if (bold) {
+            attributes.put(TextAttribute.WEIGHT, TextAttribute.WEIGHT_BOLD);
+        }
+        if (italic) {
+            attributes.put(TextAttribute.POSTURE, TextAttribute.POSTURE_OBLIQUE);
+        }
+        this.font = new Font(attributes);
+        LineMetrics lineMetrics = font.getLineMetrics("0", FONT_RENDER_CONTEXT);
+        this.lineHeight = lineMetrics.getAscent() + lineMetrics.getDescent() + lineMetrics.getLeading();
+    }
+
+    /**
+     * True for the errors of the font subsystem setup (no display, missing fontconfig, ...). Checked here, as the
+     * AWTError class is only available with the java.desktop module.
+     */
+    static boolean isFontSetupError(Error e) {
+        return e instanceof AWTError || e instanceof InternalError;
+    }
+
+    @Override
+    public float advance(int codePoint) {
+        char[] chars = Character.toChars(codePoint);
+        return (float) font.getStringBounds(chars, 0, chars.length, FONT_RENDER_CONTEXT).getWidth();
+    }
+
+    @Override
+    public float lineHeight() {
+        return lineHeight;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Pure java advance widths estimation, based on bundled metrics tables of the most common fonts used in xlsx files.
+ *
+ * <ul>
+ *     <li>Arial (and the metric compatible Helvetica, Liberation Sans, Arimo): exact advance widths</li>
+ *     <li>Calibri (and the metric compatible Carlito): approximated advance widths</li>
+ * </ul>
+ *
+ * The tables cover the printable ASCII characters: the accented latin characters are measured as their base
+ * character, the east asian wide characters as 1 em and the other characters as the average letter width.
+ * Italic variants have (almost) the same widths as the regular ones.
+ */
+class BundledFontMetrics implements FontMetrics.Source {
+
+    // advance widths of the characters from ' ' (32) to '~' (126), in font units
+    //
+    // Arial, in 1/1000 em
+    private static final short[] ARIAL = {
+            278, 278, 355, 556, 556, 889, 667, 191, 333, 333, 389, 584, 278, 333, 278, 278, //  !"#$%&'()*+,-./
+            556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 278, 278, 584, 584, 584, 556, // 0123456789:;<=>?
+            1015, 667, 667, 722, 722, 667, 611, 778, 722, 278, 500, 667, 556, 833, 722, 778, // @ABCDEFGHIJKLMNO
+            667, 778, 722, 667, 611, 722, 667, 944, 667, 667, 611, 278, 278, 278, 469, 556, // PQRSTUVWXYZ[\]^_
+            333, 556, 556, 500, 556, 556, 278, 556, 556, 222, 222, 500, 222, 833, 556, 556, // `abcdefghijklmno
+            556, 556, 333, 500, 278, 556, 500, 722, 500, 500, 500, 334, 260, 334, 584 // pqrstuvwxyz{|}~
+    };
+    private static final short[] ARIAL_BOLD = {
+            278, 333, 474, 556, 556, 889, 722, 238, 333, 333, 389, 584, 278, 333, 278, 278, //  !"#$%&'()*+,-./
+            556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 333, 333, 584, 584, 584, 611, // 0123456789:;<=>?
+            975, 722, 722, 722, 722, 667, 611, 778, 722, 278, 556, 722, 611, 833, 722, 778, // @ABCDEFGHIJKLMNO
+            667, 778, 722, 667, 611, 722, 667, 944, 667, 667, 611, 333, 278, 333, 584, 556, // PQRSTUVWXYZ[\]^_
+            333, 556, 611, 556, 611, 556, 333, 611, 611, 278, 278, 556, 278, 889, 611, 611, // `abcdefghijklmno
+            611, 611, 389, 556, 333, 611, 556, 778, 556, 556, 500, 389, 280, 389, 584 // pqrstuvwxyz{|}~
+    };
+    // Calibri, in 1/2048 em
+    private static final short[] CALIBRI = {
+            463, 667, 821, 1020, 1038, 1464, 1397, 451, 621, 621, 1020, 1020, 511, 627, 517, 791, //  !"#$%&'()*+,-./
+            1038, 1038, 1038, 1038, 1038, 1038, 1038, 1038, 1038, 1038, 548, 548, 1020, 1020, 1020, 949, // 0123456789:;<=>?
+            1831, 1185, 1114, 1092, 1260, 1000, 941, 1292, 1276, 516, 653, 1064, 861, 1751, 1322, 1356, // @ABCDEFGHIJKLMNO
+            1058, 1378, 1112, 941, 998, 1314, 1162, 1822, 1063, 998, 959, 628, 791, 628, 1020, 1020, // PQRSTUVWXYZ[\]^_
+            586, 981, 1076, 866, 1076, 1019, 625, 964, 1076, 470, 490, 931, 470, 1636, 1076, 1080, // `abcdefghijklmno
+            1076, 1076, 714, 801, 686, 1076, 925, 1464, 887, 927, 809, 644, 943, 644, 1020 // pqrstuvwxyz{|}~
+    };
+    private static final short[] CALIBRI_BOLD = {
+            463, 669, 894, 1020, 1038, 1491, 1441, 452, 621, 621, 1020, 1020, 523, 627, 517, 888, //  !"#$%&'()*+,-./
+            1038, 1038, 1038, 1038, 1038, 1038, 1038, 1038, 1038, 1038, 565, 565, 1020, 1020, 1020, 949, // 0123456789:;<=>?
+            1827, 1239, 1149, 1092, 1290, 1003, 941, 1314, 1292, 546, 682, 1118, 863, 1771, 1325, 1386, // @ABCDEFGHIJKLMNO
+            1094, 1409, 1154, 941, 998, 1314, 1216, 1834, 1124, 1063, 980, 663, 888, 663, 1020, 1020, // PQRSTUVWXYZ[\]^_
+            600, 1011, 1100, 856, 1100, 1032, 653, 966, 1100, 503, 523, 980, 503, 1673, 1100, 1105, // `abcdefghijklmno
+            1100, 1100, 727, 815, 710, 1100, 969, 1524, 927, 971, 810, 667, 943, 667, 1020 // pqrstuvwxyz{|}~
+    };
+
+    private static final Table ARIAL_TABLE = new Table(1000, ARIAL, 1.15f);
+    private static final Table ARIAL_BOLD_TABLE = new Table(1000, ARIAL_BOLD, 1.15f);
+    private static final Table CALIBRI_TABLE = new Table(2048, CALIBRI, 1.22f);
+    private static final Table CALIBRI_BOLD_TABLE = new Table(2048, CALIBRI_BOLD, 1.22f);
+
+    private final Table table;
+    private final float size;
+
+    private BundledFontMetrics(Table table, float size) {
+        this.table = table;
+        this.size = size;
+    }
+
+    /**
+     * Return the bundled metrics for the given font, or null if the font is not bundled.
+     */
+    static BundledFontMetrics forFont(String name, float size, boolean bold) {
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "arial":
+            case "helvetica":
+            case "liberation sans":
+            case "arimo":
+                return new BundledFontMetrics(bold ? ARIAL_BOLD_TABLE : ARIAL_TABLE, size);
+            case "calibri":
+            case "carlito":
+                return new BundledFontMetrics(bold ? CALIBRI_BOLD_TABLE : CALIBRI_TABLE, size);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Estimation for a font without bundled metrics: the default font metrics are used.
+     */
+    static BundledFontMetrics fallback(float size, boolean bold) {
+        return new BundledFontMetrics(bold ? ARIAL_BOLD_TABLE : ARIAL_TABLE, size);
+    }
+
+    @Override
+    public float advance(int codePoint) {
+        return table.advance(codePoint) * size;
+    }
+
+    @Override
+    public float lineHeight() {
+        return table.lineHeight * size;
+    }
+
+    private static final class Table {
+
+        private final float[] ascii = new float[127]; //in em
+        private final float averageLowerCase;
+        private final float averageUpperCase;
+        private final float lineHeight;
+
+        private Table(int unitsPerEm, short[] widths, float lineHeight) {
+            float lower = 0;
+            float upper = 0;
+            for (int i = 0; i < widths.length; i++) {
+                int c = i + ' ';
+                ascii[c] = widths[i] / (float) unitsPerEm;
+                if (c >= 'a' && c <= 'z') {
+                    lower += ascii[c];
+                } else if (c >= 'A' && c <= 'Z') {
+                    upper += ascii[c];
+                }
+            }
+            this.averageLowerCase = lower / 26;
+            this.averageUpperCase = upper / 26;
+            this.lineHeight = lineHeight;
+        }
+
+        // width in em
+        float advance(int codePoint) {
+            if (codePoint < ' ') {
+                return 0;
+            } else if (codePoint < ascii.length) {
+                return ascii[codePoint];
+            }
+
+            switch (codePoint) {
+                case 0xA0: // no-break space
+                    return ascii[' '];
+                case 0xAD: // soft hyphen
+                    return ascii['-'];
+                case 0x20AC: // euro sign
+                case 0xA3: // pound sign
+                case 0xA5: // yen sign
+                    return ascii['$'];
+                default:
+                    break;
+            }
+
+            int type = Character.getType(codePoint);
+            if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK || type == Character.FORMAT || type == Character.CONTROL) {
+                return 0;
+            }
+
+            if (isWide(codePoint)) {
+                return 1;
+            }
+
+            if (Character.isLetter(codePoint)) {
+                // accented characters: use the base character
+                String decomposed = Normalizer.normalize(new String(Character.toChars(codePoint)), Normalizer.Form.NFD);
+                char base = decomposed.charAt(0);
+                if (base >= ' ' && base < ascii.length) {
+                    return ascii[base];
+                }
+                return Character.isUpperCase(codePoint) ? averageUpperCase : averageLowerCase;
+            }
+
+            if (Character.isDigit(codePoint)) {
+                return ascii['0'];
+            }
+
+            return averageLowerCase;
+        }
+
+        // east asian wide/full width ranges, and emoji
+        private static boolean isWide(int codePoint) {
+            return (codePoint >= 0x1100 && codePoint <= 0x115F) ||
+                    (codePoint >= 0x2E80 && codePoint <= 0xA4CF) ||
+                    (codePoint >= 0xAC00 && codePoint <= 0xD7A3) ||
+                    (codePoint >= 0xF900 && codePoint <= 0xFAFF) ||
+                    (codePoint >= 0xFE30 && codePoint <= 0xFE4F) ||
+                    (codePoint >= 0xFF00 && codePoint <= 0xFF60) ||
+                    (codePoint >= 0xFFE0 && codePoint <= 0xFFE6) ||
+                    (codePoint >= 0x1F300 && codePoint <= 0x1F64F) ||
+                    (codePoint >= 0x1F900 && codePoint <= 0x1F9FF) ||
+                    (codePoint >= 0x20000 && codePoint <= 0x3FFFD);
+        }
+    }
+}
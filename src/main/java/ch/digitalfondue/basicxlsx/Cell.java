@@ -34,6 +34,21 @@ public abstract class Cell {
         return null;
     }
 
+    /**
+     * The numeric value (number or date serial) of the cell, NaN if the cell is not numeric.
+     */
+    double numericValue() {
+        return Double.NaN;
+    }
+
+    /**
+     * True for a formula whose result has not been computed by the library: the workbook must be recalculated when
+     * opened, as the result given with {@link #formula(String, String)} is only a fallback and may be stale.
+     */
+    boolean needsCalculation() {
+        return false;
+    }
+
     Style style;
 
     /**
@@ -181,6 +196,32 @@ public abstract class Cell {
     public static Cell formula(String formula, String value) {
         return new FormulaCell(formula, value);
     }
+
+    /**
+     * Create a cell containing a formula declared once for many cells, see {@link SharedFormula}.
+     *
+     * @param formula
+     * @return
+     */
+    public static Cell formula(SharedFormula formula) {
+        return new SharedFormulaCell(formula, null);
+    }
+
+    /**
+     * Create a cell containing a formula declared once for many cells, see {@link SharedFormula}.
+     *
+     * @param formula
+     * @param value resulting value of the formula in this cell, used by viewers that are not able to run the formula.
+     * @return
+     */
+    public static Cell formula(SharedFormula formula, String value) {
+        return new SharedFormulaCell(formula, value);
+    }
+
+    // formula with a result computed by the library (e.g. the footer aggregates), see needsCalculation
+    static Cell computedFormula(String formula, String value) {
+        return new FormulaCell(formula, value, true);
+    }
     //
 
     //inline string element
@@ -249,16 +290,27 @@ public abstract class Cell {
 
             return cell;
         }
+
+        @Override
+        double numericValue() {
+            return number.doubleValue();
+        }
     }
 
     // formula
     private static class FormulaCell extends Cell {
         private final String formula;
-        private final String result;
+        final String result;
+        private final boolean computed;
 
         private FormulaCell(String formula, String result) {
+            this(formula, result, false);
+        }
+
+        private FormulaCell(String formula, String result, boolean computed) {
             this.formula = formula;
             this.result = result;
+            this.computed = computed;
         }
 
         @Override
@@ -279,6 +331,68 @@ public abstract class Cell {
             }
             return cell;
         }
+
+        @Override
+        String formattedValue() {
+            return result;
+        }
+
+        @Override
+        boolean needsCalculation() {
+            return !computed;
+        }
+
+        @Override
+        double numericValue() {
+            if (result == null || result.isEmpty() || !(Character.isDigit(result.charAt(0)) || result.charAt(0) == '-' || result.charAt(0) == '.')) {
+                return Double.NaN;
+            }
+            try {
+                return Double.parseDouble(result);
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+    }
+
+    // shared formula, the role of the cell in its group is given by SharedFormulas
+    static final class SharedFormulaCell extends FormulaCell {
+        final SharedFormula shared;
+
+        private SharedFormulaCell(SharedFormula shared, String result) {
+            super(shared.getFormula(), result);
+            this.shared = shared;
+        }
+
+        /**
+         * @param text the formula, null for the cells following the master cell of the group
+         * @param ref the range of the group on the master cell, else null
+         * @param si the group id, -1 for a standalone formula
+         */
+        Element toElement(Function<String, Element> elementBuilder, int row, int column, int styleId, String text, String ref, int si) {
+            //<c r="D2"><f t="shared" ref="D2:D9" si="0">B2*C2</f><v>42</v></c>
+            //<c r="D3"><f t="shared" si="0"/><v>12</v></c>
+            Element cell = buildCell(elementBuilder, "n", row, column, styleId);
+            Element f = elementBuilder.apply("f");
+            if (si >= 0) {
+                f.setAttribute("t", "shared");
+                if (ref != null) {
+                    f.setAttribute("ref", ref);
+                }
+                f.setAttribute("si", Integer.toString(si));
+            }
+            if (text != null) {
+                f.setTextContent(text);
+            }
+            cell.appendChild(f);
+
+            if (result != null) {
+                Element v = elementBuilder.apply("v");
+                v.setTextContent(result);
+                cell.appendChild(v);
+            }
+            return cell;
+        }
     }
 
     //boolean
@@ -331,5 +445,10 @@ public abstract class Cell {
             cell.appendChild(v);
             return cell;
         }
+
+        @Override
+        double numericValue() {
+            return value.doubleValue();
+        }
     }
 }
@@ -15,23 +15,16 @@
  */
 package ch.digitalfondue.basicxlsx;
 
-import java.awt.font.FontRenderContext;
-import java.awt.font.TextAttribute;
-import java.awt.font.TextLayout;
-import java.awt.geom.AffineTransform;
-import java.awt.geom.Rectangle2D;
-import java.text.AttributedString;
-
-import static ch.digitalfondue.basicxlsx.Style.DEFAULT_FONT_NAME;
-import static ch.digitalfondue.basicxlsx.Style.DEFAULT_FONT_SIZE;
-
 class CellWidthCalculator {
 
+    // reusable buffer for the formatted numbers and dates
+    private static final ThreadLocal<StringBuilder> FORMATTED = ThreadLocal.withInitial(() -> new StringBuilder(32));
+
     // https://support.microsoft.com/en-ph/help/214123/description-of-how-column-widths-are-determined-in-excel
-    // currently only handle string and boolean type, as we don't support the formatting
+    // the numbers and dates are rendered with the numeric format of the style, see NumericFormatter
     static double cellWidth(Cell cell) {
 
-        String value = cell.formattedValue();
+        CharSequence value = displayedText(cell);
         if (value == null) {
             return 8.43; //standard size
         }
@@ -42,9 +35,37 @@ class CellWidthCalculator {
             return getWidth(value, cell.getStyle());
         }
     }
+
+    /**
+     * The text of the cell as displayed, the measured one. May be null.
+     */
+    static String displayedValue(Cell cell) {
+        CharSequence value = displayedText(cell);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * The length of the text of the cell as displayed, without allocating it.
+     */
+    static int displayedLength(Cell cell) {
+        CharSequence value = displayedText(cell);
+        return value == null ? 0 : value.length();
+    }
+
+    // the formatted numbers and dates are in a reused buffer
+    private static CharSequence displayedText(Cell cell) {
+        double number = cell.numericValue();
+        if (Double.isNaN(number)) {
+            return cell.formattedValue();
+        }
+        StringBuilder formatted = FORMATTED.get();
+        formatted.setLength(0);
+        NumericFormatter.of(cell.getStyle()).format(number, formatted);
+        return formatted;
+    }
     //
 
-    // code imported and modified from https://github.com/apache/poi/blob/trunk/src/java/org/apache/poi/ss/util/SheetUtil.java
+    // the rotation handling is based on https://github.com/apache/poi/blob/trunk/src/java/org/apache/poi/ss/util/SheetUtil.java
     // under the following license
     /* ====================================================================
    Licensed to the Apache Software Foundation (ASF) under one or more
@@ -62,52 +83,27 @@ class CellWidthCalculator {
    ==================================================================== */
     //
 
-    private static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext(null, true, true);
-    private static final Style.FontDesc DEFAULT_FONT_DESC = new Style.FontDesc(DEFAULT_FONT_NAME, DEFAULT_FONT_SIZE, null, false, false, null, false);
-
-    private static float getDefaultCharWidth() {
-        AttributedString str = new AttributedString(String.valueOf('0'));
-        copyAttributes(DEFAULT_FONT_DESC, str, 0, 1);
-        TextLayout layout = new TextLayout(str.getIterator(), FONT_RENDER_CONTEXT);
-        return layout.getAdvance();
+    private static double getDefaultCharWidth() {
+        return DefaultCharWidthHolder.DEFAULT_CHAR_WIDTH;
     }
 
-    private static double getWidth(String value, Style style) {
-        AttributedString str = new AttributedString(value);
-        Style.FontDesc fontDesc = style.getFontDesc();
-        copyAttributes(fontDesc == null ? DEFAULT_FONT_DESC : fontDesc, str, 0, value.length());
-        TextLayout layout = new TextLayout(str.getIterator(), FONT_RENDER_CONTEXT);
-        Rectangle2D bounds;
+    private static double getWidth(CharSequence value, Style style) {
+        FontMetrics metrics = FontMetrics.of(style.getFontDesc());
+        double width = metrics.width(value);
         if (style.getRotation() != null && style.getRotation() != 0) {
             /*
-             * Transform the text using a scale so that it's height is increased by a multiple of the leading,
-             * and then rotate the text before computing the bounds. The scale results in some whitespace around
-             * the unrotated top and bottom of the text that normally wouldn't be present if unscaled, but
-             * is added by the standard Excel autosize.
+             * Like POI: the height of the text is increased by a multiple of the leading and then the text is rotated
+             * before computing the bounds. The scale results in some whitespace around the unrotated top and bottom
+             * of the text that normally wouldn't be present if unscaled, but is added by the standard Excel autosize.
              */
-            AffineTransform trans = new AffineTransform();
-            trans.concatenate(AffineTransform.getRotateInstance(style.getRotation() * 2.0 * Math.PI / 360.0));
-            trans.concatenate(AffineTransform.getScaleInstance(1, 2.0));
-            bounds = layout.getOutline(trans).getBounds();
-        } else {
-            bounds = layout.getBounds();
+            double angle = Math.toRadians(style.getRotation());
+            width = Math.abs(width * Math.cos(angle)) + Math.abs(2.0 * metrics.lineHeight() * Math.sin(angle));
         }
-        // frameWidth accounts for leading spaces which is excluded from bounds.getWidth()
-        double frameWidth = bounds.getX() + bounds.getWidth();
-        return ((frameWidth) / getDefaultCharWidth());
+        return width / getDefaultCharWidth();
     }
 
-    private static void copyAttributes(Style.FontDesc font, AttributedString str, int startIdx, int endIdx) {
-        str.addAttribute(TextAttribute.FAMILY, font.name == null ? DEFAULT_FONT_NAME : font.name, startIdx, endIdx);
-        str.addAttribute(TextAttribute.SIZE, font.size == null ? DEFAULT_FONT_SIZE : font.size.floatValue());
-        if (font.bold) {
-            str.addAttribute(TextAttribute.WEIGHT, TextAttribute.WEIGHT_BOLD, startIdx, endIdx);
-        }
-        if (font.italic) {
-            str.addAttribute(TextAttribute.POSTURE, TextAttribute.POSTURE_OBLIQUE, startIdx, endIdx);
-        }
-        if (font.fontUnderlineStyle != Style.FontUnderlineStyle.NONE && font.fontUnderlineStyle != null) {
-            str.addAttribute(TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON, startIdx, endIdx);
-        }
+    // lazily computed width of the '0' character in the default font
+    private static class DefaultCharWidthHolder {
+        private static final double DEFAULT_CHAR_WIDTH = FontMetrics.of(null).advance('0');
     }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keep a running maximum of the cells width for each column.
+ *
+ * If maxDistinctValues is greater than 0, for each column only the first maxDistinctValues distinct values are
+ * measured, after that only the values that are longer (in characters) than the longest measured one.
+ */
+class ColumnWidthTracker {
+
+    static final double DEFAULT_WIDTH = 8.43;
+
+    private final int maxDistinctValues;
+    private double[] widths = new double[0];
+    private int[] longest = new int[0];
+    private int columnCount;
+    private long measuredCells;
+    private final Map<Integer, Set<String>> distinctValues = new HashMap<>();
+
+    ColumnWidthTracker(int maxDistinctValues) {
+        this.maxDistinctValues = maxDistinctValues;
+    }
+
+    void track(int column, Cell cell) {
+        ensureCapacity(column);
+        columnCount = Math.max(columnCount, column + 1);
+        // the displayed text, as measured: the numbers and dates with their numeric format
+        String value = maxDistinctValues > 0 ? CellWidthCalculator.displayedValue(cell) : null;
+        if (value != null) {
+            Set<String> seen = distinctValues.computeIfAbsent(column, c -> new HashSet<>());
+            if (seen.contains(value) || (seen.size() >= maxDistinctValues && value.length() <= longest[column])) {
+                return;
+            }
+            if (seen.size() < maxDistinctValues) {
+                seen.add(value);
+            }
+        }
+        widths[column] = Math.max(widths[column], CellWidthCalculator.cellWidth(cell));
+        measuredCells++;
+        if (value != null) {
+            longest[column] = Math.max(longest[column], value.length());
+        }
+    }
+
+    /**
+     * The measured width of the column, or -1 if the column has no measured cells or the width is lower than the
+     * default width.
+     */
+    double width(int column) {
+        if (column >= widths.length || widths[column] <= DEFAULT_WIDTH) {
+            return -1;
+        }
+        return widths[column];
+    }
+
+    int columnCount() {
+        return columnCount;
+    }
+
+    long measuredCells() {
+        return measuredCells;
+    }
+
+    private void ensureCapacity(int column) {
+        if (column >= widths.length) {
+            int length = Math.max(column + 1, widths.length * 2);
+            widths = Arrays.copyOf(widths, length);
+            longest = Arrays.copyOf(longest, length);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Count the bytes written in the wrapped output stream.
+ */
+final class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+    private boolean discard;
+
+    CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!discard) {
+            out.write(b);
+            count++;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (!discard) {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Ignore the following writes, the wrapped output stream is still flushed and closed.
+     */
+    void discard() {
+        discard = true;
+    }
+
+    long getCount() {
+        return count;
+    }
+}
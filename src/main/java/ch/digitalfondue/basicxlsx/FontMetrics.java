@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static ch.digitalfondue.basicxlsx.Style.DEFAULT_FONT_NAME;
+import static ch.digitalfondue.basicxlsx.Style.DEFAULT_FONT_SIZE;
+
+/**
+ * Advance widths (in points) of the characters of a given font (name, size, bold, italic).
+ *
+ * The latin-1 characters are measured once when the metrics are created, the others lazily on first use.
+ * After that, measuring a string is a simple sum.
+ *
+ * The widths are provided by {@link BundledFontMetrics} for the common fonts. The other fonts are measured with
+ * {@link AwtFontMetrics} if the (optional) java.desktop module is available, else they are estimated with the
+ * default font metrics.
+ */
+class FontMetrics {
+
+    /**
+     * Source of the advance widths.
+     */
+    interface Source {
+        float advance(int codePoint);
+
+        float lineHeight();
+    }
+
+    private static final Map<Key, FontMetrics> CACHE = new ConcurrentHashMap<>();
+    private static volatile boolean awtAvailable = isAwtModuleAvailable();
+
+    private final Source source;
+    private final float[] latin1 = new float[256];
+    private final Map<Integer, Float> others = new ConcurrentHashMap<>();
+
+    private FontMetrics(Source source) {
+        this.source = source;
+        for (int i = 0; i < latin1.length; i++) {
+            latin1[i] = source.advance(i);
+        }
+    }
+
+    static FontMetrics of(Style.FontDesc fontDesc) {
+        String name = fontDesc == null || fontDesc.name == null ? DEFAULT_FONT_NAME : fontDesc.name;
+        float size = fontDesc == null || fontDesc.size == null ? DEFAULT_FONT_SIZE.floatValue() : fontDesc.size.floatValue();
+        boolean bold = fontDesc != null && fontDesc.bold;
+        boolean italic = fontDesc != null && fontDesc.italic;
+        return CACHE.computeIfAbsent(new Key(name, size, bold, italic), FontMetrics::create);
+    }
+
+    private static FontMetrics create(Key key) {
+        Source source = BundledFontMetrics.forFont(key.name, key.size, key.bold);
+        if (source != null) {
+            return new FontMetrics(source);
+        }
+        if (awtAvailable) {
+            try {
+                return new FontMetrics(new AwtFontMetrics(key.name, key.size, key.bold, key.italic));
+            } catch (RuntimeException | LinkageError e) {
+                // the font subsystem is not usable (e.g. headless environment without fontconfig)
+                awtAvailable = false;
+            } catch (Error e) {
+                if (!AwtFontMetrics.isFontSetupError(e)) {
+                    throw e;
+                }
+                awtAvailable = false;
+            }
+        }
+        return new FontMetrics(BundledFontMetrics.fallback(key.size, key.bold));
+    }
+
+    private static boolean isAwtModuleAvailable() {
+        Optional<Module> desktop = ModuleLayer.boot().findModule("java.desktop");
+        if (desktop.isEmpty()) {
+            return false;
+        }
+        Module self = FontMetrics.class.getModule();
+        if (!self.canRead(desktop.get())) {
+            self.addReads(desktop.get());
+        }
+        return true;
+    }
+
+    float advance(int codePoint) {
+        if (codePoint < latin1.length) {
+            return latin1[codePoint];
+        }
+        Float width = others.get(codePoint);
+        if (width == null) {
+            width = source.advance(codePoint);
+            others.put(codePoint, width);
+        }
+        return width;
+    }
+
+    float width(CharSequence value) {
+        float width = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                width += advance(Character.toCodePoint(c, value.charAt(++i)));
+            } else {
+                width += advance(c);
+            }
+        }
+        return width;
+    }
+
+    float lineHeight() {
+        return source.lineHeight();
+    }
+
+    private static final class Key {
+        final String name;
+        final float size;
+        final boolean bold;
+        final boolean italic;
+
+        Key(String name, float size, boolean bold, boolean italic) {
+            this.name = name;
+            this.size = size;
+            this.bold = bold;
+            this.italic = italic;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return size == other.size && bold == other.bold && italic == other.italic && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, size, bold, italic);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JDK Flight Recorder events. They are disabled by default, enable them in the recording settings, e.g.
+ * <code>jcmd &lt;pid&gt; JFR.start settings=profile +ch.digitalfondue.basicxlsx.SheetWrite#enabled=true</code> (JDK 17+)
+ * or with a custom .jfc file.
+ *
+ * Only used through {@link JfrEvents}, as the jdk.jfr module is optional.
+ */
+final class JfrEventTypes {
+
+    private static final String CATEGORY = "basicxlsx";
+
+    private JfrEventTypes() {
+    }
+
+    @Name("ch.digitalfondue.basicxlsx.WorkbookWrite")
+    @Label("Workbook Write")
+    @Description("From the creation (streaming) or the write call to the completion of a workbook")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class WorkbookWriteEvent extends Event {
+        @Label("Writer")
+        String writer;
+
+        @Label("Sheets")
+        int sheets;
+    }
+
+    @Name("ch.digitalfondue.basicxlsx.SheetWrite")
+    @Label("Sheet Write")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class SheetWriteEvent extends Event {
+        @Label("Sheet Name")
+        String sheetName;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Uncompressed Size")
+        @DataAmount
+        long uncompressedBytes;
+
+        @Label("Compressed Size")
+        @DataAmount
+        long compressedBytes;
+    }
+
+    @Name("ch.digitalfondue.basicxlsx.StylesCommit")
+    @Label("Styles Commit")
+    @Description("The style table has been built and written")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class StylesCommitEvent extends Event {
+        @Label("Styles")
+        int styleCount;
+
+        @Label("Derived Style Cache Hits")
+        int derivedStyleHits;
+    }
+
+    @Name("ch.digitalfondue.basicxlsx.RowBatch")
+    @Label("Row Batch")
+    @Description("A batch of rows has been encoded (1000 rows, less for the last batch of a sheet)")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class RowBatchEvent extends Event {
+        @Label("First Row")
+        int firstRow;
+
+        @Label("Rows")
+        int rows;
+    }
+
+    @Name("ch.digitalfondue.basicxlsx.Autosize")
+    @Label("Autosize")
+    @Description("The rows of a sheet have been spooled while measuring the width of the columns")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class AutosizeEvent extends Event {
+        @Label("Columns")
+        int columns;
+
+        @Label("Cells Measured")
+        long cellsMeasured;
+    }
+
+    static Object beginWorkbookWrite(String writer) {
+        WorkbookWriteEvent event = new WorkbookWriteEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.writer = writer;
+        event.begin();
+        return event;
+    }
+
+    static void endWorkbookWrite(Object token, int sheets) {
+        WorkbookWriteEvent event = (WorkbookWriteEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.sheets = sheets;
+            event.commit();
+        }
+    }
+
+    static Object beginSheetWrite() {
+        SheetWriteEvent event = new SheetWriteEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endSheetWrite(Object token, String sheetName, long rows, long uncompressedBytes, long compressedBytes) {
+        SheetWriteEvent event = (SheetWriteEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.sheetName = sheetName;
+            event.rows = rows;
+            event.uncompressedBytes = uncompressedBytes;
+            event.compressedBytes = compressedBytes;
+            event.commit();
+        }
+    }
+
+    static Object beginStylesCommit() {
+        StylesCommitEvent event = new StylesCommitEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endStylesCommit(Object token, int styleCount, int derivedStyleHits) {
+        StylesCommitEvent event = (StylesCommitEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.styleCount = styleCount;
+            event.derivedStyleHits = derivedStyleHits;
+            event.commit();
+        }
+    }
+
+    static Object beginRowBatch() {
+        RowBatchEvent event = new RowBatchEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endRowBatch(Object token, int firstRow, int rows) {
+        RowBatchEvent event = (RowBatchEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.firstRow = firstRow;
+            event.rows = rows;
+            event.commit();
+        }
+    }
+
+    static Object beginAutosize() {
+        AutosizeEvent event = new AutosizeEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endAutosize(Object token, int columns, long cellsMeasured) {
+        AutosizeEvent event = (AutosizeEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.columns = columns;
+            event.cellsMeasured = cellsMeasured;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.util.Optional;
+
+/**
+ * Emit the JDK Flight Recorder events of the library (see {@link JfrEventTypes}) when the optional jdk.jfr module
+ * is available.
+ *
+ * The begin methods return null when the module is missing or the event is not enabled (the default): the callers
+ * only keep the returned token and pass it to the corresponding end method, without referencing the jdk.jfr types.
+ */
+final class JfrEvents {
+
+    private static final boolean AVAILABLE = isJfrModuleAvailable();
+
+    private JfrEvents() {
+    }
+
+    private static boolean isJfrModuleAvailable() {
+        Optional<Module> jfr = ModuleLayer.boot().findModule("jdk.jfr");
+        if (jfr.isEmpty()) {
+            return false;
+        }
+        Module self = JfrEvents.class.getModule();
+        if (!self.canRead(jfr.get())) {
+            self.addReads(jfr.get());
+        }
+        return true;
+    }
+
+    static Object beginWorkbookWrite(String writer) {
+        return AVAILABLE ? JfrEventTypes.beginWorkbookWrite(writer) : null;
+    }
+
+    static void endWorkbookWrite(Object event, int sheets) {
+        if (event != null) {
+            JfrEventTypes.endWorkbookWrite(event, sheets);
+        }
+    }
+
+    static Object beginSheetWrite() {
+        return AVAILABLE ? JfrEventTypes.beginSheetWrite() : null;
+    }
+
+    static void endSheetWrite(Object event, String sheetName, long rows, long uncompressedBytes, long compressedBytes) {
+        if (event != null) {
+            JfrEventTypes.endSheetWrite(event, sheetName, rows, uncompressedBytes, compressedBytes);
+        }
+    }
+
+    static Object beginStylesCommit() {
+        return AVAILABLE ? JfrEventTypes.beginStylesCommit() : null;
+    }
+
+    static void endStylesCommit(Object event, int styleCount, int derivedStyleHits) {
+        if (event != null) {
+            JfrEventTypes.endStylesCommit(event, styleCount, derivedStyleHits);
+        }
+    }
+
+    static Object beginRowBatch() {
+        return AVAILABLE ? JfrEventTypes.beginRowBatch() : null;
+    }
+
+    static void endRowBatch(Object event, int firstRow, int rows) {
+        if (event != null) {
+            JfrEventTypes.endRowBatch(event, firstRow, rows);
+        }
+    }
+
+    static Object beginAutosize() {
+        return AVAILABLE ? JfrEventTypes.beginAutosize() : null;
+    }
+
+    static void endAutosize(Object event, int columns, long cellsMeasured) {
+        if (event != null) {
+            JfrEventTypes.endAutosize(event, columns, cellsMeasured);
+        }
+    }
+}
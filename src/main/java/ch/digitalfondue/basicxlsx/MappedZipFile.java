@@ -0,0 +1,302 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Read only access to the entries of a zip file through memory mapping: the central directory (including the Zip64
+ * extensions) is parsed when opening, then each entry is mapped and inflated independently when requested. The
+ * entries can be read concurrently from different threads.
+ *
+ * The compressed content of an entry can also be accessed as is (see {@link #rawData(Entry)}), for copying it in
+ * another archive without inflating and deflating it again.
+ */
+class MappedZipFile implements WorkbookReader.EntrySource {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final long UINT32_MAX = 0xFFFFFFFFL;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final FileChannel channel;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    static final class Entry {
+        final String name;
+        final int method;
+        final int dosTime;
+        final long crc;
+        final long compressedSize;
+        final long uncompressedSize;
+        final long localHeaderOffset;
+
+        Entry(String name, int method, int dosTime, long crc, long compressedSize, long uncompressedSize, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    MappedZipFile(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private ByteBuffer map(long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new ZipException("Entry too large to be mapped: " + size + " bytes");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+        // the end of central directory record is 22 bytes + a comment of at most 65535 bytes
+        long tailStart = Math.max(0, fileSize - 22 - 0xFFFF);
+        ByteBuffer tail = map(tailStart, fileSize - tailStart);
+        int eocd = -1;
+        for (int i = tail.limit() - 22; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException("Not a zip file: end of central directory not found");
+        }
+
+        long entryCount = Short.toUnsignedLong(tail.getShort(eocd + 10));
+        long directorySize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+        long directoryOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+
+        int locator = eocd - 20;
+        if (locator >= 0 && tail.getInt(locator) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR) {
+            ByteBuffer zip64 = map(tail.getLong(locator + 8), 56);
+            if (zip64.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                throw new ZipException("Invalid zip64 end of central directory");
+            }
+            entryCount = zip64.getLong(32);
+            directorySize = zip64.getLong(40);
+            directoryOffset = zip64.getLong(48);
+        }
+
+        ByteBuffer directory = map(directoryOffset, directorySize);
+        int position = 0;
+        for (long i = 0; i < entryCount; i++) {
+            if (directory.getInt(position) != CENTRAL_DIRECTORY_HEADER) {
+                throw new ZipException("Invalid central directory header");
+            }
+            int method = Short.toUnsignedInt(directory.getShort(position + 10));
+            int dosTime = directory.getInt(position + 12);
+            long crc = Integer.toUnsignedLong(directory.getInt(position + 16));
+            long compressedSize = Integer.toUnsignedLong(directory.getInt(position + 20));
+            long uncompressedSize = Integer.toUnsignedLong(directory.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+            long localHeaderOffset = Integer.toUnsignedLong(directory.getInt(position + 42));
+
+            byte[] name = new byte[nameLength];
+            for (int j = 0; j < nameLength; j++) {
+                name[j] = directory.get(position + 46 + j);
+            }
+
+            // zip64 extended information: the values are present only when the 32 bits field is 0xFFFFFFFF
+            int extra = position + 46 + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int headerId = Short.toUnsignedInt(directory.getShort(extra));
+                int dataSize = Short.toUnsignedInt(directory.getShort(extra + 2));
+                if (headerId == 0x0001) {
+                    int field = extra + 4;
+                    if (uncompressedSize == UINT32_MAX) {
+                        uncompressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == UINT32_MAX) {
+                        compressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == UINT32_MAX) {
+                        localHeaderOffset = directory.getLong(field);
+                    }
+                }
+                extra += 4 + dataSize;
+            }
+
+            String entryName = new String(name, StandardCharsets.UTF_8);
+            entries.put(entryName, new Entry(entryName, method, dosTime, crc, compressedSize, uncompressedSize, localHeaderOffset));
+            position = extraEnd + commentLength;
+        }
+    }
+
+    boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    Entry entry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * The entries, in the central directory order.
+     *
+     * @return
+     */
+    Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * The compressed content of the entry, as stored in the file.
+     *
+     * @param entry
+     * @return
+     * @throws IOException
+     */
+    ByteBuffer rawData(Entry entry) throws IOException {
+        ByteBuffer localHeader = map(entry.localHeaderOffset, 30);
+        if (localHeader.getInt(0) != LOCAL_FILE_HEADER) {
+            throw new ZipException("Invalid local file header for " + entry.name);
+        }
+        long dataOffset = entry.localHeaderOffset + 30 + Short.toUnsignedInt(localHeader.getShort(26)) + Short.toUnsignedInt(localHeader.getShort(28));
+        return map(dataOffset, entry.compressedSize);
+    }
+
+    @Override
+    public InputStream open(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer data = rawData(entry);
+        if (entry.method == STORED) {
+            return new ByteBufferInputStream(data);
+        } else if (entry.method == DEFLATED) {
+            return new InflatingInputStream(data);
+        }
+        throw new ZipException("Unsupported compression method " + entry.method + " for " + name);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+    }
+
+    private static final class InflatingInputStream extends InputStream {
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] single = new byte[1];
+        private boolean dummyByteAdded;
+
+        InflatingInputStream(ByteBuffer data) {
+            inflater.setInput(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                int count;
+                while ((count = inflater.inflate(b, off, len)) == 0) {
+                    if (inflater.finished()) {
+                        return -1;
+                    }
+                    if (inflater.needsDictionary()) {
+                        throw new ZipException("Unexpected preset dictionary");
+                    }
+                    if (inflater.needsInput()) {
+                        if (dummyByteAdded) {
+                            throw new ZipException("Unexpected end of the compressed data");
+                        }
+                        // like ZipFile: the "nowrap" inflater may need an extra dummy byte to complete
+                        inflater.setInput(new byte[1]);
+                        dummyByteAdded = true;
+                    }
+                }
+                return count;
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+/**
+ * Receive the metrics of {@link Workbook}, {@link StreamingWorkbook} and {@link SplittingWorkbook}, for bridging
+ * them to a metrics registry.
+ *
+ * <p>The methods are called on the writing thread and have an empty default implementation. When no listener is
+ * set, nothing is measured.</p>
+ */
+public interface MetricsListener {
+
+    /**
+     * The styles have been committed and the styles.xml document written.
+     *
+     * @param styleCount the number of defined styles
+     * @param nanos
+     */
+    default void stylesCommitted(int styleCount, long nanos) {
+    }
+
+    /**
+     * The metadata documents (content types, relations and workbook) have been written.
+     *
+     * @param nanos
+     */
+    default void metadataWritten(long nanos) {
+    }
+
+    /**
+     * A batch of {@link SheetMetrics#ROW_BATCH_SIZE} rows (or less for the last batch of a sheet) has been written.
+     *
+     * @param sheetName
+     * @param rows
+     * @param nanos time spent writing the rows, without the time spent producing them
+     */
+    default void rowBatchWritten(String sheetName, int rows, long nanos) {
+    }
+
+    /**
+     * A sheet has been written.
+     *
+     * @param metrics
+     */
+    default void sheetWritten(SheetMetrics metrics) {
+    }
+}
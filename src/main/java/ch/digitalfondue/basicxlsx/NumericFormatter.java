@@ -0,0 +1,746 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Render a numeric value (a number or a date serial) like Excel would display it with a given numeric format. Used
+ * for estimating the width of the cells: the value is appended to a caller supplied buffer, no intermediate strings
+ * are created.
+ *
+ * Supported: the builtin formats, General, the digit placeholders (0 # ?), the grouping and scaling commas, percent,
+ * scientific notation, fractions, literals (quoted, escaped, _x padding, [$€-407] currencies) and the date/time
+ * tokens (including the elapsed time). Conditions and colors are ignored, the month and day names are in english.
+ */
+class NumericFormatter {
+
+    private static final Map<String, NumericFormatter> CACHE = new ConcurrentHashMap<>();
+
+    // see ECMA-376, Part 1, 18.8.30 numFmt
+    private static final String[] BUILTIN_FORMATS = new String[50];
+
+    static {
+        BUILTIN_FORMATS[0] = "General";
+        BUILTIN_FORMATS[1] = "0";
+        BUILTIN_FORMATS[2] = "0.00";
+        BUILTIN_FORMATS[3] = "#,##0";
+        BUILTIN_FORMATS[4] = "#,##0.00";
+        BUILTIN_FORMATS[5] = "\"$\"#,##0_);(\"$\"#,##0)";
+        BUILTIN_FORMATS[6] = "\"$\"#,##0_);[Red](\"$\"#,##0)";
+        BUILTIN_FORMATS[7] = "\"$\"#,##0.00_);(\"$\"#,##0.00)";
+        BUILTIN_FORMATS[8] = "\"$\"#,##0.00_);[Red](\"$\"#,##0.00)";
+        BUILTIN_FORMATS[9] = "0%";
+        BUILTIN_FORMATS[10] = "0.00%";
+        BUILTIN_FORMATS[11] = "0.00E+00";
+        BUILTIN_FORMATS[12] = "# ?/?";
+        BUILTIN_FORMATS[13] = "# ??/??";
+        BUILTIN_FORMATS[14] = "m/d/yyyy";
+        BUILTIN_FORMATS[15] = "d-mmm-yy";
+        BUILTIN_FORMATS[16] = "d-mmm";
+        BUILTIN_FORMATS[17] = "mmm-yy";
+        BUILTIN_FORMATS[18] = "h:mm AM/PM";
+        BUILTIN_FORMATS[19] = "h:mm:ss AM/PM";
+        BUILTIN_FORMATS[20] = "h:mm";
+        BUILTIN_FORMATS[21] = "h:mm:ss";
+        BUILTIN_FORMATS[22] = "m/d/yyyy h:mm";
+        BUILTIN_FORMATS[37] = "#,##0_);(#,##0)";
+        BUILTIN_FORMATS[38] = "#,##0_);[Red](#,##0)";
+        BUILTIN_FORMATS[39] = "#,##0.00_);(#,##0.00)";
+        BUILTIN_FORMATS[40] = "#,##0.00_);[Red](#,##0.00)";
+        BUILTIN_FORMATS[41] = "_(* #,##0_);_(* (#,##0);_(* \"-\"_);_(@_)";
+        BUILTIN_FORMATS[42] = "_(\"$\"* #,##0_);_(\"$\"* (#,##0);_(\"$\"* \"-\"_);_(@_)";
+        BUILTIN_FORMATS[43] = "_(* #,##0.00_);_(* (#,##0.00);_(* \"-\"??_);_(@_)";
+        BUILTIN_FORMATS[44] = "_(\"$\"* #,##0.00_);_(\"$\"* (#,##0.00);_(\"$\"* \"-\"??_);_(@_)";
+        BUILTIN_FORMATS[45] = "mm:ss";
+        BUILTIN_FORMATS[46] = "[h]:mm:ss";
+        BUILTIN_FORMATS[47] = "mm:ss.0";
+        BUILTIN_FORMATS[48] = "##0.0E+0";
+        BUILTIN_FORMATS[49] = "@";
+    }
+
+    private static final String[] MONTHS = {"January", "February", "March", "April", "May", "June", "July",
+            "August", "September", "October", "November", "December"};
+    private static final String[] DAYS = {"Sunday", "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday"};
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final Section[] sections;
+
+    private NumericFormatter(String formatCode) {
+        List<String> codes = splitSections(formatCode);
+        List<Section> parsed = new ArrayList<>(codes.size());
+        for (String code : codes) {
+            parsed.add(new Section(code));
+        }
+        this.sections = parsed.toArray(new Section[0]);
+    }
+
+    static NumericFormatter of(Style style) {
+        return forFormat(formatCode(style));
+    }
+
+    static NumericFormatter forFormat(String formatCode) {
+        return CACHE.computeIfAbsent(formatCode, NumericFormatter::new);
+    }
+
+    static String formatCode(Style style) {
+        if (style == null) {
+            return BUILTIN_FORMATS[0];
+        }
+        if (style.getNumericFormatIndex() != null) {
+            return builtinFormat(style.getNumericFormatIndex());
+        }
+        return style.getNumericFormat() != null ? style.getNumericFormat() : BUILTIN_FORMATS[0];
+    }
+
+    static String builtinFormat(int index) {
+        if (index < 0 || index >= BUILTIN_FORMATS.length || BUILTIN_FORMATS[index] == null) {
+            return BUILTIN_FORMATS[0];
+        }
+        return BUILTIN_FORMATS[index];
+    }
+
+    /**
+     * True if the format display the values as date and/or time.
+     */
+    boolean isDate() {
+        return sections[0].date;
+    }
+
+    /**
+     * Append the formatted value to the given buffer.
+     *
+     * @param value
+     * @param out
+     */
+    void format(double value, StringBuilder out) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append("#NUM!");
+        } else if (sections.length == 1 || value > 0 || (value == 0 && sections.length == 2)) {
+            sections[0].render(value, out);
+        } else if (value < 0) {
+            // the negative section is rendered without the minus sign
+            sections[1].render(-value, out);
+        } else {
+            sections[2].render(value, out);
+        }
+    }
+
+    private static List<String> splitSections(String formatCode) {
+        List<String> codes = new ArrayList<>(4);
+        int start = 0;
+        boolean quoted = false;
+        boolean bracket = false;
+        for (int i = 0; i < formatCode.length(); i++) {
+            char c = formatCode.charAt(i);
+            if (c == '\\' || c == '_' || c == '*') {
+                i++;
+            } else if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && c == '[') {
+                bracket = true;
+            } else if (!quoted && c == ']') {
+                bracket = false;
+            } else if (!quoted && !bracket && c == ';') {
+                codes.add(formatCode.substring(start, i));
+                start = i + 1;
+            }
+        }
+        codes.add(formatCode.substring(start));
+        return codes;
+    }
+
+    // numeric rendering helpers
+
+    private static void appendGeneral(double value, StringBuilder out) {
+        if (value == 0) {
+            out.append('0');
+            return;
+        }
+        if (value < 0) {
+            out.append('-');
+            value = -value;
+        }
+        if (value >= 1e11 || value < 1e-9) {
+            // scientific notation, 5 decimals at most: 1.23457E+11
+            int exponent = (int) Math.floor(Math.log10(value));
+            long mantissa = Math.round(value / Math.pow(10, exponent) * 1e5);
+            if (mantissa >= 1_000_000) {
+                mantissa /= 10;
+                exponent++;
+            }
+            appendFixed(mantissa, 5, out);
+            out.append(exponent < 0 ? "E-" : "E+");
+            appendPadded(Math.abs(exponent), 2, out);
+        } else {
+            // 11 characters at most
+            int integerDigits = value < 1 ? 1 : (int) Math.floor(Math.log10(value)) + 1;
+            int decimals = Math.max(0, 10 - integerDigits);
+            appendFixed(Math.round(value * POWERS_OF_TEN[decimals]), decimals, out);
+        }
+    }
+
+    // append scaled / 10^decimals, without the trailing zeros
+    private static void appendFixed(long scaled, int decimals, StringBuilder out) {
+        while (decimals > 0 && scaled % 10 == 0) {
+            scaled /= 10;
+            decimals--;
+        }
+        out.append(scaled / POWERS_OF_TEN[decimals]);
+        if (decimals > 0) {
+            out.append('.');
+            appendPadded(scaled % POWERS_OF_TEN[decimals], decimals, out);
+        }
+    }
+
+    private static void appendPadded(long value, int minDigits, StringBuilder out) {
+        for (int digits = digitCount(value); digits < minDigits; digits++) {
+            out.append('0');
+        }
+        out.append(value);
+    }
+
+    private static int digitCount(long value) {
+        int count = 1;
+        while (count < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[count]) {
+            count++;
+        }
+        return count;
+    }
+
+    private static int digitAt(long value, int position) {
+        return (int) ((value / POWERS_OF_TEN[position]) % 10);
+    }
+
+    // tokens
+
+    private static final int LITERAL = 0;
+    private static final int PLACEHOLDER = 1;
+    private static final int DECIMAL_POINT = 2;
+    private static final int EXPONENT = 3;
+    private static final int GENERAL = 4;
+    private static final int DATE = 5;
+    private static final int ELAPSED = 6;
+    private static final int AM_PM = 7;
+    private static final int FRACTION_OF_SECOND = 8;
+
+    // placeholder groups
+    private static final int INTEGER = 0;
+    private static final int DECIMALS = 1;
+    private static final int EXPONENT_DIGITS = 2;
+    private static final int NUMERATOR = 3;
+    private static final int DENOMINATOR = 4;
+
+    private static final class Token {
+        final int type;
+        final String text;
+        // placeholder: the placeholder char, date/elapsed: the lower case letter, exponent: the sign char
+        char symbol;
+        // date, elapsed and fraction of second: the number of letters/digits
+        int count;
+        // placeholder: the group and the index inside the group
+        int group;
+        int index;
+
+        Token(int type, String text, char symbol, int count) {
+            this.type = type;
+            this.text = text;
+            this.symbol = symbol;
+            this.count = count;
+        }
+    }
+
+    private static final class Section {
+
+        private final List<Token> tokens = new ArrayList<>();
+        private final int[] placeholders = new int[5];
+        private boolean grouping;
+        private int scaling;
+        private int percent;
+        private boolean date;
+        private boolean twelveHours;
+        private int secondDecimals;
+
+        Section(String code) {
+            parse(code);
+            for (Token token : tokens) {
+                if (token.type == PLACEHOLDER) {
+                    token.index = placeholders[token.group]++;
+                } else if (token.type == DATE || token.type == ELAPSED) {
+                    date = true;
+                } else if (token.type == AM_PM) {
+                    twelveHours = true;
+                } else if (token.type == FRACTION_OF_SECOND) {
+                    secondDecimals = Math.max(secondDecimals, token.count);
+                }
+            }
+            if (date) {
+                resolveMinutes();
+            }
+        }
+
+        private void parse(String code) {
+            int group = INTEGER;
+            int runStart = -1;
+            boolean seenDecimalPoint = false;
+            int length = code.length();
+            for (int i = 0; i < length; i++) {
+                char c = code.charAt(i);
+                char lower = Character.toLowerCase(c);
+                if (c == '"') {
+                    int end = code.indexOf('"', i + 1);
+                    end = end < 0 ? length : end;
+                    literal(code.substring(i + 1, end));
+                    i = end;
+                } else if (c == '\\' && i + 1 < length) {
+                    literal(code.substring(i + 1, i + 2));
+                    i++;
+                } else if (c == '_' && i + 1 < length) {
+                    // padding with the width of the next char: a space is close enough
+                    literal(" ");
+                    i++;
+                } else if (c == '*') {
+                    // repeat the next char to fill the column: no intrinsic width
+                    i++;
+                } else if (c == '[') {
+                    int end = code.indexOf(']', i + 1);
+                    end = end < 0 ? length : end;
+                    bracket(code.substring(i + 1, end));
+                    i = end;
+                } else if (code.regionMatches(true, i, "General", 0, 7)) {
+                    tokens.add(new Token(GENERAL, null, 'g', 0));
+                    i += 6;
+                } else if (code.regionMatches(true, i, "AM/PM", 0, 5)) {
+                    tokens.add(new Token(AM_PM, code.substring(i, i + 2) + code.substring(i + 3, i + 5), 'a', 0));
+                    i += 4;
+                } else if (code.regionMatches(true, i, "A/P", 0, 3)) {
+                    tokens.add(new Token(AM_PM, code.substring(i, i + 1) + code.substring(i + 2, i + 3), 'a', 0));
+                    i += 2;
+                } else if (c == '0' || c == '#' || c == '?') {
+                    if (runStart < 0) {
+                        runStart = tokens.size();
+                    }
+                    Token token = new Token(PLACEHOLDER, null, c, 0);
+                    token.group = group;
+                    tokens.add(token);
+                    continue;
+                } else if (c == '.' && i + 1 < length && code.charAt(i + 1) == '0' && lastIsSecond()) {
+                    int end = i + 1;
+                    while (end < length && code.charAt(end) == '0') {
+                        end++;
+                    }
+                    tokens.add(new Token(FRACTION_OF_SECOND, null, '0', end - i - 1));
+                    i = end - 1;
+                } else if (c == '.' && !seenDecimalPoint && group == INTEGER) {
+                    seenDecimalPoint = true;
+                    group = DECIMALS;
+                    tokens.add(new Token(DECIMAL_POINT, null, '.', 0));
+                } else if (c == ',' && runStart >= 0) {
+                    boolean followedByPlaceholder = i + 1 < length && "0#?".indexOf(code.charAt(i + 1)) >= 0;
+                    if (followedByPlaceholder && group == INTEGER) {
+                        grouping = true;
+                    } else if (!followedByPlaceholder) {
+                        scaling++;
+                    }
+                    // the placeholders run continues
+                    continue;
+                } else if (lower == 'e' && i + 1 < length && (code.charAt(i + 1) == '+' || code.charAt(i + 1) == '-')) {
+                    tokens.add(new Token(EXPONENT, null, code.charAt(i + 1), 0));
+                    group = EXPONENT_DIGITS;
+                    i++;
+                } else if (c == '/' && runStart >= 0 && group == INTEGER) {
+                    // fraction: the last run of placeholders is the numerator
+                    for (int t = runStart; t < tokens.size(); t++) {
+                        tokens.get(t).group = NUMERATOR;
+                    }
+                    literal("/");
+                    group = DENOMINATOR;
+                } else if (lower == 'y' || lower == 'm' || lower == 'd' || lower == 'h' || lower == 's') {
+                    int end = i;
+                    while (end < length && Character.toLowerCase(code.charAt(end)) == lower) {
+                        end++;
+                    }
+                    tokens.add(new Token(DATE, null, lower, end - i));
+                    i = end - 1;
+                } else if (c == '%') {
+                    percent++;
+                    literal("%");
+                } else if (c == '@') {
+                    // text placeholder: a number is displayed as with General
+                    tokens.add(new Token(GENERAL, null, 'g', 0));
+                } else if (lower == 'b' && i + 1 < length && (code.charAt(i + 1) == '1' || code.charAt(i + 1) == '2')) {
+                    // calendar markers: ignored
+                    i++;
+                } else {
+                    literal(String.valueOf(c));
+                }
+                runStart = -1;
+            }
+        }
+
+        private void literal(String text) {
+            if (!text.isEmpty()) {
+                tokens.add(new Token(LITERAL, text, ' ', 0));
+            }
+        }
+
+        private void bracket(String content) {
+            if (content.startsWith("$")) {
+                // locale/currency: [$€-407]
+                int dash = content.indexOf('-');
+                literal(content.substring(1, dash < 0 ? content.length() : dash));
+                return;
+            }
+            String lower = content.toLowerCase(Locale.ROOT);
+            if (!lower.isEmpty() && "hms".indexOf(lower.charAt(0)) >= 0 && lower.chars().allMatch(c -> c == lower.charAt(0))) {
+                tokens.add(new Token(ELAPSED, null, lower.charAt(0), lower.length()));
+            }
+            // else: colors and conditions
+        }
+
+        private boolean lastIsSecond() {
+            for (int i = tokens.size() - 1; i >= 0; i--) {
+                Token token = tokens.get(i);
+                if (token.type == DATE || token.type == ELAPSED) {
+                    return token.symbol == 's';
+                }
+            }
+            return false;
+        }
+
+        // "m" is the minute when directly after the hours or before the seconds
+        private void resolveMinutes() {
+            Token previous = null;
+            for (int i = 0; i < tokens.size(); i++) {
+                Token token = tokens.get(i);
+                if (token.type != DATE && token.type != ELAPSED) {
+                    continue;
+                }
+                if (token.type == DATE && token.symbol == 'm' && token.count <= 2) {
+                    boolean afterHours = previous != null && previous.symbol == 'h';
+                    if (afterHours || nextIsSecond(i)) {
+                        token.symbol = 'n';
+                    }
+                }
+                previous = token;
+            }
+        }
+
+        private boolean nextIsSecond(int index) {
+            for (int i = index + 1; i < tokens.size(); i++) {
+                Token token = tokens.get(i);
+                if (token.type == DATE || token.type == ELAPSED) {
+                    return token.symbol == 's';
+                }
+            }
+            return false;
+        }
+
+        void render(double value, StringBuilder out) {
+            if (date) {
+                renderDate(value, out);
+            } else if (placeholders[INTEGER] + placeholders[DECIMALS] + placeholders[NUMERATOR] + placeholders[DENOMINATOR] == 0) {
+                renderGeneral(value, out);
+            } else {
+                renderNumber(value, out);
+            }
+        }
+
+        // no placeholders: General and/or literals only
+        private void renderGeneral(double value, StringBuilder out) {
+            for (Token token : tokens) {
+                if (token.type == GENERAL) {
+                    appendGeneral(value, out);
+                } else if (token.type == LITERAL) {
+                    out.append(token.text);
+                }
+            }
+        }
+
+        private void renderNumber(double value, StringBuilder out) {
+            if (value < 0) {
+                out.append('-');
+                value = -value;
+            }
+            for (int i = 0; i < percent; i++) {
+                value *= 100;
+            }
+            for (int i = 0; i < scaling; i++) {
+                value /= 1000;
+            }
+
+            int exponent = 0;
+            if (placeholders[EXPONENT_DIGITS] > 0 && value != 0) {
+                exponent = (int) Math.floor(Math.log10(value));
+                int integerPlaceholders = Math.max(1, placeholders[INTEGER]);
+                if (integerPlaceholders > 1) {
+                    // engineering notation: ##0.0E+0
+                    exponent = Math.floorDiv(exponent, integerPlaceholders) * integerPlaceholders;
+                }
+                value = value / Math.pow(10, exponent);
+            }
+
+            long integer;
+            long decimals = 0;
+            long numerator = 0;
+            long denominator = 0;
+            int decimalDigits = Math.min(placeholders[DECIMALS], 15);
+            if (placeholders[DENOMINATOR] > 0) {
+                integer = placeholders[INTEGER] > 0 ? (long) Math.floor(value) : 0;
+                double fraction = value - integer;
+                long maxDenominator = POWERS_OF_TEN[Math.min(placeholders[DENOMINATOR], 4)] - 1;
+                double bestError = Double.MAX_VALUE;
+                for (long d = 1; d <= maxDenominator; d++) {
+                    long n = Math.round(fraction * d);
+                    double error = Math.abs(fraction - (double) n / d);
+                    if (error < bestError) {
+                        bestError = error;
+                        numerator = n;
+                        denominator = d;
+                    }
+                }
+                if (numerator == denominator && placeholders[INTEGER] > 0) {
+                    integer++;
+                    numerator = 0;
+                }
+            } else {
+                double scaledValue = value * POWERS_OF_TEN[decimalDigits];
+                if (scaledValue >= Long.MAX_VALUE / 10) {
+                    // too large for the fixed point rendering
+                    appendGeneral(value, out);
+                    return;
+                }
+                long scaled = Math.round(scaledValue);
+                integer = scaled / POWERS_OF_TEN[decimalDigits];
+                decimals = scaled % POWERS_OF_TEN[decimalDigits];
+                if (placeholders[EXPONENT_DIGITS] > 0 && integer >= POWERS_OF_TEN[Math.max(1, placeholders[INTEGER])]) {
+                    // the rounding overflowed the mantissa: 9.999 -> 10.00
+                    integer /= 10;
+                    exponent++;
+                }
+            }
+
+            int lastDecimal = -1;
+            for (int j = decimalDigits - 1; j >= 0; j--) {
+                if (digitAt(decimals, decimalDigits - 1 - j) != 0) {
+                    lastDecimal = j;
+                    break;
+                }
+            }
+
+            for (Token token : tokens) {
+                switch (token.type) {
+                    case LITERAL:
+                        out.append(token.text);
+                        break;
+                    case DECIMAL_POINT:
+                        out.append('.');
+                        break;
+                    case EXPONENT:
+                        if (exponent < 0) {
+                            out.append("E-");
+                        } else {
+                            out.append(token.symbol == '+' ? "E+" : "E");
+                        }
+                        break;
+                    case GENERAL:
+                        appendGeneral(value, out);
+                        break;
+                    case PLACEHOLDER:
+                        int index = token.index;
+                        if (token.group == DECIMALS) {
+                            if (index >= decimalDigits) {
+                                appendPadding(token.symbol, out);
+                            } else if (index <= lastDecimal) {
+                                out.append((char) ('0' + digitAt(decimals, decimalDigits - 1 - index)));
+                            } else {
+                                appendPadding(token.symbol, out);
+                            }
+                        } else if (token.group == DENOMINATOR) {
+                            // left aligned
+                            int digits = digitCount(denominator);
+                            if (index == 0) {
+                                out.append(denominator);
+                            } else if (index >= digits) {
+                                appendPadding(token.symbol == '0' ? '?' : token.symbol, out);
+                            }
+                        } else {
+                            long groupValue = token.group == INTEGER ? integer : token.group == NUMERATOR ? numerator : Math.abs(exponent);
+                            appendRightAligned(token, index, placeholders[token.group], groupValue, grouping && token.group == INTEGER, out);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        private static void appendRightAligned(Token token, int index, int count, long value, boolean grouping, StringBuilder out) {
+            int digits = value == 0 ? 0 : digitCount(value);
+            int position = count - 1 - index;
+            int from = index == 0 ? Math.max(position, digits - 1) : position;
+            for (int p = from; p >= position; p--) {
+                if (p < digits) {
+                    out.append((char) ('0' + digitAt(value, p)));
+                } else if (token.symbol == '0') {
+                    out.append('0');
+                } else {
+                    appendPadding(token.symbol, out);
+                    continue;
+                }
+                if (grouping && p > 0 && p % 3 == 0) {
+                    out.append(',');
+                }
+            }
+        }
+
+        private static void appendPadding(char placeholder, StringBuilder out) {
+            if (placeholder == '0') {
+                out.append('0');
+            } else if (placeholder == '?') {
+                out.append(' ');
+            }
+        }
+
+        private void renderDate(double value, StringBuilder out) {
+            if (value < 0 || value > 2958465) {
+                // Excel displays ###### for the dates outside of 1900-01-00 - 9999-12-31
+                out.append("########");
+                return;
+            }
+            long unitsPerSecond = POWERS_OF_TEN[Math.min(secondDecimals, 3)];
+            long units = Math.round(value * 86_400 * unitsPerSecond);
+            long serial = units / (86_400 * unitsPerSecond);
+            long secondsOfDay = (units / unitsPerSecond) % 86_400;
+            long totalSeconds = units / unitsPerSecond;
+            long fractionOfSecond = units % unitsPerSecond;
+
+            // the 1900 date system: serial 1 is 1900-01-01, 60 is the (nonexistent) 1900-02-29
+            int year;
+            int month;
+            int day;
+            long epochDay = serial - (serial > 60 ? 25_569 : 25_568);
+            if (serial == 60) {
+                year = 1900;
+                month = 2;
+                day = 29;
+            } else {
+                // from http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+                long z = epochDay + 719_468;
+                long era = Math.floorDiv(z, 146_097);
+                long dayOfEra = z - era * 146_097;
+                long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+                long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+                long mp = (5 * dayOfYear + 2) / 153;
+                day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+                month = (int) (mp < 10 ? mp + 3 : mp - 9);
+                year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+            }
+            int dayOfWeek = (int) Math.floorMod(epochDay + 4, 7L); // 1970-01-01 is a thursday
+            int hours = (int) (secondsOfDay / 3600);
+            int minutes = (int) (secondsOfDay / 60 % 60);
+            int seconds = (int) (secondsOfDay % 60);
+
+            for (Token token : tokens) {
+                switch (token.type) {
+                    case LITERAL:
+                        out.append(token.text);
+                        break;
+                    case GENERAL:
+                        appendGeneral(value, out);
+                        break;
+                    case ELAPSED:
+                        long elapsed = token.symbol == 'h' ? totalSeconds / 3600 : token.symbol == 'm' ? totalSeconds / 60 : totalSeconds;
+                        appendPadded(elapsed, token.count, out);
+                        break;
+                    case AM_PM:
+                        boolean pm = hours >= 12;
+                        int half = token.text.length() / 2;
+                        out.append(token.text, pm ? half : 0, pm ? 2 * half : half);
+                        break;
+                    case FRACTION_OF_SECOND:
+                        out.append('.');
+                        int shown = Math.min(token.count, 3);
+                        appendPadded(fractionOfSecond / POWERS_OF_TEN[Math.min(secondDecimals, 3) - shown], shown, out);
+                        break;
+                    case DATE:
+                        appendDatePart(token, year, month, day, dayOfWeek, hours, minutes, seconds, out);
+                        break;
+                    default:
+                        // digit placeholders in a date format
+                        break;
+                }
+            }
+        }
+
+        private void appendDatePart(Token token, int year, int month, int day, int dayOfWeek, int hours, int minutes, int seconds, StringBuilder out) {
+            int count = token.count;
+            switch (token.symbol) {
+                case 'y':
+                    if (count <= 2) {
+                        appendPadded(year % 100, 2, out);
+                    } else {
+                        out.append(year);
+                    }
+                    break;
+                case 'm':
+                    if (count <= 2) {
+                        appendPadded(month, count, out);
+                    } else if (count == 3) {
+                        out.append(MONTHS[month - 1], 0, 3);
+                    } else if (count == 5) {
+                        out.append(MONTHS[month - 1].charAt(0));
+                    } else {
+                        out.append(MONTHS[month - 1]);
+                    }
+                    break;
+                case 'd':
+                    if (count <= 2) {
+                        appendPadded(day, count, out);
+                    } else if (count == 3) {
+                        out.append(DAYS[dayOfWeek], 0, 3);
+                    } else {
+                        out.append(DAYS[dayOfWeek]);
+                    }
+                    break;
+                case 'h':
+                    int h = twelveHours ? (hours % 12 == 0 ? 12 : hours % 12) : hours;
+                    appendPadded(h, Math.min(count, 2), out);
+                    break;
+                case 'n':
+                    appendPadded(minutes, count, out);
+                    break;
+                case 's':
+                    appendPadded(seconds, Math.min(count, 2), out);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
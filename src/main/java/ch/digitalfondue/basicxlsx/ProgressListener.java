@@ -0,0 +1,33 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+/**
+ * Receive the progress of a sheet, see {@link StreamingWorkbook#setProgressListener(ProgressListener, int)}.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * Called on the writing thread every n rows and when the sheet is complete.
+     *
+     * @param sheetName
+     * @param rows the rows written in the sheet until now
+     * @param bytes the (compressed) bytes written in the output for the sheet until now, the compressor may still
+     *              buffer some data
+     */
+    void progress(String sheetName, long rows, long bytes);
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>A formula repeated in many cells of a column (e.g. <code>B2*C2</code>, <code>B3*C3</code>, ...), declared once.</p>
+ *
+ * <p>The formula is written as it must be in the first cell where it's used (in the rows order), the other cells get
+ * the formula with the relative references shifted (like a copy/paste in excel). The cells of the same instance that
+ * follow each other in a column are written as a shared formula: the text is written only once, in the first cell.</p>
+ *
+ * <pre>
+ * SharedFormula total = new SharedFormula("B2*C2");
+ * w.withSheet("orders", orders.map(o -&gt; row(new Cell[]{cell(o.name), cell(o.quantity), cell(o.price), Cell.formula(total)})));
+ * </pre>
+ *
+ * <p>Note: the whole row/column ranges are shifted too, the R1C1 notation and the structured references are not
+ * supported.</p>
+ */
+public final class SharedFormula {
+
+    private static final int MAX_COLUMNS = 16384;
+
+    private static final String NOT_AFTER = "(?<![A-Za-z0-9_.$])";
+    private static final String NOT_BEFORE = "(?![A-Za-z0-9_.(!])";
+    private static final Pattern TOKENS = Pattern.compile(
+            "\"(?:[^\"]|\"\")*\"" + // string literal
+                    "|'(?:[^']|'')*'!" + // quoted sheet name
+                    "|" + NOT_AFTER + "(?<cc>\\$?)(?<c>[A-Za-z]{1,3})(?<rr>\\$?)(?<r>[0-9]{1,7})" + NOT_BEFORE + // B2
+                    "|" + NOT_AFTER + "(?<cc1>\\$?)(?<c1>[A-Za-z]{1,3}):(?<cc2>\\$?)(?<c2>[A-Za-z]{1,3})" + NOT_BEFORE + // B:C
+                    "|" + NOT_AFTER + "(?<rr1>\\$?)(?<r1>[0-9]{1,7}):(?<rr2>\\$?)(?<r2>[0-9]{1,7})" + NOT_BEFORE + // 2:3
+                    "|[A-Za-z_\\\\][A-Za-z0-9_.]*"); // function or name
+
+    private final String formula;
+
+    /**
+     * @param formula the formula of the first cell. Note: the functions in the formula must use their english name.
+     */
+    public SharedFormula(String formula) {
+        if (formula == null || formula.isEmpty()) {
+            throw new IllegalArgumentException("The formula must not be empty");
+        }
+        this.formula = formula;
+    }
+
+    public String getFormula() {
+        return formula;
+    }
+
+    /**
+     * The formula with the relative references moved by the given number of rows and columns.
+     *
+     * @param rows
+     * @param columns
+     * @return
+     */
+    String shift(int rows, int columns) {
+        if (rows == 0 && columns == 0) {
+            return formula;
+        }
+        Matcher m = TOKENS.matcher(formula);
+        StringBuilder sb = new StringBuilder(formula.length() + 8);
+        while (m.find()) {
+            String replacement;
+            if (m.group("c") != null) {
+                replacement = m.group("cc") + shiftColumn(m.group("cc"), m.group("c"), columns) + m.group("rr") + shiftRow(m.group("rr"), m.group("r"), rows);
+            } else if (m.group("c1") != null) {
+                replacement = m.group("cc1") + shiftColumn(m.group("cc1"), m.group("c1"), columns) + ":" + m.group("cc2") + shiftColumn(m.group("cc2"), m.group("c2"), columns);
+            } else if (m.group("r1") != null) {
+                replacement = m.group("rr1") + shiftRow(m.group("rr1"), m.group("r1"), rows) + ":" + m.group("rr2") + shiftRow(m.group("rr2"), m.group("r2"), rows);
+            } else {
+                replacement = m.group();
+            }
+            m.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    private String shiftRow(String absolute, String row, int rows) {
+        if (!absolute.isEmpty() || rows == 0) {
+            return row;
+        }
+        long shifted = Long.parseLong(row) + rows;
+        if (shifted < 1 || shifted > StreamingWorkbook.SheetOptions.MAX_ROWS) {
+            throw new IllegalArgumentException("The formula " + formula + " cannot be moved by " + rows + " rows");
+        }
+        return Long.toString(shifted);
+    }
+
+    private String shiftColumn(String absolute, String column, int columns) {
+        if (!absolute.isEmpty() || columns == 0) {
+            return column;
+        }
+        int index = 0;
+        for (int i = 0; i < column.length(); i++) {
+            index = index * 26 + (Character.toUpperCase(column.charAt(i)) - 'A' + 1);
+        }
+        int shifted = index - 1 + columns;
+        if (shifted < 0 || shifted >= MAX_COLUMNS) {
+            throw new IllegalArgumentException("The formula " + formula + " cannot be moved by " + columns + " columns");
+        }
+        String coordinates = Utils.fromRowColumnToExcelCoordinates(0, shifted);
+        return coordinates.substring(0, coordinates.length() - 1);
+    }
+}
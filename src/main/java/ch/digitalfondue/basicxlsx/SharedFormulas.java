@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import ch.digitalfondue.basicxlsx.Cell.SharedFormulaCell;
+import org.w3c.dom.Element;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.Function;
+
+/**
+ * Assign the shared formula cells of a sheet to their group (master cell with the formula and the range, following
+ * cells with only the group id) while the cells are written in the rows order.
+ */
+final class SharedFormulas {
+
+    // when streaming the following rows are unknown: a group covers at most this number of rows (and never goes past
+    // the row limit of the sheet). Its range may still include rows that are not written: the range is only the
+    // bound where the group id can be used, excel and the other readers take the formula of a cell from the group id
+    // (or from its own formula element), so the rows of the range without the group id are not affected
+    static final int STREAMING_GROUP_ROWS = 1024;
+
+    @FunctionalInterface
+    interface GroupEnd {
+        /**
+         * @return the last row (0 based) of the group starting at the given cell
+         */
+        int lastRow(SharedFormula formula, int row, int column);
+    }
+
+    private static final class Group {
+        final SharedFormula formula;
+        final int si;
+        final int lastRow;
+
+        Group(SharedFormula formula, int si, int lastRow) {
+            this.formula = formula;
+            this.si = si;
+            this.lastRow = lastRow;
+        }
+    }
+
+    private final GroupEnd groupEnd;
+    // first cell (row, column) of each formula, the references are relative to it. Shared by the sheets continuing
+    // the same rows (rollover, split files): the formula keeps the position where it has been declared
+    private final Map<SharedFormula, int[]> anchors;
+    // if not negative, the row where all the formulas are declared instead of the row of their first cell (fragments)
+    private final int anchorRow;
+    // current group by column
+    private final Map<Integer, Group> groups = new HashMap<>();
+    private int nextSi;
+
+    private SharedFormulas(GroupEnd groupEnd, Map<SharedFormula, int[]> anchors, int anchorRow) {
+        this.groupEnd = groupEnd;
+        this.anchors = anchors;
+        this.anchorRow = anchorRow;
+    }
+
+    /**
+     * @return an empty map of the formulas position, see {@link #streaming(Map, int)}
+     */
+    static Map<SharedFormula, int[]> anchors() {
+        return new IdentityHashMap<>();
+    }
+
+    /**
+     * @param anchors the position of the formulas already used in the previous parts of the sheet
+     * @param maxRows the maximum number of rows of the sheet, the groups do not go past it
+     */
+    static SharedFormulas streaming(Map<SharedFormula, int[]> anchors, int maxRows) {
+        return new SharedFormulas((formula, row, column) -> Math.min(row + STREAMING_GROUP_ROWS, maxRows) - 1, anchors, -1);
+    }
+
+    /**
+     * The groups cover exactly the consecutive cells of the same formula.
+     */
+    static SharedFormulas of(Sheet sheet) {
+        return new SharedFormulas((formula, row, column) -> {
+            int lastRow = row;
+            SortedMap<Integer, Cell> next;
+            while ((next = sheet.cells.get(lastRow + 1)) != null && isSameFormula(next.get(column), formula)) {
+                lastRow++;
+            }
+            return lastRow;
+        }, anchors(), -1);
+    }
+
+    /**
+     * Each cell get the complete (shifted) formula, e.g. for the fragments: the group ids would collide once
+     * assembled.
+     *
+     * @param anchorRow the row (0 based) where the formulas are declared (e.g. the first data row of a sheet written in
+     *                  fragments), -1 for the row of their first cell
+     */
+    static SharedFormulas unshared(int anchorRow) {
+        return new SharedFormulas(null, anchors(), anchorRow);
+    }
+
+    private static boolean isSameFormula(Cell cell, SharedFormula formula) {
+        return cell instanceof SharedFormulaCell && ((SharedFormulaCell) cell).shared == formula;
+    }
+
+    Element toElement(Cell cell, Function<String, Element> elementBuilder, int row, int column, int styleId) {
+        if (!(cell instanceof SharedFormulaCell)) {
+            return cell.toElement(elementBuilder, row, column, styleId);
+        }
+        SharedFormulaCell formulaCell = (SharedFormulaCell) cell;
+        SharedFormula formula = formulaCell.shared;
+        int[] anchor = anchors.computeIfAbsent(formula, f -> new int[]{anchorRow >= 0 ? anchorRow : row, column});
+        Group group = groups.get(column);
+        boolean inGroup = group != null && row <= group.lastRow;
+        if (inGroup && group.formula == formula) {
+            return formulaCell.toElement(elementBuilder, row, column, styleId, null, null, group.si);
+        }
+
+        String text = formula.shift(row - anchor[0], column - anchor[1]);
+        // a group cannot start inside the range of another one
+        int lastRow = groupEnd == null || inGroup ? row : groupEnd.lastRow(formula, row, column);
+        if (lastRow == row) {
+            return formulaCell.toElement(elementBuilder, row, column, styleId, text, null, -1);
+        }
+        group = new Group(formula, nextSi++, lastRow);
+        groups.put(column, group);
+        String ref = Utils.fromRowColumnToExcelCoordinates(row, column) + ":" + Utils.fromRowColumnToExcelCoordinates(lastRow, column);
+        return formulaCell.toElement(elementBuilder, row, column, styleId, text, ref, group.si);
+    }
+}
@@ -19,6 +19,7 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Represent an xlsx sheet.
@@ -29,6 +30,9 @@ public class Sheet {
     final Map<Integer, Double> rowHeight = new HashMap<>();
     final Map<Integer, Double> columnWidth = new HashMap<>();
     Style.ReadingOrder readingOrder;
+    private ColumnWidthTracker columnWidthTracker;
+    // last cell set for each column, measured when the next one is set: this way the style has already been applied
+    private final Map<Integer, Cell> pendingTrackedCells = new HashMap<>();
 
     Sheet() {
     }
@@ -92,11 +96,28 @@ public class Sheet {
      * @param column
      */
     public void autoResizeColumn(int column) {
-        Optional<Double> maxValue = getColumnCells(column)
+        resizeColumn(column, getColumnCells(column));
+    }
+
+    /**
+     * Auto resize a given column in function of a sample of the content: useful for very big sheets where the values
+     * of a given column have a similar length. See {@link #autoResizeColumn(int)} about the limitations.
+     *
+     * @param column
+     * @param sampling which cells are measured
+     */
+    public void autoResizeColumn(int column, Sampling sampling) {
+        resizeColumn(column, sampling.select(getColumnCells(column)));
+    }
+
+    private void resizeColumn(int column, List<Cell> columnCells) {
+        Object event = JfrEvents.beginAutosize();
+        Optional<Double> maxValue = columnCells
                 .stream()
                 .map(CellWidthCalculator::cellWidth)
                 .reduce(Math::max)
                 .filter(value -> value > 8.43); //8.43 is the default length
+        JfrEvents.endAutosize(event, 1, columnCells.size());
 
         maxValue.ifPresent(width -> setColumnWidth(column, width));
     }
@@ -112,8 +133,239 @@ public class Sheet {
         }
     }
 
+    /**
+     * Auto resize all the columns, the measurements are done in parallel using the common {@link ForkJoinPool}.
+     * See {@link #autoResizeColumn(int)} about the limitations.
+     */
+    public void autoResizeAllColumnsParallel() {
+        autoResizeAllColumns(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Auto resize all the columns, the measurements are done in parallel using the given executor: the work is split
+     * by column and, for the columns with many cells, by range of rows.
+     * See {@link #autoResizeColumn(int)} about the limitations.
+     *
+     * @param executor
+     */
+    public void autoResizeAllColumns(ExecutorService executor) {
+        Object event = JfrEvents.beginAutosize();
+        int colsCount = getMaxCol() + 1;
+        List<List<Cell>> columns = new ArrayList<>(colsCount);
+        for (int i = 0; i < colsCount; i++) {
+            columns.add(new ArrayList<>());
+        }
+        for (SortedMap<Integer, Cell> row : cells.values()) {
+            for (Map.Entry<Integer, Cell> colAndCell : row.entrySet()) {
+                if (colAndCell.getValue() != null) {
+                    columns.get(colAndCell.getKey()).add(colAndCell.getValue());
+                }
+            }
+        }
+
+        List<Callable<Double>> tasks = new ArrayList<>();
+        List<Integer> taskColumns = new ArrayList<>();
+        for (int column = 0; column < colsCount; column++) {
+            List<Cell> columnCells = columns.get(column);
+            for (int from = 0; from < columnCells.size(); from += PARALLEL_RESIZE_CHUNK_SIZE) {
+                List<Cell> chunk = columnCells.subList(from, Math.min(columnCells.size(), from + PARALLEL_RESIZE_CHUNK_SIZE));
+                tasks.add(() -> {
+                    double max = 0;
+                    for (Cell cell : chunk) {
+                        max = Math.max(max, CellWidthCalculator.cellWidth(cell));
+                    }
+                    return max;
+                });
+                taskColumns.add(column);
+            }
+        }
+
+        double[] maxWidth = new double[colsCount];
+        try {
+            List<Future<Double>> results = executor.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                int column = taskColumns.get(i);
+                maxWidth[column] = Math.max(maxWidth[column], results.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        JfrEvents.endAutosize(event, colsCount, columns.stream().mapToLong(List::size).sum());
+
+        for (int column = 0; column < colsCount; column++) {
+            if (maxWidth[column] > 8.43) { //8.43 is the default length
+                setColumnWidth(column, maxWidth[column]);
+            }
+        }
+    }
+
+    private static final int PARALLEL_RESIZE_CHUNK_SIZE = 4096;
+
+    /**
+     * Auto resize all the column using a sample of the content. See {@link #autoResizeColumn(int, Sampling)}.
+     *
+     * @param sampling which cells are measured
+     */
+    public void autoResizeAllColumns(Sampling sampling) {
+        int maxColIdx = getMaxCol();
+        for (int i = 0; i <= maxColIdx; i++) {
+            autoResizeColumn(i, sampling);
+        }
+    }
+
+    /**
+     * Define which cells of a column are measured when auto resizing a column:
+     * <ul>
+     *     <li>the cells of the first rows</li>
+     *     <li>the cells with the longest displayed values (the numbers and dates with their format), in characters</li>
+     *     <li>a random sample of the remaining cells</li>
+     * </ul>
+     * If the column does not have more cells than the sum of the three, all the cells are measured.
+     */
+    public static final class Sampling {
+
+        private final int firstRows;
+        private final int longestValues;
+        private final int randomSample;
+
+        private Sampling(int firstRows, int longestValues, int randomSample) {
+            if (firstRows < 0 || longestValues < 0 || randomSample < 0) {
+                throw new IllegalArgumentException("the sample sizes must be positive");
+            }
+            this.firstRows = firstRows;
+            this.longestValues = longestValues;
+            this.randomSample = randomSample;
+        }
+
+        /**
+         * Define a sampling.
+         *
+         * @param firstRows how many cells are measured from the first rows
+         * @param longestValues how many cells with the longest values are measured
+         * @param randomSample the size of the random sample
+         * @return
+         */
+        public static Sampling of(int firstRows, int longestValues, int randomSample) {
+            return new Sampling(firstRows, longestValues, randomSample);
+        }
+
+        List<Cell> select(List<Cell> cells) {
+            int size = cells.size();
+            if (size <= firstRows + longestValues + randomSample) {
+                return cells;
+            }
+
+            BitSet selected = new BitSet(size);
+            selected.set(0, firstRows);
+
+            // longest values by character count: cheap pre-pass, keeping the longest ones in a min heap
+            if (longestValues > 0) {
+                int[] lengths = new int[size];
+                for (int i = 0; i < size; i++) {
+                    // the displayed text: the numbers and dates with their numeric format
+                    lengths[i] = CellWidthCalculator.displayedLength(cells.get(i));
+                }
+                PriorityQueue<Integer> longest = new PriorityQueue<>(longestValues + 1, Comparator.comparingInt(i -> lengths[i]));
+                for (int i = 0; i < size; i++) {
+                    if (longest.size() < longestValues) {
+                        longest.add(i);
+                    } else if (lengths[i] > lengths[longest.peek()]) {
+                        longest.poll();
+                        longest.add(i);
+                    }
+                }
+                longest.forEach(selected::set);
+            }
+
+            // reservoir sampling, with a fixed seed so the result is reproducible
+            if (randomSample > 0) {
+                int[] reservoir = new int[randomSample];
+                SplittableRandom random = new SplittableRandom(size);
+                for (int i = 0; i < size; i++) {
+                    if (i < randomSample) {
+                        reservoir[i] = i;
+                    } else {
+                        int j = random.nextInt(i + 1);
+                        if (j < randomSample) {
+                            reservoir[j] = i;
+                        }
+                    }
+                }
+                for (int i : reservoir) {
+                    selected.set(i);
+                }
+            }
+
+            List<Cell> res = new ArrayList<>(selected.cardinality());
+            for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+                res.add(cells.get(i));
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Track the width of the columns while the cells are set: the columns without an explicitly defined width
+     * will be sized in function of the content when writing the workbook, without having to
+     * call {@link #autoResizeAllColumns()}. See {@link #autoResizeColumn(int)} about the limitations.
+     *
+     * Note: only the cells set after calling this method are considered and the width of a column will not shrink
+     * when cells are removed or overwritten.
+     */
+    public void trackColumnWidths() {
+        trackColumnWidths(0);
+    }
+
+    /**
+     * Like {@link #trackColumnWidths()}, but for each column only the first maxDistinctValuesPerColumn distinct values are measured:
+     * after that, only the values that are longer (in characters) than the longest measured one are considered.
+     *
+     * @param maxDistinctValuesPerColumn the maximum number of distinct values to measure for each column, 0 for no limit
+     */
+    public void trackColumnWidths(int maxDistinctValuesPerColumn) {
+        if (maxDistinctValuesPerColumn < 0) {
+            throw new IllegalArgumentException("maxDistinctValuesPerColumn must be positive, passed value: " + maxDistinctValuesPerColumn);
+        }
+        this.columnWidthTracker = new ColumnWidthTracker(maxDistinctValuesPerColumn);
+        this.pendingTrackedCells.clear();
+    }
+
+    /**
+     * Width of a given column: the explicitly defined one, else the tracked one if available.
+     */
+    Double getColumnWidth(int column) {
+        Double width = columnWidth.get(column);
+        if (width == null && columnWidthTracker != null) {
+            flushPendingTrackedCells();
+            double tracked = columnWidthTracker.width(column);
+            if (tracked > 0) {
+                width = tracked;
+            }
+        }
+        return width;
+    }
+
+    private void flushPendingTrackedCells() {
+        for (Map.Entry<Integer, Cell> pending : pendingTrackedCells.entrySet()) {
+            columnWidthTracker.track(pending.getKey(), pending.getValue());
+        }
+        pendingTrackedCells.clear();
+    }
+
     private Cell setCellAt(Cell cell, int row, int column) {
         cells.computeIfAbsent(row, r -> new TreeMap<>()).put(column, cell);
+        if (columnWidthTracker != null) {
+            Cell previous = pendingTrackedCells.put(column, cell);
+            if (previous != null) {
+                columnWidthTracker.track(column, previous);
+            }
+        }
         return cell;
     }
 
@@ -209,6 +461,18 @@ public class Sheet {
     public Cell setFormulaAt(String formula, String result, int row, int column) {
         return setCellAt(Cell.formula(formula, result), row, column);
     }
+
+    /**
+     * Set a formula declared once for many cells at a given row/column, see {@link SharedFormula}.
+     *
+     * @param formula
+     * @param row
+     * @param column
+     * @return
+     */
+    public Cell setFormulaAt(SharedFormula formula, int row, int column) {
+        return setCellAt(Cell.formula(formula), row, column);
+    }
     //
 
 
@@ -261,6 +525,7 @@ public class Sheet {
         if (cells.containsKey(row)) {
             cell = cells.get(row).remove(column);
             if (cell != null) {
+                pendingTrackedCells.remove(column, cell);
                 cell.style = null;
             }
         }
@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import ch.digitalfondue.basicxlsx.StreamingWorkbook.Aggregate;
+import ch.digitalfondue.basicxlsx.StreamingWorkbook.Row;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Compute the aggregates of the footer row of a sheet while the rows are streamed (constant memory by column) and
+ * build the footer row, with the formulas and their cached results.
+ */
+final class SheetFooter {
+
+    private final int[] columns;
+    private final Aggregate[] aggregates;
+    private final Style[] styles;
+    private final Map<Integer, Cell> cells;
+    private final double[] sum;
+    private final double[] min;
+    private final double[] max;
+    private final long[] count;
+
+    SheetFooter(Map<Integer, Aggregate> aggregates, Map<Integer, Style> styles, Map<Integer, Cell> cells) {
+        int size = aggregates.size();
+        this.columns = new int[size];
+        this.aggregates = new Aggregate[size];
+        this.styles = new Style[size];
+        int i = 0;
+        for (Map.Entry<Integer, Aggregate> e : aggregates.entrySet()) {
+            columns[i] = e.getKey();
+            this.aggregates[i] = e.getValue();
+            this.styles[i] = styles.get(e.getKey());
+            i++;
+        }
+        this.cells = cells;
+        this.sum = new double[size];
+        this.min = new double[size];
+        this.max = new double[size];
+        this.count = new long[size];
+        reset();
+    }
+
+    void reset() {
+        Arrays.fill(sum, 0);
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        Arrays.fill(count, 0);
+    }
+
+    /**
+     * Like excel, only the numeric cells (numbers, dates, formulas with a numeric result) are aggregated.
+     */
+    void track(Row row) {
+        if (row == null || row.cells == null) {
+            return;
+        }
+        Cell[] rowCells = row.cells;
+        for (int i = 0; i < columns.length; i++) {
+            int column = columns[i];
+            Cell cell = column < rowCells.length ? rowCells[column] : null;
+            double value = cell == null ? Double.NaN : cell.numericValue();
+            if (!Double.isNaN(value)) {
+                sum[i] += value;
+                min[i] = Math.min(min[i], value);
+                max[i] = Math.max(max[i], value);
+                count[i]++;
+            }
+        }
+    }
+
+    /**
+     * @param firstRow the first aggregated row (0 based)
+     * @param lastRow the last aggregated row (0 based)
+     * @return the footer row
+     */
+    Row toRow(int firstRow, int lastRow) {
+        int columnCount = cells.isEmpty() ? 0 : Collections.max(cells.keySet()) + 1;
+        for (int column : columns) {
+            columnCount = Math.max(columnCount, column + 1);
+        }
+        Cell[] row = new Cell[columnCount];
+        cells.forEach((column, cell) -> row[column] = cell);
+        for (int i = 0; i < columns.length; i++) {
+            String range = Utils.fromRowColumnToExcelCoordinates(firstRow, columns[i]) + ":" + Utils.fromRowColumnToExcelCoordinates(lastRow, columns[i]);
+            String formula = aggregates[i].name() + "(" + range + ")";
+            String result = result(i);
+            row[columns[i]] = (result == null ? Cell.formula(formula) : Cell.computedFormula(formula, result)).withStyle(styles[i]);
+        }
+        return new Row(row, null);
+    }
+
+    // null when excel returns an error (average without values)
+    private String result(int i) {
+        switch (aggregates[i]) {
+            case SUM:
+                return format(sum[i]);
+            case MIN:
+                return format(count[i] == 0 ? 0 : min[i]);
+            case MAX:
+                return format(count[i] == 0 ? 0 : max[i]);
+            case COUNT:
+                return Long.toString(count[i]);
+            case AVERAGE:
+                return count[i] == 0 ? null : format(sum[i] / count[i]);
+            default:
+                throw new IllegalStateException("Unknown aggregate " + aggregates[i]);
+        }
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>A slice of the rows of a sheet, written independently by {@link SheetFragmentWriter} (e.g. on another node) and
+ * stitched with the others by {@link SheetFragmentAssembler}, without inflating it.</p>
+ *
+ * <p>A fragment file is a fixed size header followed by the xml of the rows, compressed in raw deflate blocks
+ * terminated by a sync flush (and without final block), so that they can be concatenated. The header (big endian)
+ * contains:</p>
+ * <ul>
+ *     <li>the magic number "BXSF" and the format version</li>
+ *     <li>the fingerprint of the style table used for the style ids</li>
+ *     <li>the used range: first row (0 based), row count and column count</li>
+ *     <li>the crc32 and the length of the uncompressed xml, the length of the compressed data</li>
+ * </ul>
+ */
+public final class SheetFragment {
+
+    static final int MAGIC = 0x42585346; // "BXSF"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 48;
+
+    final Path path;
+    final long stylesFingerprint;
+    final int firstRow;
+    final int rowCount;
+    final int columnCount;
+    final long crc;
+    final long uncompressedLength;
+    final long compressedLength;
+
+    SheetFragment(Path path, long stylesFingerprint, int firstRow, int rowCount, int columnCount, long crc, long uncompressedLength, long compressedLength) {
+        this.path = path;
+        this.stylesFingerprint = stylesFingerprint;
+        this.firstRow = firstRow;
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+        this.crc = crc;
+        this.uncompressedLength = uncompressedLength;
+        this.compressedLength = compressedLength;
+    }
+
+    /**
+     * Read the header of a fragment file.
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException if the file is not a valid fragment
+     */
+    public static SheetFragment read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole header
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException("Not a sheet fragment: " + path);
+            }
+            header.flip();
+            header.getInt();
+            short version = header.getShort();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported sheet fragment version " + version + ": " + path);
+            }
+            header.getShort();
+            SheetFragment fragment = new SheetFragment(path, header.getLong(), header.getInt(), header.getInt(), header.getInt(),
+                    Integer.toUnsignedLong(header.getInt()), header.getLong(), header.getLong());
+            if (channel.size() != HEADER_SIZE + fragment.compressedLength) {
+                throw new IllegalArgumentException("Truncated sheet fragment: " + path);
+            }
+            return fragment;
+        }
+    }
+
+    ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.putShort((short) 0);
+        header.putLong(stylesFingerprint);
+        header.putInt(firstRow);
+        header.putInt(rowCount);
+        header.putInt(columnCount);
+        header.putInt((int) crc);
+        header.putLong(uncompressedLength);
+        header.putLong(compressedLength);
+        return header.flip();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Fingerprint of the style table of the writer, it must match the one of the assembler.
+     */
+    public long getStylesFingerprint() {
+        return stylesFingerprint;
+    }
+
+    /**
+     * Index (0 based) of the first row of the fragment.
+     */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Number of columns used by the rows of the fragment.
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public long getUncompressedLength() {
+        return uncompressedLength;
+    }
+
+    public long getCompressedLength() {
+        return compressedLength;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import ch.digitalfondue.basicxlsx.StreamingWorkbook.SheetOptions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Write a xlsx workbook whose sheets are assembled from {@link SheetFragment} files.</p>
+ *
+ * <p>The compressed rows of the fragments are concatenated as they are between the (compressed) beginning and end
+ * of the worksheet document, the crc of the entry is computed by combining the crc of the parts: the fragments are
+ * never inflated.</p>
+ *
+ * <p>The styles must be defined exactly like in the {@link SheetFragmentWriter} (same styles, same order). Like
+ * {@link StreamingWorkbook}, this class must be closed.</p>
+ */
+public class SheetFragmentAssembler extends AbstractWorkbook implements Closeable, AutoCloseable {
+
+    private final ZipWriter zip;
+    private final SheetWriter sheetWriter = new SheetWriter(this::styleIdSupplier);
+    private final List<String> sheets = new ArrayList<>();
+    private long stylesFingerprint;
+    private boolean hasEnded;
+
+    public SheetFragmentAssembler(OutputStream os) {
+        this.zip = new ZipWriter(os);
+    }
+
+    /**
+     * Write a sheet from the given fragments.
+     *
+     * @param name
+     * @param fragments the fragment files, in any order
+     * @throws IOException
+     */
+    public void withSheet(String name, List<Path> fragments) throws IOException {
+        withSheet(name, fragments, null);
+    }
+
+    /**
+     * Write a sheet from the given fragments (with some options, {@link SheetOptions#autoFitColumns()},
+     * {@link SheetOptions#rollover(int)} and the footer are not supported).
+     *
+     * @param name
+     * @param fragments the fragment files, in any order
+     * @param options
+     * @throws IOException
+     * @throws IllegalArgumentException if a fragment is invalid, use another style table or overlaps another one
+     */
+    public void withSheet(String name, List<Path> fragments, SheetOptions options) throws IOException {
+        if (hasEnded) {
+            throw new IllegalStateException("Already ended");
+        }
+        if (options != null && options.autoFitColumns) {
+            throw new IllegalArgumentException("The auto fit of the columns is not supported for assembled sheets");
+        }
+        if (options != null && options.maxRows > 0) {
+            throw new IllegalArgumentException("The rollover is not supported for assembled sheets");
+        }
+        if (options != null && (!options.aggregates.isEmpty() || !options.footerCells.isEmpty())) {
+            throw new IllegalArgumentException("The footer is not supported for assembled sheets");
+        }
+        if (!hasRegisteredStyles) {
+            byte[] stylesContent = commitStylesContent();
+            stylesFingerprint = stylesFingerprint(stylesContent);
+            try (OutputStream os = zip.putNextEntry("xl/styles.xml")) {
+                os.write(stylesContent);
+            }
+        }
+
+        List<SheetFragment> parts = new ArrayList<>(fragments.size());
+        for (Path path : fragments) {
+            SheetFragment fragment = SheetFragment.read(path);
+            if (fragment.stylesFingerprint != stylesFingerprint) {
+                throw new IllegalArgumentException("The fragment " + path + " has been written with another style table");
+            }
+            parts.add(fragment);
+        }
+        parts.sort(Comparator.comparingInt(f -> f.firstRow));
+
+        int nextRow = 0;
+        int lastRow = -1;
+        int columnCount = 0;
+        for (SheetFragment fragment : parts) {
+            if (fragment.rowCount == 0) {
+                continue;
+            }
+            if (fragment.firstRow < nextRow) {
+                throw new IllegalArgumentException("The fragment " + fragment.path + " overlaps the previous one");
+            }
+            nextRow = fragment.firstRow + fragment.rowCount;
+            lastRow = nextRow - 1;
+            columnCount = Math.max(columnCount, fragment.columnCount);
+        }
+        int firstRow = parts.stream().filter(f -> f.rowCount > 0).mapToInt(f -> f.firstRow).findFirst().orElse(0);
+        String dimension = lastRow < 0 ? null : Utils.fromRowColumnToExcelCoordinates(firstRow, 0) + ":" +
+                Utils.fromRowColumnToExcelCoordinates(lastRow, Math.max(0, columnCount - 1));
+
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        sheetWriter.writeHead(head, options, dimension);
+        ByteArrayOutputStream tail = new ByteArrayOutputStream();
+        SheetWriter.writeTail(tail);
+        Part headPart = Part.deflate(head.toByteArray(), false);
+        Part tailPart = Part.deflate(tail.toByteArray(), true);
+
+        long crc = headPart.crc;
+        long compressedLength = headPart.compressed.length + tailPart.compressed.length;
+        long uncompressedLength = headPart.length + tailPart.length;
+        for (SheetFragment fragment : parts) {
+            crc = ZipWriter.crc32Combine(crc, fragment.crc, fragment.uncompressedLength);
+            compressedLength += fragment.compressedLength;
+            uncompressedLength += fragment.uncompressedLength;
+        }
+        crc = ZipWriter.crc32Combine(crc, tailPart.crc, tailPart.length);
+
+        sheets.add(name);
+        try (OutputStream os = zip.putNextDeflatedEntry("xl/worksheets/sheet" + sheets.size() + ".xml", crc, compressedLength, uncompressedLength)) {
+            os.write(headPart.compressed);
+            WritableByteChannel target = Channels.newChannel(os);
+            for (SheetFragment fragment : parts) {
+                try (FileChannel channel = FileChannel.open(fragment.path, StandardOpenOption.READ)) {
+                    long position = SheetFragment.HEADER_SIZE;
+                    long end = position + fragment.compressedLength;
+                    while (position < end) {
+                        position += channel.transferTo(position, end - position, target);
+                    }
+                }
+            }
+            os.write(tailPart.compressed);
+        }
+    }
+
+    /**
+     * Close the workbook.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try (ZipWriter z = zip) {
+            if (!hasEnded) {
+                hasEnded = true;
+                writeMetadataDocuments(z, sheets);
+            }
+        }
+    }
+
+    // deflated head or tail of the worksheet document
+    private static final class Part {
+        final byte[] compressed;
+        final long crc;
+        final long length;
+
+        private Part(byte[] compressed, long crc, long length) {
+            this.compressed = compressed;
+            this.crc = crc;
+            this.length = length;
+        }
+
+        static Part deflate(byte[] data, boolean last) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(data);
+                if (last) {
+                    deflater.finish();
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                while (true) {
+                    int count = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, count);
+                    if (last ? deflater.finished() : count < buffer.length) {
+                        break;
+                    }
+                }
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                return new Part(out.toByteArray(), crc.getValue(), data.length);
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import ch.digitalfondue.basicxlsx.StreamingWorkbook.Row;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Write a range of rows of a sheet in a {@link SheetFragment} file.</p>
+ *
+ * <p>The styles must be defined exactly like in the {@link SheetFragmentAssembler} (same styles, same order) before
+ * writing the first fragment: the style ids are checked with a fingerprint of the style table.</p>
+ *
+ * <pre>
+ * SheetFragmentWriter writer = new SheetFragmentWriter();
+ * Style bold = writer.defineStyle().font().bold(true).build();
+ * writer.write(Path.of("part-3.bxsf"), 3_000_000, rows);
+ * </pre>
+ */
+public class SheetFragmentWriter extends AbstractWorkbook {
+
+    private final SheetWriter sheetWriter = new SheetWriter(this::styleIdSupplier);
+    private long stylesFingerprint;
+    private int formulaRow;
+
+    /**
+     * Set the row where the {@link SharedFormula} used in the fragments are declared, by default the first row (0).
+     * The formulas are shifted from this row, whatever the first row of the fragment: e.g. with a header row, a
+     * formula declared as <code>A2*2</code> must be used with <code>setFormulaRow(1)</code>.
+     *
+     * @param formulaRow the index (0 based) of the row in the assembled sheet
+     */
+    public void setFormulaRow(int formulaRow) {
+        if (formulaRow < 0) {
+            throw new IllegalArgumentException("The formula row must be positive");
+        }
+        this.formulaRow = formulaRow;
+    }
+
+    /**
+     * Write the rows in a fragment file.
+     *
+     * @param target the fragment file, overwritten if it exists
+     * @param firstRow the index (0 based) of the first row in the assembled sheet
+     * @param rows
+     * @return the fragment
+     * @throws IOException
+     */
+    public SheetFragment write(Path target, int firstRow, Stream<Row> rows) throws IOException {
+        if (firstRow < 0) {
+            throw new IllegalArgumentException("The first row must be positive");
+        }
+        if (!hasRegisteredStyles) {
+            stylesFingerprint = stylesFingerprint(commitStylesContent());
+        }
+
+        AtomicInteger rowCount = new AtomicInteger();
+        AtomicInteger columnCount = new AtomicInteger();
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.position(SheetFragment.HEADER_SIZE);
+            FragmentOutputStream fragment = new FragmentOutputStream(Channels.newOutputStream(channel));
+            try {
+                OutputStream os = new BufferedOutputStream(fragment, 64 * 1024);
+                sheetWriter.writeRows(os, rows.peek(row -> {
+                    rowCount.incrementAndGet();
+                    if (row != null && row.cells != null) {
+                        columnCount.accumulateAndGet(row.cells.length, Math::max);
+                    }
+                }), firstRow, formulaRow);
+                os.flush();
+                fragment.syncFlush();
+            } finally {
+                fragment.deflater.end();
+            }
+            SheetFragment result = new SheetFragment(target, stylesFingerprint, firstRow, rowCount.get(), columnCount.get(),
+                    fragment.crc.getValue(), fragment.uncompressedLength, fragment.compressedLength);
+            channel.write(result.header(), 0);
+            return result;
+        }
+    }
+
+    // raw deflate, terminated with a sync flush instead of a final block
+    private static final class FragmentOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[64 * 1024];
+        private long uncompressedLength;
+        private long compressedLength;
+
+        FragmentOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            crc.update(b, off, len);
+            uncompressedLength += len;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                drain(deflater.deflate(buffer, 0, buffer.length, Deflater.NO_FLUSH));
+            }
+        }
+
+        void syncFlush() throws IOException {
+            int count;
+            do {
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                drain(count);
+            } while (count == buffer.length);
+            out.flush();
+        }
+
+        private void drain(int count) throws IOException {
+            if (count > 0) {
+                out.write(buffer, 0, count);
+                compressedLength += count;
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+/**
+ * Metrics of a written sheet, see {@link MetricsListener#sheetWritten(SheetMetrics)}.
+ */
+public final class SheetMetrics {
+
+    /**
+     * Number of rows in a batch, for {@link MetricsListener#rowBatchWritten(String, int, long)} and
+     * {@link #getRowBatchLatencyHistogram()}.
+     */
+    public static final int ROW_BATCH_SIZE = 1000;
+
+    static final int HISTOGRAM_BUCKETS = 32;
+
+    private final String sheetName;
+    private final long rows;
+    private final long cells;
+    private final long uncompressedBytes;
+    private final long compressedBytes;
+    private final long encodingNanos;
+    private final long compressionNanos;
+    private final long[] rowBatchLatencyHistogram;
+
+    SheetMetrics(String sheetName, long rows, long cells, long uncompressedBytes, long compressedBytes,
+                 long encodingNanos, long compressionNanos, long[] rowBatchLatencyHistogram) {
+        this.sheetName = sheetName;
+        this.rows = rows;
+        this.cells = cells;
+        this.uncompressedBytes = uncompressedBytes;
+        this.compressedBytes = compressedBytes;
+        this.encodingNanos = encodingNanos;
+        this.compressionNanos = compressionNanos;
+        this.rowBatchLatencyHistogram = rowBatchLatencyHistogram;
+    }
+
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of non empty cells
+     */
+    public long getCells() {
+        return cells;
+    }
+
+    /**
+     * @return the size of the worksheet xml document
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * @return the size of the worksheet in the zip file
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /**
+     * @return time spent building and serializing the xml of the worksheet
+     */
+    public long getEncodingNanos() {
+        return encodingNanos;
+    }
+
+    /**
+     * @return time spent compressing the worksheet and writing it to the output stream
+     */
+    public long getCompressionNanos() {
+        return compressionNanos;
+    }
+
+    /**
+     * Latency of the batches of {@link #ROW_BATCH_SIZE} rows, in power of two buckets: the bucket 0 counts the
+     * batches written in less than 1 microsecond, the bucket i the ones written in [2^(i-1), 2^i) microseconds.
+     *
+     * @return a copy of the histogram
+     */
+    public long[] getRowBatchLatencyHistogram() {
+        return rowBatchLatencyHistogram.clone();
+    }
+}
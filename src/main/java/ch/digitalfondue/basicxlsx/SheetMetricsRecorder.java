@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Collect the {@link SheetMetrics} of a sheet. Only created when a {@link MetricsListener} is set.
+ *
+ * The compression time is the time spent in the stream returned by {@link #wrap(OutputStream)} (and in the closing
+ * of the zip entry), the encoding time is the time of the measured sections (rows, serialization) without it.
+ */
+class SheetMetricsRecorder {
+
+    private static final int HISTOGRAM_LAST = SheetMetrics.HISTOGRAM_BUCKETS - 1;
+
+    private final MetricsListener listener;
+    private final String sheetName;
+
+    private long rows;
+    private long cells;
+    private long uncompressedBytes;
+    private long encodingNanos;
+    private long compressionNanos;
+
+    private long sectionStart;
+    private long sectionStartCompression;
+
+    private int batchRows;
+    private long batchNanos;
+    private final long[] batchHistogram = new long[SheetMetrics.HISTOGRAM_BUCKETS];
+
+    SheetMetricsRecorder(MetricsListener listener, String sheetName) {
+        this.listener = listener;
+        this.sheetName = sheetName;
+    }
+
+    static SheetMetricsRecorder of(MetricsListener listener, String sheetName) {
+        return listener == null ? null : new SheetMetricsRecorder(listener, sheetName);
+    }
+
+    void startRow() {
+        startSection();
+    }
+
+    void endRow(int cellCount) {
+        long elapsed = endSection();
+        rows++;
+        cells += cellCount;
+        batchRows++;
+        batchNanos += elapsed;
+        if (batchRows == SheetMetrics.ROW_BATCH_SIZE) {
+            endBatch();
+        }
+    }
+
+    void startSection() {
+        sectionStart = System.nanoTime();
+        sectionStartCompression = compressionNanos;
+    }
+
+    long endSection() {
+        long elapsed = System.nanoTime() - sectionStart;
+        encodingNanos += elapsed - (compressionNanos - sectionStartCompression);
+        return elapsed;
+    }
+
+    void compression(long nanos) {
+        compressionNanos += nanos;
+    }
+
+    private void endBatch() {
+        long micros = batchNanos / 1000;
+        batchHistogram[Math.min(HISTOGRAM_LAST, 64 - Long.numberOfLeadingZeros(micros))]++;
+        listener.rowBatchWritten(sheetName, batchRows, batchNanos);
+        batchRows = 0;
+        batchNanos = 0;
+    }
+
+    /**
+     * Close the zip entry of the sheet and report the metrics.
+     */
+    void closeEntry(ZipOutputStream zos, ZipEntry entry) throws IOException {
+        long start = System.nanoTime();
+        zos.closeEntry();
+        compression(System.nanoTime() - start);
+        finish(entry.getCompressedSize());
+    }
+
+    private void finish(long compressedBytes) {
+        if (batchRows > 0) {
+            endBatch();
+        }
+        listener.sheetWritten(new SheetMetrics(sheetName, rows, cells, uncompressedBytes, compressedBytes,
+                Math.max(0, encodingNanos), compressionNanos, batchHistogram));
+    }
+
+    /**
+     * Count and time what is written in the zip entry. Closing the returned stream does not close the wrapped one.
+     */
+    OutputStream wrap(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                long start = System.nanoTime();
+                out.write(b);
+                compressionNanos += System.nanoTime() - start;
+                uncompressedBytes++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                out.write(b, off, len);
+                compressionNanos += System.nanoTime() - start;
+                uncompressedBytes += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+}
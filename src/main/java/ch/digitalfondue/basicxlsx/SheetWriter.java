@@ -0,0 +1,319 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import ch.digitalfondue.basicxlsx.StreamingWorkbook.Row;
+import ch.digitalfondue.basicxlsx.StreamingWorkbook.SheetOptions;
+import org.w3c.dom.Element;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Write the xml of a worksheet from a stream of rows. Used by the streaming writers.
+ */
+class SheetWriter {
+
+    private static final byte[] SHEET_START = ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+            "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">\n").getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] DEFAULT_COL = "<col max=\"1\" min=\"1\" customWidth=\"true\" bestFit=\"true\" width=\"8.43\"/>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SHEET_END_COLS = "</cols><sheetData>".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] SHEET_END = "</sheetData></worksheet>".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] ROW_START_1 = "<row r=\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ROW_START_2 = "\">".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ROW_END = "</row>".getBytes(StandardCharsets.UTF_8);
+
+    private final Function<String, Element> elementBuilder = Utils.toElementBuilder(Utils.toDocument("sheet_template.xml"));
+    private final ToIntFunction<Cell> styleIdSupplier;
+    // set by the workbook while writing a sheet when a metrics listener is present, else null
+    SheetMetricsRecorder recorder;
+    // true once a formula without a result computed by the library has been written
+    boolean formulasToCalculate;
+
+    SheetWriter(ToIntFunction<Cell> styleIdSupplier) {
+        this.styleIdSupplier = styleIdSupplier;
+    }
+
+    /**
+     * Write the complete worksheet document.
+     *
+     * @param out
+     * @param rows
+     * @param options may be null
+     * @throws IOException
+     */
+    void write(OutputStream out, Stream<Row> rows, SheetOptions options) throws IOException {
+        write(out, rows, options, SharedFormulas.anchors());
+    }
+
+    /**
+     * Write the complete worksheet document, continuing the rows of the previous sheets (rollover, split files).
+     *
+     * @param out
+     * @param rows
+     * @param options may be null
+     * @param formulaAnchors the position of the shared formulas used in the previous sheets, updated with the new ones
+     * @throws IOException
+     */
+    void write(OutputStream out, Stream<Row> rows, SheetOptions options, Map<SharedFormula, int[]> formulaAnchors) throws IOException {
+        writeStart(out, options, null);
+
+        int maxRows = options != null && options.maxRows > 0 ? options.maxRows : SheetOptions.MAX_ROWS;
+        if (options != null && !options.aggregates.isEmpty()) {
+            maxRows--; // the footer row
+        }
+        SharedFormulas sharedFormulas = SharedFormulas.streaming(formulaAnchors, maxRows);
+        if (options != null && options.autoFitColumns) {
+            writeAutoFitSheetData(out, rows, options, sharedFormulas);
+        } else {
+            writeCols(out, options, null);
+            out.write(SHEET_END_COLS);
+            writeRows(out, rows, 0, null, sharedFormulas);
+        }
+        out.write(SHEET_END);
+    }
+
+    /**
+     * Write the beginning of the worksheet document, up to the opening sheetData element. The rows are then written
+     * with {@link #writeRows(OutputStream, Stream, int, int)} or come from elsewhere (see {@link SheetFragment}).
+     * The auto fit of the columns is not supported here.
+     *
+     * @param out
+     * @param options may be null
+     * @param dimension the used range (e.g. "A1:C20"), may be null
+     * @throws IOException
+     */
+    void writeHead(OutputStream out, SheetOptions options, String dimension) throws IOException {
+        writeStart(out, options, dimension);
+        writeCols(out, options, null);
+        out.write(SHEET_END_COLS);
+    }
+
+    /**
+     * Write the end of the worksheet document, after the rows.
+     *
+     * @param out
+     * @throws IOException
+     */
+    static void writeTail(OutputStream out) throws IOException {
+        out.write(SHEET_END);
+    }
+
+    private static void writeStart(OutputStream out, SheetOptions options, String dimension) throws IOException {
+        out.write(SHEET_START);
+
+        if (dimension != null) {
+            write(out, "<dimension ref=\"");
+            write(out, dimension);
+            write(out, "\"/>");
+        }
+
+        if (options != null && options.readingOrder != null) {
+            write(out, "<sheetViews><sheetView rightToLeft=\"");
+            write(out, Boolean.toString(options.readingOrder == Style.ReadingOrder.RTL));
+            write(out, "\"></sheetView></sheetViews>");
+        }
+    }
+
+    private static void write(OutputStream os, String s) throws IOException {
+        os.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // the rows are written in a temporary file while measuring the columns width, then the cols element and the
+    // content of the temporary file are written in the zip
+    private void writeAutoFitSheetData(OutputStream out, Stream<Row> rows, SheetOptions options, SharedFormulas sharedFormulas) throws IOException {
+        Path spool = Files.createTempFile("basicxlsx", ".xml");
+        Deflater deflater = options.compressSpool ? new Deflater(Deflater.BEST_SPEED, true) : null;
+        Inflater inflater = options.compressSpool ? new Inflater(true) : null;
+        try {
+            ColumnWidthTracker columnWidthTracker = new ColumnWidthTracker(0);
+            // the measures are done while spooling the rows
+            Object autosizeEvent = JfrEvents.beginAutosize();
+            OutputStream fileOutput = Files.newOutputStream(spool);
+            try (OutputStream os = new BufferedOutputStream(deflater != null ? new DeflaterOutputStream(fileOutput, deflater) : fileOutput, 64 * 1024)) {
+                writeRows(os, rows, 0, columnWidthTracker, sharedFormulas);
+            }
+            writeCols(out, options, columnWidthTracker);
+            JfrEvents.endAutosize(autosizeEvent, columnWidthTracker.columnCount(), columnWidthTracker.measuredCells());
+            out.write(SHEET_END_COLS);
+            InputStream fileInput = Files.newInputStream(spool);
+            try (InputStream is = inflater != null ? new InflaterInputStream(fileInput, inflater, 64 * 1024) : new BufferedInputStream(fileInput, 64 * 1024)) {
+                is.transferTo(out);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+                inflater.end();
+            }
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    private void writeCols(OutputStream out, SheetOptions options, ColumnWidthTracker columnWidthTracker) throws IOException {
+        double[] columnWidth = options == null || options.columnWidth == null ? new double[0] : options.columnWidth;
+        int colsCount = Math.max(columnWidth.length, columnWidthTracker == null ? 0 : columnWidthTracker.columnCount());
+
+        write(out, "<cols>");
+        if (colsCount == 0) {
+            out.write(DEFAULT_COL);
+        } else {
+            for (int i = 0; i < colsCount; i++) {
+                double colWidth = i < columnWidth.length ? columnWidth[i] : 0;
+                if (colWidth <= 0 && columnWidthTracker != null) {
+                    double trackedWidth = columnWidthTracker.width(i);
+                    colWidth = trackedWidth > 0 ? trackedWidth : ColumnWidthTracker.DEFAULT_WIDTH;
+                }
+                writeCol(out, i, colWidth);
+            }
+        }
+    }
+
+    /**
+     * Write only the row elements, the first one at the given (0 based) row index.
+     *
+     * @param os
+     * @param rows
+     * @param firstRow
+     * @param formulaRow the row (0 based) where the shared formulas are declared, -1 for the row of their first cell
+     */
+    void writeRows(OutputStream os, Stream<Row> rows, int firstRow, int formulaRow) {
+        // the group ids of the shared formulas would collide between the fragments of a sheet
+        writeRows(os, rows, firstRow, null, SharedFormulas.unshared(formulaRow));
+    }
+
+    private void writeRows(OutputStream os, Stream<Row> rows, int firstRow, ColumnWidthTracker columnWidthTracker, SharedFormulas sharedFormulas) {
+        AtomicInteger rowCounter = new AtomicInteger(firstRow);
+
+        Transformer transformer = Utils.getTransformer(true);
+        StreamResult sr = new StreamResult(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        Consumer<DOMSource> consumer = domSource -> {
+            try {
+                transformer.transform(domSource, sr);
+            } catch (TransformerException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+
+        RowBatchEvents batchEvents = new RowBatchEvents(firstRow);
+        rows.forEachOrdered(row -> {
+            batchEvents.beforeRow(rowCounter.get());
+            processRow(os, rowCounter.get(), row, consumer, columnWidthTracker, sharedFormulas);
+            rowCounter.incrementAndGet(); //ugly, but it works
+        });
+        batchEvents.end(rowCounter.get());
+    }
+
+    // flight recorder events for each batch of SheetMetrics.ROW_BATCH_SIZE rows
+    private static final class RowBatchEvents {
+        private int batchStart;
+        private Object event;
+
+        RowBatchEvents(int firstRow) {
+            this.batchStart = firstRow;
+        }
+
+        void beforeRow(int rowIdx) {
+            if (rowIdx == batchStart + SheetMetrics.ROW_BATCH_SIZE) {
+                end(rowIdx);
+                batchStart = rowIdx;
+            }
+            if (rowIdx == batchStart && event == null) {
+                event = JfrEvents.beginRowBatch();
+            }
+        }
+
+        void end(int nextRowIdx) {
+            JfrEvents.endRowBatch(event, batchStart + 1, nextRowIdx - batchStart);
+            event = null;
+        }
+    }
+
+    private static void writeCol(OutputStream out, int idx, double colWidth) throws IOException {
+        byte[] minMax = Integer.toString(idx + 1).getBytes(StandardCharsets.UTF_8);
+        write(out, "<col max=\"");
+        out.write(minMax);
+        write(out, "\" min=\"");
+        out.write(minMax);
+
+        if (colWidth > 0) {
+            write(out, "\" customWidth=\"true\" width=\"");
+            write(out, Double.toString(colWidth));
+        }
+
+        write(out, "\"/>");
+    }
+
+    private void processRow(OutputStream os, int rowIdx, Row rowContainer, Consumer<DOMSource> consumer, ColumnWidthTracker columnWidthTracker, SharedFormulas sharedFormulas) {
+        try {
+            if (rowContainer != null && rowContainer.cells != null) {
+                if (recorder != null) {
+                    recorder.startRow();
+                }
+                int cellCount = 0;
+                Cell[] row = rowContainer.cells;
+                //"<row r="1">"
+                os.write(ROW_START_1);
+                write(os, Integer.toString(rowIdx + 1));
+
+                if (rowContainer.height != null) {
+                    write(os, "\" customHeight=\"true\" ht=\"");
+                    write(os, Double.toString(rowContainer.height));
+                }
+                os.write(ROW_START_2);
+                //
+                for (int i = 0; i < row.length; i++) {
+                    Cell cell = row[i];
+                    if (cell != null) {
+                        int styleId = styleIdSupplier.applyAsInt(cell);
+                        formulasToCalculate |= cell.needsCalculation();
+                        Element e = sharedFormulas.toElement(cell, elementBuilder, rowIdx, i, styleId);
+                        //TODO: find a way to remove the xmlns attached to the cell...
+                        consumer.accept(new DOMSource(e));
+                        if (columnWidthTracker != null) {
+                            columnWidthTracker.track(i, cell);
+                        }
+                        cellCount++;
+                    }
+                }
+                os.write(ROW_END);
+                if (recorder != null) {
+                    recorder.endRow(cellCount);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import ch.digitalfondue.basicxlsx.StreamingWorkbook.Row;
+import ch.digitalfondue.basicxlsx.StreamingWorkbook.SheetOptions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Stream;
+
+/**
+ * <p>Streaming workbook split in several xlsx files of a bounded size (e.g. for respecting the size limit of an
+ * attachment).</p>
+ *
+ * <p>The compressed bytes written in the current file are counted: when the budget minus a reserve is reached, the
+ * file is completed at a row boundary and the rows continue, in a sheet with the same name, in a new file obtained
+ * from the {@link OutputFactory}. Each file is a complete workbook with all the styles.</p>
+ *
+ * <p>The reserve must cover what is written after the check: the data still buffered by the compressor, the end of
+ * the sheet and the metadata documents. The default (128KB) is enough for rows of a reasonable size.</p>
+ *
+ * <pre>
+ * try (SplittingWorkbook w = new SplittingWorkbook(part -&gt; Files.newOutputStream(Path.of("export-" + part + ".xlsx")), 25_000_000)) {
+ *     w.withSheet("export", rows, new SheetOptions().rollover(SheetOptions.MAX_ROWS, true)); // repeat the header in each file
+ * }
+ * </pre>
+ */
+public class SplittingWorkbook extends AbstractWorkbook implements Closeable, AutoCloseable {
+
+    /**
+     * Provide the output streams of the files.
+     */
+    @FunctionalInterface
+    public interface OutputFactory {
+        /**
+         * @param part index of the file, starting from 1
+         * @return the output stream, it will be closed when the file is complete
+         * @throws IOException
+         */
+        OutputStream create(int part) throws IOException;
+    }
+
+    static final long DEFAULT_RESERVE = 128 * 1024;
+
+    private final OutputFactory outputFactory;
+    private final long maxBytes;
+    private final long reserve;
+    private StreamingWorkbook current;
+    private int partCount;
+    private boolean hasEnded;
+    private ProgressListener progressListener;
+    private int progressInterval;
+    private CancellationToken cancellationToken;
+
+    /**
+     * @param outputFactory
+     * @param maxBytes the maximum size of a file
+     */
+    public SplittingWorkbook(OutputFactory outputFactory, long maxBytes) {
+        this(outputFactory, maxBytes, DEFAULT_RESERVE);
+    }
+
+    /**
+     * @param outputFactory
+     * @param maxBytes the maximum size of a file
+     * @param reserve the margin kept for completing a file
+     */
+    public SplittingWorkbook(OutputFactory outputFactory, long maxBytes, long reserve) {
+        if (reserve < 0 || maxBytes <= reserve) {
+            throw new IllegalArgumentException("The maximum size must be greater than the reserve");
+        }
+        this.outputFactory = outputFactory;
+        this.maxBytes = maxBytes;
+        this.reserve = reserve;
+    }
+
+    /**
+     * Write a sheet, it may be split over several files.
+     *
+     * @param name
+     * @param rows
+     * @throws IOException
+     */
+    public void withSheet(String name, Stream<Row> rows) throws IOException {
+        withSheet(name, rows, null);
+    }
+
+    /**
+     * Write a sheet (with some options), it may be split over several files. If the options define a header row to
+     * repeat (see {@link SheetOptions#rollover(int, boolean)}), it's repeated at the top of the sheet in each file.
+     * The auto fit of the columns is not supported: the rows would be spooled before reaching the counted output.
+     *
+     * @param name
+     * @param rows
+     * @param options
+     * @throws IOException
+     */
+    public void withSheet(String name, Stream<Row> rows, SheetOptions options) throws IOException {
+        if (hasEnded) {
+            throw new IllegalStateException("Already ended");
+        }
+        if (options != null && options.autoFitColumns) {
+            throw new IllegalArgumentException("The auto fit of the columns is not supported for split sheets");
+        }
+        hasRegisteredStyles = true;
+
+        Iterator<Row> iterator = rows.iterator();
+        try {
+            Row header = options != null && options.repeatHeader && iterator.hasNext() ? iterator.next() : null;
+            Map<SharedFormula, int[]> formulaAnchors = SharedFormulas.anchors();
+            int part = 1;
+            do {
+                if (current == null || isBudgetReached()) {
+                    nextFile();
+                }
+                part = current.writeSheet(name, part, header, iterator, options, formulaAnchors, this::isBudgetReached);
+            } while (iterator.hasNext());
+        } catch (CancellationException e) {
+            rows.close();
+            throw e;
+        }
+    }
+
+    private boolean isBudgetReached() {
+        return current.bytesWritten() + reserve >= maxBytes;
+    }
+
+    private void nextFile() throws IOException {
+        if (current != null) {
+            current.close();
+        }
+        partCount++;
+        current = new StreamingWorkbook(outputFactory.create(partCount));
+        current.metricsListener = metricsListener;
+        current.setCancellationToken(cancellationToken);
+        if (progressListener != null) {
+            current.setProgressListener(progressListener, progressInterval);
+        }
+        // same styles, in the same order: same ids in all the files
+        current.styles.addAll(styles);
+    }
+
+    /**
+     * Set the listener receiving the metrics of the written sheets (and of the metadata of each file), null for
+     * removing it.
+     *
+     * @param metricsListener
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        if (current != null) {
+            current.metricsListener = metricsListener;
+        }
+    }
+
+    /**
+     * Set the listener receiving the progress of the sheets in each file, null for removing it. See
+     * {@link StreamingWorkbook#setProgressListener(ProgressListener, int)}.
+     *
+     * @param progressListener
+     * @param everyRows the interval, in rows, between two calls
+     */
+    public void setProgressListener(ProgressListener progressListener, int everyRows) {
+        if (everyRows <= 0) {
+            throw new IllegalArgumentException("The interval must be greater than 0");
+        }
+        this.progressListener = progressListener;
+        this.progressInterval = everyRows;
+        if (current != null) {
+            current.setProgressListener(progressListener, everyRows);
+        }
+    }
+
+    /**
+     * Set the token checked between the rows, null for removing it. When the token is cancelled, the rows stream is
+     * closed and the write throws a {@link CancellationException}: the files already completed stay valid, the
+     * current one is left incomplete.
+     *
+     * @param cancellationToken
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+        if (current != null) {
+            current.setCancellationToken(cancellationToken);
+        }
+    }
+
+    /**
+     * The number of files created until now.
+     *
+     * @return
+     */
+    public int getPartCount() {
+        return partCount;
+    }
+
+    /**
+     * Complete the last file.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (!hasEnded) {
+            hasEnded = true;
+            if (current != null) {
+                current.close();
+            }
+        }
+    }
+}
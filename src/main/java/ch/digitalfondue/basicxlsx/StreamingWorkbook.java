@@ -15,36 +15,42 @@
  */
 package ch.digitalfondue.basicxlsx;
 
-import org.w3c.dom.Element;
-
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 /**
  * <p>Represent a xlsx workbook. It's the main entry point for generating a xlsx file.</p>
  * <p>This workbook, as his name implies, allow to stream the rows one by one, thus avoiding to keep all
- * the cells data in memory. This mode has some downsides (no auto sizing for column), but it's useful if
+ * the cells data in memory. This mode has some downsides (auto sizing the columns require to spool the sheet
+ * content in a temporary file, see {@link SheetOptions#autoFitColumns()}), but it's useful if
  * you are memory constrained and/or you don't need all the features of the more complete {@link Workbook}.</p>
  *
  * <p>Note: this class implements {@link AutoCloseable} and it's best used within a try-with-resources statement.
  * If it's not in a try-with-resources statement, then you _must_ call {@link #close()} or else the
  * xlsx file will be incomplete.</p>
+ *
+ * <p>A long export can be followed with a {@link ProgressListener} and stopped with a {@link CancellationToken}: the
+ * rows stream is then closed, a {@link CancellationException} is thrown and {@link #close()} only closes the output,
+ * without completing the xlsx file.</p>
  */
 public class StreamingWorkbook extends AbstractWorkbook implements Closeable, AutoCloseable {
 
@@ -53,8 +59,8 @@ public class StreamingWorkbook extends AbstractWorkbook implements Closeable, Au
      * */
     public static class Row {
 
-        private final Cell[] cells;
-        private final Double height;
+        final Cell[] cells;
+        final Double height;
 
         Row(Cell[] cells, Double height) {
             this.cells = cells;
@@ -62,12 +68,36 @@ public class StreamingWorkbook extends AbstractWorkbook implements Closeable, Au
         }
     }
 
+    /**
+     * Aggregate function of a footer cell, see {@link SheetOptions#aggregate(int, Aggregate)}.
+     */
+    public enum Aggregate {
+        SUM, MIN, MAX, COUNT, AVERAGE
+    }
+
     /**
      * Configuration options for a given sheet.
      */
     public static class SheetOptions {
-        private final double[] columnWidth;
-        private final Style.ReadingOrder readingOrder;
+
+        /**
+         * Maximum number of rows of a sheet in excel.
+         */
+        public static final int MAX_ROWS = 1_048_576;
+
+        final double[] columnWidth;
+        final Style.ReadingOrder readingOrder;
+        boolean autoFitColumns;
+        boolean compressSpool;
+        int maxRows;
+        boolean repeatHeader;
+        final Map<Integer, Aggregate> aggregates = new TreeMap<>();
+        final Map<Integer, Style> aggregateStyles = new HashMap<>();
+        final Map<Integer, Cell> footerCells = new TreeMap<>();
+
+        public SheetOptions() {
+            this(null, null);
+        }
 
         public SheetOptions(double[] columnWidth) {
             this(columnWidth, null);
@@ -81,6 +111,116 @@ public class StreamingWorkbook extends AbstractWorkbook implements Closeable, Au
             this.columnWidth = columnWidth;
             this.readingOrder = readingOrder;
         }
+
+        /**
+         * Auto fit the width of the columns in function of the content. See {@link Sheet#autoResizeColumn(int)}
+         * about the limitations. The widths explicitly defined in the columnWidth parameter have the precedence.
+         *
+         * As the columns definition must be written before the rows, the rows of the sheet are spooled
+         * in a compressed temporary file while the widths are measured.
+         *
+         * Not supported by {@link SplittingWorkbook}.
+         *
+         * @return this instance
+         */
+        public SheetOptions autoFitColumns() {
+            return autoFitColumns(true);
+        }
+
+        /**
+         * See {@link #autoFitColumns()}.
+         *
+         * @param compressSpool true for compressing the temporary file (less disk usage), false for keeping it raw (less cpu usage)
+         * @return this instance
+         */
+        public SheetOptions autoFitColumns(boolean compressSpool) {
+            this.autoFitColumns = true;
+            this.compressSpool = compressSpool;
+            return this;
+        }
+
+        /**
+         * When a sheet reach the given number of rows, continue in a new sheet named "name (2)", "name (3)", ...
+         * Without this option, the rollover happens at the excel limit of 1048576 rows.
+         *
+         * Only supported by {@link StreamingWorkbook}.
+         *
+         * @param maxRows the maximum number of rows by sheet, at most 1048576
+         * @return this instance
+         */
+        public SheetOptions rollover(int maxRows) {
+            return rollover(maxRows, false);
+        }
+
+        /**
+         * See {@link #rollover(int)}.
+         *
+         * @param maxRows the maximum number of rows by sheet (including the header), at most 1048576
+         * @param repeatHeader true for repeating the first row of the stream at the top of each new sheet
+         * @return this instance
+         */
+        public SheetOptions rollover(int maxRows, boolean repeatHeader) {
+            if (maxRows < (repeatHeader ? 2 : 1) || maxRows > MAX_ROWS) {
+                throw new IllegalArgumentException("The maximum number of rows must be between " + (repeatHeader ? 2 : 1) + " and " + MAX_ROWS);
+            }
+            this.maxRows = maxRows;
+            this.repeatHeader = repeatHeader;
+            return this;
+        }
+
+        /**
+         * Add a footer row, after the last row of the sheet, with the aggregate of a column (e.g. "SUM(C2:C1001)").
+         * The aggregates are computed while the rows are written: the formulas are written with their result, the
+         * file doesn't need to be recalculated when opened (if it has no other formula) and viewers that do not calculate
+         * show the totals. Like
+         * excel, only the numeric cells (numbers, dates, formulas with a numeric result) are aggregated and the
+         * header row repeated with {@link #rollover(int, boolean)} is excluded.
+         *
+         * With the rollover, each sheet has its own footer. There is no footer in a sheet without rows.
+         *
+         * Only supported by {@link StreamingWorkbook} and {@link SplittingWorkbook}.
+         *
+         * @param column the column index (0 based)
+         * @param aggregate
+         * @return this instance
+         */
+        public SheetOptions aggregate(int column, Aggregate aggregate) {
+            return aggregate(column, aggregate, null);
+        }
+
+        /**
+         * See {@link #aggregate(int, Aggregate)}.
+         *
+         * @param column the column index (0 based)
+         * @param aggregate
+         * @param style the style of the footer cell, may be null
+         * @return this instance
+         */
+        public SheetOptions aggregate(int column, Aggregate aggregate, Style style) {
+            checkFooterColumn(column);
+            aggregates.put(column, aggregate);
+            aggregateStyles.put(column, style);
+            return this;
+        }
+
+        /**
+         * Add a cell (e.g. a "Total" label) in the footer row, see {@link #aggregate(int, Aggregate)}.
+         *
+         * @param column the column index (0 based)
+         * @param cell
+         * @return this instance
+         */
+        public SheetOptions footerCell(int column, Cell cell) {
+            checkFooterColumn(column);
+            footerCells.put(column, cell);
+            return this;
+        }
+
+        private static void checkFooterColumn(int column) {
+            if (column < 0) {
+                throw new IllegalArgumentException("The column index must be positive");
+            }
+        }
     }
 
     /**
@@ -124,53 +264,98 @@ public class StreamingWorkbook extends AbstractWorkbook implements Closeable, Au
         return row(cells.toArray(new Cell[0]), height);
     }
 
+    private final CountingOutputStream output;
     private final ZipOutputStream zos;
     private boolean hasEnded;
-    private boolean hasRegisteredStyles;
+    private boolean cancelled;
+    private ProgressListener progressListener;
+    private int progressInterval;
+    private CancellationToken cancellationToken;
     private final List<String> sheets = new ArrayList<>();
+    private final SheetWriter sheetWriter = new SheetWriter(this::styleIdSupplier);
+    private Object writeEvent;
 
-    private static final byte[] SHEET_START = ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
-            "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">\n").getBytes(StandardCharsets.UTF_8);
+    public StreamingWorkbook(OutputStream os) {
+        this.output = new CountingOutputStream(os);
+        this.zos = new ZipOutputStream(output, StandardCharsets.UTF_8);
+        this.writeEvent = JfrEvents.beginWorkbookWrite("StreamingWorkbook");
+    }
 
-    private static final byte[] DEFAULT_COL = "<col max=\"1\" min=\"1\" customWidth=\"true\" bestFit=\"true\" width=\"8.43\"/>".getBytes(StandardCharsets.UTF_8);
-    private static final byte[] SHEET_END_COLS = "</cols><sheetData>".getBytes(StandardCharsets.UTF_8);
+    /**
+     * Set the listener receiving the metrics of the written sheets, null for removing it.
+     *
+     * @param metricsListener
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
 
-    private static final byte[] SHEET_END = "</sheetData></worksheet>".getBytes(StandardCharsets.UTF_8);
+    /**
+     * Set the listener receiving the progress of the sheets, null for removing it. The listener is called every
+     * <code>everyRows</code> rows and when a sheet is complete.
+     *
+     * @param progressListener
+     * @param everyRows the interval, in rows, between two calls
+     */
+    public void setProgressListener(ProgressListener progressListener, int everyRows) {
+        if (everyRows <= 0) {
+            throw new IllegalArgumentException("The interval must be greater than 0");
+        }
+        this.progressListener = progressListener;
+        this.progressInterval = everyRows;
+    }
 
-    private static final byte[] ROW_START_1 = "<row r=\"".getBytes(StandardCharsets.UTF_8);
-    private static final byte[] ROW_START_2 = "\">".getBytes(StandardCharsets.UTF_8);
-    private static final byte[] ROW_END = "</row>".getBytes(StandardCharsets.UTF_8);
-    private final Function<String, Element> elementBuilder;
+    /**
+     * Set the token checked between the rows, null for removing it. When the token is cancelled, the rows stream is
+     * closed and the write throws a {@link CancellationException}.
+     *
+     * @param cancellationToken
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
 
-    public StreamingWorkbook(OutputStream os) {
-        this.zos = new ZipOutputStream(os, StandardCharsets.UTF_8);
-        this.elementBuilder = Utils.toElementBuilder(Utils.toDocument("sheet_template.xml"));
+    /**
+     * True if a write has been stopped by the cancellation token: the xlsx file is incomplete.
+     *
+     * @return
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // the compressed bytes written in the output until now
+    long bytesWritten() {
+        return output.getCount();
     }
 
     /**
-     * Close the workbook.
+     * Close the workbook. If the write has been cancelled, the output is closed as is: the xlsx file is incomplete.
      *
      * @throws IOException
      */
     @Override
     public void close() throws IOException {
+        if (cancelled) {
+            // finishing the zip would produce a valid file with a truncated sheet: the zip is closed (releasing its
+            // deflater) without writing the end of the current entry and the central directory
+            hasEnded = true;
+            output.discard();
+            try {
+                zos.close();
+            } finally {
+                output.close();
+            }
+            JfrEvents.endWorkbookWrite(writeEvent, sheets.size());
+            writeEvent = null;
+            return;
+        }
         if (!hasEnded) {
             end();
         }
         zos.close();
-    }
-
-    /**
-     * Define a new style.
-     *
-     * @return a style builder
-     */
-    @Override
-    public Style.StyleBuilder defineStyle() {
-        if (hasRegisteredStyles) {
-            throw new IllegalStateException("Cannot register new styles after writing a sheet");
-        }
-        return super.defineStyle();
+        JfrEvents.endWorkbookWrite(writeEvent, sheets.size());
+        writeEvent = null;
     }
 
     /**
@@ -185,12 +370,9 @@ public class StreamingWorkbook extends AbstractWorkbook implements Closeable, Au
     }
 
 
-    private void write(String s) throws IOException {
-        zos.write(s.getBytes(StandardCharsets.UTF_8));
-    }
-
     /**
-     * Write a sheet (with some options).
+     * Write a sheet (with some options). If the rows do not fit in a sheet (see {@link SheetOptions#rollover(int)}),
+     * they continue in new sheets named "name (2)", "name (3)", ...
      *
      * @param name
      * @param rows
@@ -198,99 +380,167 @@ public class StreamingWorkbook extends AbstractWorkbook implements Closeable, Au
      * @throws IOException
      */
     public void withSheet(String name, Stream<Row> rows, SheetOptions options) throws IOException {
-        if (hasEnded) {
-            throw new IllegalStateException("Already ended");
+        boolean repeatHeader = options != null && options.repeatHeader;
+        Iterator<Row> iterator = rows.iterator();
+        try {
+            Row header = repeatHeader && iterator.hasNext() ? iterator.next() : null;
+            writeSheet(name, 1, header, iterator, options, SharedFormulas.anchors(), () -> false);
+        } catch (CancellationException e) {
+            rows.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write the rows in one or more sheets (see {@link SheetOptions#rollover(int)}), until there are no more rows or
+     * the stop condition is true. The condition is checked between the rows, after at least one row has been written
+     * in the current sheet.
+     *
+     * @param name
+     * @param firstPart 1 for starting with the sheet "name", n for "name (n)"
+     * @param header the header row to repeat at the top of each sheet, may be null
+     * @param iterator
+     * @param options may be null
+     * @param formulaAnchors the position of the shared formulas, kept between the sheets (and the files) of the rows
+     * @param stop
+     * @return the last part written
+     * @throws IOException
+     * @throws CancellationException if the cancellation token has been cancelled
+     */
+    int writeSheet(String name, int firstPart, Row header, Iterator<Row> iterator, SheetOptions options, Map<SharedFormula, int[]> formulaAnchors, BooleanSupplier stop) throws IOException {
+        if (hasEnded || cancelled) {
+            throw new IllegalStateException(cancelled ? "Cancelled" : "Already ended");
         }
+        checkCancellation();
 
         if (!hasRegisteredStyles) {
-            commitAndWriteStyleMetadata(zos, styles, styleToIdMapping);
+            writeStyles(zos);
             hasRegisteredStyles = true;
         }
 
-        sheets.add(name);
-
-        zos.putNextEntry(new ZipEntry("xl/worksheets/sheet" + (sheets.size()) + ".xml"));
-        zos.write(SHEET_START);
-
-        if (options != null && options.readingOrder != null) {
-            write("<sheetViews><sheetView rightToLeft=\"");
-            write(Boolean.toString(options.readingOrder == Style.ReadingOrder.RTL));
-            write("\"></sheetView></sheetViews>");
+        int maxRows = options != null && options.maxRows > 0 ? options.maxRows : SheetOptions.MAX_ROWS;
+        SheetFooter footer = options == null || options.aggregates.isEmpty() ? null : new SheetFooter(options.aggregates, options.aggregateStyles, options.footerCells);
+        int headerRows = header == null ? 0 : 1;
+        int limit = maxRows - headerRows - (footer == null ? 0 : 1);
+        if (limit < 1) {
+            throw new IllegalArgumentException("The maximum number of rows must leave space for at least one row");
         }
-
-        write("<cols>");
-        if (options == null || options.columnWidth == null || options.columnWidth.length == 0) {
-            zos.write(DEFAULT_COL);
-        } else {
-            for (int i = 0; i < options.columnWidth.length; i++) {
-                double colWidth = options.columnWidth[i];
-                writeCol(i, colWidth);
+        int part = firstPart;
+        while (true) {
+            String sheetName = part == 1 ? name : Utils.numberedWorksheetName(name, part);
+            // skip the numbers already used by the sheets of the user
+            while (part > 1 && hasSheet(sheetName)) {
+                part++;
+                sheetName = Utils.numberedWorksheetName(name, part);
+            }
+            sheets.add(sheetName);
+            LimitedIterator partRows = new LimitedIterator(sheetName, iterator, headerRows, limit, stop, footer);
+            Stream<Row> partStream = StreamSupport.stream(Spliterators.spliteratorUnknownSize(partRows, Spliterator.ORDERED), false);
+            if (footer != null) {
+                // lazily built, once the rows have been written
+                footer.reset();
+                partStream = Stream.concat(partStream, Stream.of(footer)
+                        .filter(f -> partRows.count > 0)
+                        .map(f -> f.toRow(headerRows, headerRows + partRows.count - 1)));
+            }
+            Stream<Row> sheetRows = header == null ? partStream : Stream.concat(Stream.of(header), partStream);
+            Object event = JfrEvents.beginSheetWrite();
+            ZipEntry entry = new ZipEntry("xl/worksheets/sheet" + (sheets.size()) + ".xml");
+            zos.putNextEntry(entry);
+            SheetMetricsRecorder recorder = SheetMetricsRecorder.of(metricsListener, sheetName);
+            if (recorder == null) {
+                sheetWriter.write(zos, sheetRows, options, formulaAnchors);
+                zos.closeEntry();
+            } else {
+                writeMeasured(entry, sheetRows, options, formulaAnchors, recorder);
             }
+            int writtenRows = partRows.count + partRows.offset + (footer != null && partRows.count > 0 ? 1 : 0);
+            JfrEvents.endSheetWrite(event, sheetName, writtenRows, entry.getSize(), entry.getCompressedSize());
+            if (progressListener != null) {
+                progressListener.progress(sheetName, writtenRows, bytesWritten() - partRows.startBytes);
+            }
+            if (partRows.stopped || !iterator.hasNext()) {
+                return part;
+            }
+            part++;
         }
+    }
 
-        zos.write(SHEET_END_COLS);
-        AtomicInteger rowCounter = new AtomicInteger(0);
-
-        Transformer transformer = Utils.getTransformer(true);
-        StreamResult sr = new StreamResult(new OutputStreamWriter(zos, StandardCharsets.UTF_8));
-        Consumer<DOMSource> consumer = domSource -> {
-            try {
-                transformer.transform(domSource, sr);
-            } catch (TransformerException e) {
-                throw new IllegalStateException(e);
+    private boolean hasSheet(String sheetName) {
+        String normalized = Utils.convertToExcelCompatibleWorksheetName(sheetName);
+        for (String sheet : sheets) {
+            if (Utils.convertToExcelCompatibleWorksheetName(sheet).equalsIgnoreCase(normalized)) {
+                return true;
             }
-        };
-
-        rows.forEachOrdered(row -> {
-            processRow(rowCounter.get(), row, consumer);
-            rowCounter.incrementAndGet(); //ugly, but it works
-        });
-        zos.write(SHEET_END);
-        zos.closeEntry();
+        }
+        return false;
     }
 
-    private void writeCol(int idx, double colWidth) throws IOException {
-        byte[] minMax = Integer.toString(idx + 1).getBytes(StandardCharsets.UTF_8);
-        write("<col max=\"");
-        zos.write(minMax);
-        write("\" min=\"");
-        zos.write(minMax);
-
-        if (colWidth > 0) {
-            write("\" customWidth=\"true\" width=\"");
-            write(Double.toString(colWidth));
+    private void writeMeasured(ZipEntry entry, Stream<Row> rows, SheetOptions options, Map<SharedFormula, int[]> formulaAnchors, SheetMetricsRecorder recorder) throws IOException {
+        sheetWriter.recorder = recorder;
+        try (OutputStream os = new BufferedOutputStream(recorder.wrap(zos), 64 * 1024)) {
+            sheetWriter.write(os, rows, options, formulaAnchors);
+        } finally {
+            sheetWriter.recorder = null;
         }
+        recorder.closeEntry(zos, entry);
+    }
 
-        write("\"/>");
+    private void checkCancellation() {
+        if (cancellationToken != null && cancellationToken.isCancelled()) {
+            cancelled = true;
+            throw new CancellationException("The workbook write has been cancelled");
+        }
     }
 
-    private void processRow(int rowIdx, Row rowContainer, Consumer<DOMSource> consumer) {
-        try {
-            if (rowContainer != null && rowContainer.cells != null) {
-                Cell[] row = rowContainer.cells;
-                //"<row r="1">"
-                zos.write(ROW_START_1);
-                write(Integer.toString(rowIdx + 1));
-
-                if (rowContainer.height != null) {
-                    write("\" customHeight=\"true\" ht=\"");
-                    write(Double.toString(rowContainer.height));
-                }
-                zos.write(ROW_START_2);
-                //
-                for (int i = 0; i < row.length; i++) {
-                    Cell cell = row[i];
-                    if (cell != null) {
-                        int styleId = styleIdSupplier(cell);
-                        Element e = cell.toElement(elementBuilder, rowIdx, i, styleId);
-                        //TODO: find a way to remove the xmlns attached to the cell...
-                        consumer.accept(new DOMSource(e));
-                    }
-                }
-                zos.write(ROW_END);
+    // the next rows of the stream, up to a limit or until the stop condition is true. The cancellation is checked and
+    // the progress reported here, between the rows
+    private final class LimitedIterator implements Iterator<Row> {
+        private final String sheetName;
+        private final Iterator<Row> iterator;
+        private final BooleanSupplier stop;
+        private final int limit;
+        // rows written before the first one of the iterator (the header)
+        private final int offset;
+        private final long startBytes;
+        private final SheetFooter footer;
+        private int count;
+        boolean stopped;
+
+        LimitedIterator(String sheetName, Iterator<Row> iterator, int offset, int limit, BooleanSupplier stop, SheetFooter footer) {
+            this.sheetName = sheetName;
+            this.footer = footer;
+            this.iterator = iterator;
+            this.offset = offset;
+            this.limit = limit;
+            this.stop = stop;
+            this.startBytes = bytesWritten();
+        }
+
+        @Override
+        public boolean hasNext() {
+            checkCancellation();
+            if (count > 0 && !stopped && stop.getAsBoolean()) {
+                stopped = true;
+            }
+            return !stopped && count < limit && iterator.hasNext();
+        }
+
+        @Override
+        public Row next() {
+            if (stopped || count >= limit) {
+                throw new NoSuchElementException();
+            }
+            int written = count + offset;
+            if (progressListener != null && written > 0 && written % progressInterval == 0) {
+                progressListener.progress(sheetName, written, bytesWritten() - startBytes);
+            }
+            count++;
+            Row row = iterator.next();
+            if (footer != null) {
+                footer.track(row);
             }
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
+            return row;
         }
     }
 
@@ -299,7 +549,8 @@ public class StreamingWorkbook extends AbstractWorkbook implements Closeable, Au
             throw new IllegalStateException("already ended");
         } else {
             hasEnded = true;
-            writeMetadataDocuments(zos, sheets);
+            // the full calculation on load is not needed if all the formulas have been computed (footer aggregates)
+            writeMetadata(zos, sheets, sheetWriter.formulasToCalculate);
         }
     }
 }
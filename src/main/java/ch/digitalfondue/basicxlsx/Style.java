@@ -16,12 +16,10 @@
 package ch.digitalfondue.basicxlsx;
 
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 import java.math.BigDecimal;
-import java.util.EnumMap;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
 import java.util.function.Function;
 
 import static ch.digitalfondue.basicxlsx.Utils.*;
@@ -50,6 +48,9 @@ public class Style {
     //
     private final BorderDesc borderDesc;
     //
+    private final Function<Style, Boolean> register;
+    private final DerivedStyles derivedStyles;
+    //
 
     Style(String numericFormat, Integer numericFormatIndex, String bgColor, String fgColor, Pattern pattern, Integer rotation,
           LineStyle diagonalLineStyle, String diagonalColor, DiagonalStyle diagonalStyle,
@@ -57,7 +58,9 @@ public class Style {
           VerticalAlignment verticalAlignment,
           HorizontalAlignment horizontalAlignment,
           FontDesc fontDesc,
-          BorderDesc borderDesc) {
+          BorderDesc borderDesc,
+          Function<Style, Boolean> register,
+          DerivedStyles derivedStyles) {
         this.numericFormat = numericFormat;
         this.numericFormatIndex = numericFormatIndex;
         this.bgColor = bgColor;
@@ -75,6 +78,33 @@ public class Style {
         this.fontDesc = fontDesc;
         //
         this.borderDesc = borderDesc;
+        //
+        this.register = register;
+        this.derivedStyles = derivedStyles;
+    }
+
+    /**
+     * <p>Derive a new style from this one: the returned builder is initialized with all the properties of this style.</p>
+     *
+     * <p>The derived styles are cached at the workbook level: deriving the same variation (e.g.
+     * <code>style.derive().bgColor(Color.YELLOW).build()</code>) multiple times will return the same instance.</p>
+     *
+     * @return a style builder
+     * @throws IllegalStateException if the style is defined in an existing file (see {@link WorkbookAppender#existingStyle(int)})
+     */
+    public StyleBuilder derive() {
+        if (register == null) {
+            throw new IllegalStateException("A style defined in an existing file cannot be derived");
+        }
+        return new StyleBuilder(this, register, derivedStyles);
+    }
+
+    /**
+     * A style without properties standing for a style already defined in an existing file: only its id is known, it
+     * cannot be derived.
+     */
+    static Style existing() {
+        return new Style(null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null);
     }
 
     FontDesc getFontDesc() {
@@ -85,19 +115,38 @@ public class Style {
         return rotation;
     }
 
+    String getNumericFormat() {
+        return numericFormat;
+    }
+
+    Integer getNumericFormatIndex() {
+        return numericFormatIndex;
+    }
+
     int register(Function<String, Element> elementBuilder, Element fonts, Element cellXfs, Element numFmts, Element fills, Element borders) {
 
         int fontId = 0;
-        int numFmtId = 164;//default value
+        int numFmtId = 0; // builtin "General", unless the styles define it explicitly (e.g. 164 in our template)
         int fillId = 0;
         int borderId = 0;
 
+        // the ids of the custom formats start at 164, they may be already used when appending to an existing file
+        int maxNumFmtId = 163;
+        NodeList existingNumFmts = numFmts.getElementsByTagNameNS(NS_SPREADSHEETML_2006_MAIN, "numFmt");
+        for (int i = 0; i < existingNumFmts.getLength(); i++) {
+            Element existing = (Element) existingNumFmts.item(i);
+            int id = Integer.parseInt(existing.getAttribute("numFmtId"));
+            maxNumFmtId = Math.max(maxNumFmtId, id);
+            if ("General".equals(existing.getAttribute("formatCode")) && numFmtId == 0) {
+                numFmtId = id;
+            }
+        }
+
         if (numericFormatIndex != null) {
             numFmtId = numericFormatIndex; //builtin formatting
         } else if (numericFormat != null) {
             Element numFmt = elementWithAttr(elementBuilder, "numFmt", "formatCode", numericFormat);
-            int count = numFmts.getElementsByTagNameNS(NS_SPREADSHEETML_2006_MAIN, "numFmt").getLength();
-            numFmtId = 164 + count; //custom formatting
+            numFmtId = maxNumFmtId + 1; //custom formatting
             numFmt.setAttribute("numFmtId", Integer.toString(numFmtId));
             numFmts.appendChild(numFmt);
         }
@@ -277,12 +326,41 @@ public class Style {
         }
     }
 
+    /**
+     * Cache of the derived styles of a workbook, see {@link #derive()}.
+     */
+    static final class DerivedStyles {
+        private final Map<List<Object>, Style> styles = new HashMap<>();
+        private int hits;
+
+        Style get(List<Object> key) {
+            Style style = styles.get(key);
+            if (style != null) {
+                hits++;
+            }
+            return style;
+        }
+
+        void put(List<Object> key, Style style) {
+            styles.put(key, style);
+        }
+
+        /**
+         * @return how many times an already derived style has been returned
+         */
+        int hits() {
+            return hits;
+        }
+    }
+
     /**
      * Style builder. Use it to define a new Style.
      */
     public static class StyleBuilder {
 
+        private final Style base;
         private final Function<Style, Boolean> register;
+        private final DerivedStyles derivedStyles;
         private FontBuilder fontBuilder;
         private String numericFormat;
         private Integer numericFormatIndex;
@@ -306,8 +384,68 @@ public class Style {
         //
 
 
-        StyleBuilder(Function<Style, Boolean> register) {
+        StyleBuilder(Function<Style, Boolean> register, DerivedStyles derivedStyles) {
+            this(null, register, derivedStyles);
+        }
+
+        private StyleBuilder(Style base, Function<Style, Boolean> register, DerivedStyles derivedStyles) {
+            this.base = base;
             this.register = register;
+            this.derivedStyles = derivedStyles;
+            if (base != null) {
+                copyFrom(base);
+            }
+        }
+
+        private void copyFrom(Style style) {
+            this.numericFormat = style.numericFormat;
+            this.numericFormatIndex = style.numericFormatIndex;
+            this.bgColor = style.bgColor;
+            this.fgColor = style.fgColor;
+            this.pattern = style.pattern;
+            this.rotation = style.rotation;
+            this.readingOrder = style.readingOrder;
+            this.diagonalLineStyle = style.diagonalLineStyle;
+            this.diagonalColor = style.diagonalColor;
+            this.diagonalStyle = style.diagonalStyle;
+            this.verticalAlignment = style.verticalAlignment;
+            this.horizontalAlignment = style.horizontalAlignment;
+
+            FontDesc fd = style.fontDesc;
+            if (fd != null) {
+                FontBuilder fb = font();
+                fb.name = fd.name;
+                fb.size = fd.size;
+                fb.color = fd.color;
+                fb.bold = fd.bold;
+                fb.italic = fd.italic;
+                fb.fontUnderlineStyle = fd.fontUnderlineStyle;
+                fb.strikeOut = fd.strikeOut;
+            }
+
+            BorderDesc bd = style.borderDesc;
+            if (bd != null) {
+                BorderBuilder bb = border();
+                bb.color = bd.color;
+                bb.style = bd.style;
+                bb.borderColor.putAll(bd.borderColor);
+                bb.borderStyle.putAll(bd.borderStyle);
+            }
+        }
+
+        // key used for caching the derived styles: the base style identity + all the builder properties
+        private List<Object> derivationKey() {
+            List<Object> key = new ArrayList<>(Arrays.asList(base, numericFormat, numericFormatIndex, bgColor, fgColor, pattern, rotation,
+                    readingOrder, diagonalLineStyle, diagonalColor, diagonalStyle, verticalAlignment, horizontalAlignment));
+            if (fontBuilder != null) {
+                key.addAll(Arrays.asList(FontBuilder.class, fontBuilder.name, fontBuilder.size, fontBuilder.color, fontBuilder.bold,
+                        fontBuilder.italic, fontBuilder.fontUnderlineStyle, fontBuilder.strikeOut));
+            }
+            if (borderBuilder != null) {
+                key.addAll(Arrays.asList(BorderBuilder.class, borderBuilder.color, borderBuilder.style,
+                        new EnumMap<>(borderBuilder.borderColor), new EnumMap<>(borderBuilder.borderStyle)));
+            }
+            return key;
         }
 
         /**
@@ -513,11 +651,25 @@ public class Style {
 
 
         /**
-         * Generate the style.
+         * Generate the style. If this builder has been obtained from {@link Style#derive()}, an already derived
+         * style with the same properties will be returned instead of creating a new one.
          *
          * @return
          */
         public Style build() {
+            if (base == null) {
+                return buildAndRegister();
+            }
+            List<Object> key = derivationKey();
+            Style derived = derivedStyles.get(key);
+            if (derived == null) {
+                derived = buildAndRegister();
+                derivedStyles.put(key, derived);
+            }
+            return derived;
+        }
+
+        private Style buildAndRegister() {
             FontDesc fd = fontBuilder != null ? new FontDesc(fontBuilder.name, fontBuilder.size, fontBuilder.color, fontBuilder.bold,
                     fontBuilder.italic, fontBuilder.fontUnderlineStyle, fontBuilder.strikeOut) : null;
 
@@ -525,7 +677,7 @@ public class Style {
 
             Style s = new Style(numericFormat, numericFormatIndex, bgColor, fgColor, pattern, rotation,
                     diagonalLineStyle, diagonalColor, diagonalStyle,
-                    readingOrder, verticalAlignment, horizontalAlignment, fd, bd);
+                    readingOrder, verticalAlignment, horizontalAlignment, fd, bd, register, derivedStyles);
             register.apply(s);
             return s;
         }
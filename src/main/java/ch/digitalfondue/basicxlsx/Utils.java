@@ -32,6 +32,7 @@ import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.function.Function;
 
@@ -236,12 +237,21 @@ class Utils {
     }
 
     static Document toDocument(String resource) {
+        return toDocument(new InputSource(new StringReader(xmlTemplates.get(resource))));
+    }
+
+    static Document toDocument(InputStream inputStream) {
+        return toDocument(new InputSource(inputStream));
+    }
+
+    private static Document toDocument(InputSource is) {
         try {
-            InputSource is = new InputSource(new StringReader(xmlTemplates.get(resource)));
             DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
             dbFactory.setNamespaceAware(true);
             dbFactory.setIgnoringComments(true);
             dbFactory.setExpandEntityReferences(false);
+            // the parts of a xlsx never contain a doctype, refuse them as the parsed file may come from an untrusted source
+            dbFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
             DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
             return dBuilder.parse(is);
         } catch (ParserConfigurationException | IOException | SAXException e) {
@@ -273,6 +283,28 @@ class Utils {
         }
     }
 
+    /**
+     * Resolve the target of a relationship to the name of the zip entry.
+     *
+     * @param base the directory of the source part (e.g. "xl/"), empty for the package relationships
+     * @param target absolute (starting with "/") or relative target
+     * @return
+     */
+    static String resolvePartName(String base, String target) {
+        if (target.startsWith("/")) {
+            return target.substring(1);
+        }
+        Deque<String> parts = new ArrayDeque<>();
+        for (String part : (base + target).split("/")) {
+            if ("..".equals(part)) {
+                parts.pollLast();
+            } else if (!part.isEmpty() && !".".equals(part)) {
+                parts.addLast(part);
+            }
+        }
+        return String.join("/", parts);
+    }
+
     //format from the row/column coordinate to the excel one (e.g. B26 or AA24)
     //based from the code of https://github.com/mk-j/PHP_XLSXWriter/blob/master/xlsxwriter.class.php#L720
     static String fromRowColumnToExcelCoordinates(int row, int column) {
@@ -320,6 +352,28 @@ class Utils {
         return getExcelDate(d);
     }
 
+    /**
+     * Convert an excel date serial to a LocalDateTime, rounded to the millisecond.
+     *
+     * @param serial
+     * @param date1904 true if the workbook use the 1904 date system
+     * @return
+     */
+    static LocalDateTime fromExcelDate(double serial, boolean date1904) {
+        long wholeDays = (long) Math.floor(serial);
+        long millis = Math.round((serial - wholeDays) * DAY_MILLISECONDS);
+        LocalDate start;
+        if (date1904) {
+            start = LocalDate.of(1904, 1, 1);
+        } else if (wholeDays < 61) {
+            // the nonexistent 1900-02-29 (serial 60) is mapped to 1900-03-01
+            start = LocalDate.of(1899, 12, 31);
+        } else {
+            start = LocalDate.of(1899, 12, 30);
+        }
+        return start.plusDays(wholeDays).atStartOfDay().plus(millis, ChronoUnit.MILLIS);
+    }
+
     private static Calendar getLocaleCalendar() {
         return Calendar.getInstance(TimeZone.getTimeZone(ZoneId.systemDefault()), Locale.ROOT);
     }
@@ -409,4 +463,12 @@ class Utils {
         }
         return res;
     }
+
+    // name of the nth sheet sharing the same base name: "name (n)", the base name is truncated for respecting the
+    // 31 characters limit
+    static String numberedWorksheetName(String name, int n) {
+        String base = convertToExcelCompatibleWorksheetName(name);
+        String suffix = " (" + n + ")";
+        return base.substring(0, Math.min(base.length(), 31 - suffix.length())) + suffix;
+    }
 }
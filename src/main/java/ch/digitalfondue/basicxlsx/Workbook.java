@@ -18,11 +18,13 @@ package ch.digitalfondue.basicxlsx;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.Function;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 /**
@@ -43,6 +45,15 @@ public class Workbook extends AbstractWorkbook {
         return sheets.computeIfAbsent(name, sheetName -> new Sheet());
     }
 
+    /**
+     * Set the listener receiving the metrics of the written sheets, null for removing it.
+     *
+     * @param metricsListener
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
     /**
      * Write the current worksheet to the output stream.
      *
@@ -50,20 +61,45 @@ public class Workbook extends AbstractWorkbook {
      * @throws IOException
      */
     public void write(OutputStream os) throws IOException {
+        Object writeEvent = JfrEvents.beginWorkbookWrite("Workbook");
         try (ZipOutputStream zos = new ZipOutputStream(os, StandardCharsets.UTF_8)) {
 
             List<String> sheetNameOrder = new ArrayList<>(sheets.keySet());
 
-            writeMetadataDocuments(zos, sheetNameOrder);
-            commitAndWriteStyleMetadata(zos, styles, styleToIdMapping);
+            writeMetadata(zos, sheetNameOrder);
+            writeStyles(zos);
 
             for (int i = 0; i < sheets.size(); i++) {
-                addFileWithDocument(zos, "xl/worksheets/sheet" + (i + 1) + ".xml", buildSheet(sheets.get(sheetNameOrder.get(i)), this::styleIdSupplier));
+                String sheetName = sheetNameOrder.get(i);
+                Sheet sheet = sheets.get(sheetName);
+                Object event = JfrEvents.beginSheetWrite();
+                SheetMetricsRecorder recorder = SheetMetricsRecorder.of(metricsListener, sheetName);
+                Document doc = buildSheet(sheet, this::styleIdSupplier, recorder);
+                ZipEntry entry = writeSheet(zos, "xl/worksheets/sheet" + (i + 1) + ".xml", doc, recorder);
+                JfrEvents.endSheetWrite(event, sheetName, sheet.cells.size(), entry.getSize(), entry.getCompressedSize());
             }
         }
+        JfrEvents.endWorkbookWrite(writeEvent, sheets.size());
     }
 
-    private static Document buildSheet(Sheet sheet, Function<Cell, Integer> styleIdSupplier) {
+    private static ZipEntry writeSheet(ZipOutputStream zos, String fileName, Document doc, SheetMetricsRecorder recorder) throws IOException {
+        ZipEntry entry = new ZipEntry(fileName);
+        zos.putNextEntry(entry);
+        if (recorder == null) {
+            Utils.outputDocument(doc, zos);
+            zos.closeEntry();
+        } else {
+            recorder.startSection();
+            try (OutputStream os = new BufferedOutputStream(recorder.wrap(zos), 64 * 1024)) {
+                Utils.outputDocument(doc, os);
+            }
+            recorder.endSection();
+            recorder.closeEntry(zos, entry);
+        }
+        return entry;
+    }
+
+    private static Document buildSheet(Sheet sheet, Function<Cell, Integer> styleIdSupplier, SheetMetricsRecorder recorder) {
         Document doc = Utils.toDocument("sheet_template.xml");
 
         Function<String, Element> elementBuilder = Utils.toElementBuilder(doc);
@@ -87,9 +123,10 @@ public class Workbook extends AbstractWorkbook {
             col.setAttribute("width", "8.43"); //<- default value...
             col.setAttribute("bestFit", "true");
 
-            if (sheet.columnWidth.containsKey(i)) {
+            Double width = sheet.getColumnWidth(i);
+            if (width != null) {
                 col.setAttribute("customWidth", "true");
-                col.setAttribute("width", Double.toString(sheet.columnWidth.get(i)));
+                col.setAttribute("width", Double.toString(width));
             }
 
             cols.appendChild(col);
@@ -97,9 +134,13 @@ public class Workbook extends AbstractWorkbook {
         //
 
         Element sheetData = getElement(doc, "sheetData");
+        SharedFormulas sharedFormulas = SharedFormulas.of(sheet);
 
         //row
         for (Map.Entry<Integer, SortedMap<Integer, Cell>> rowCells : sheet.cells.entrySet()) {
+            if (recorder != null) {
+                recorder.startRow();
+            }
             Element row = elementBuilder.apply("row");
 
             int rowIndex = rowCells.getKey();
@@ -115,9 +156,12 @@ public class Workbook extends AbstractWorkbook {
             for (Map.Entry<Integer, Cell> colAndCell : rowCells.getValue().entrySet()) {
                 Cell cell = colAndCell.getValue();
                 int styleId = styleIdSupplier.apply(cell);
-                row.appendChild(cell.toElement(elementBuilder, rowIndex, colAndCell.getKey(), styleId));
+                row.appendChild(sharedFormulas.toElement(cell, elementBuilder, rowIndex, colAndCell.getKey(), styleId));
             }
             sheetData.appendChild(row);
+            if (recorder != null) {
+                recorder.endRow(rowCells.getValue().size());
+            }
         }
         return doc;
     }
@@ -0,0 +1,590 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import ch.digitalfondue.basicxlsx.StreamingWorkbook.Row;
+import ch.digitalfondue.basicxlsx.StreamingWorkbook.SheetOptions;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * <p>Add (or replace) sheets in an existing xlsx file, writing the result in a new file.</p>
+ *
+ * <p>The rows are streamed like with {@link StreamingWorkbook}. The entries of the existing file that are not modified
+ * (the other sheets, shared strings, images, ...) are copied as they are, without being decompressed and recompressed:
+ * the cost of appending a sheet does not depend on the size of the existing content.</p>
+ *
+ * <p>A sheet with the same name as an existing one replaces it (the relationships of the replaced sheet, e.g. drawings
+ * or comments, are dropped). As the cached formula values may be stale, the workbook is marked as "recalculate on load"
+ * and the calculation chain, if any, is removed.</p>
+ *
+ * <p>It can also be used for filling a template designed in Excel: {@link #fillSheet(String, Stream)} append the rows
+ * after the existing content of a sheet, keeping its layout (columns, header, merged cells, charts referencing it, ...),
+ * and {@link #existingStyle(int)} / {@link #existingStyleAt(String, int, int)} reuse the styles of the template.</p>
+ *
+ * <p>Like {@link StreamingWorkbook}, the styles must be defined before writing the first sheet and the instance
+ * <em>must</em> be closed.</p>
+ *
+ * <p>As their size is unknown when they are started, the written sheets are Zip64 entries and can be larger than 4GB.
+ * The xlsx readers support them, {@link java.util.zip.ZipInputStream} before java 21 does not.</p>
+ *
+ * <pre>
+ * try (OutputStream os = Files.newOutputStream(target); WorkbookAppender appender = WorkbookAppender.open(existing, os)) {
+ *     appender.withSheet("Summary", rows);
+ * }
+ * </pre>
+ */
+public class WorkbookAppender extends AbstractWorkbook implements Closeable, AutoCloseable {
+
+    private static final String NS_RELATIONSHIPS = "http://schemas.openxmlformats.org/package/2006/relationships";
+    private static final String NS_CONTENT_TYPES = "http://schemas.openxmlformats.org/package/2006/content-types";
+    private static final String NS_OFFICE_RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String REL_OFFICE_DOCUMENT = NS_OFFICE_RELATIONSHIPS + "/officeDocument";
+    private static final String REL_WORKSHEET = NS_OFFICE_RELATIONSHIPS + "/worksheet";
+    private static final String REL_STYLES = NS_OFFICE_RELATIONSHIPS + "/styles";
+    private static final String REL_CALC_CHAIN = NS_OFFICE_RELATIONSHIPS + "/calcChain";
+    private static final String CONTENT_TYPE_WORKSHEET = "application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml";
+    private static final String CONTENT_TYPE_STYLES = "application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml";
+
+    // order of the children of the workbook element, as defined by the schema
+    private static final List<String> WORKBOOK_CHILDREN = List.of("fileVersion", "fileSharing", "workbookPr", "workbookProtection",
+            "bookViews", "sheets", "functionGroups", "externalReferences", "definedNames", "calcPr", "oleSize",
+            "customWorkbookViews", "pivotCaches", "smartTagPr", "smartTagTypes", "webPublishing", "fileRecoveryPr",
+            "webPublishObjects", "extLst");
+
+    private static final Pattern ROW = Pattern.compile("<row\\b[^>]*?(?:\\br=\"(\\d+)\"[^>]*)?>");
+
+    private final MappedZipFile source;
+    private final ZipWriter zip;
+    private final SheetWriter sheetWriter = new SheetWriter(this::styleIdSupplier);
+
+    private final String workbookEntry;
+    private final String workbookRelsEntry;
+    private final String base;
+    private final Document contentTypes;
+    private final Document workbook;
+    private final Document workbookRels;
+    private String stylesEntry;
+    private Document stylesDocument;
+    private final Map<Integer, Style> existingStyles = new HashMap<>();
+
+    // sheet name (upper case) -> zip entry of the existing sheets
+    private final Map<String, String> existingSheets = new HashMap<>();
+    private final Set<String> writtenEntries = new HashSet<>();
+    private final Set<String> removedEntries = new HashSet<>();
+    private boolean hasEnded;
+
+    private WorkbookAppender(MappedZipFile source, OutputStream os) throws IOException {
+        this.source = source;
+
+        Document packageRels = document("_rels/.rels");
+        this.workbookEntry = findTarget(packageRels, "", REL_OFFICE_DOCUMENT);
+        if (workbookEntry == null) {
+            throw new IllegalStateException("Not a xlsx file: missing the workbook part");
+        }
+        int separator = workbookEntry.lastIndexOf('/');
+        this.base = workbookEntry.substring(0, separator + 1);
+        this.workbookRelsEntry = base + "_rels/" + workbookEntry.substring(separator + 1) + ".rels";
+
+        this.contentTypes = document("[Content_Types].xml");
+        this.workbook = document(workbookEntry);
+        this.workbookRels = document(workbookRelsEntry);
+        this.stylesEntry = findTarget(workbookRels, base, REL_STYLES);
+        this.stylesDocument = stylesEntry == null ? null : document(stylesEntry);
+
+        Map<String, String> targetsById = new HashMap<>();
+        for (Element rel : elements(workbookRels.getDocumentElement(), NS_RELATIONSHIPS, "Relationship")) {
+            targetsById.put(rel.getAttribute("Id"), Utils.resolvePartName(base, rel.getAttribute("Target")));
+        }
+        for (Element sheet : elements(getElement(workbook, "sheets"), Utils.NS_SPREADSHEETML_2006_MAIN, "sheet")) {
+            String target = targetsById.get(sheet.getAttributeNS(NS_OFFICE_RELATIONSHIPS, "id"));
+            if (target != null) {
+                existingSheets.put(sheet.getAttribute("name").toUpperCase(Locale.ROOT), target);
+            }
+        }
+
+        this.zip = new ZipWriter(os);
+    }
+
+    /**
+     * Open an existing xlsx file. The result will be written in the given output stream, the existing file is not
+     * modified.
+     *
+     * @param existing the xlsx file
+     * @param os where the resulting xlsx file is written
+     * @return
+     * @throws IOException
+     */
+    public static WorkbookAppender open(Path existing, OutputStream os) throws IOException {
+        MappedZipFile source = new MappedZipFile(existing);
+        try {
+            return new WorkbookAppender(source, os);
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            throw e;
+        }
+    }
+
+    private Document document(String entry) throws IOException {
+        try (InputStream is = source.open(entry)) {
+            if (is == null) {
+                throw new IllegalStateException("Missing part " + entry);
+            }
+            return Utils.toDocument(is);
+        }
+    }
+
+    private static List<Element> elements(Element parent, String ns, String name) {
+        NodeList list = parent.getElementsByTagNameNS(ns, name);
+        List<Element> res = new ArrayList<>(list.getLength());
+        for (int i = 0; i < list.getLength(); i++) {
+            res.add((Element) list.item(i));
+        }
+        return res;
+    }
+
+    private static String findTarget(Document rels, String base, String type) {
+        for (Element rel : elements(rels.getDocumentElement(), NS_RELATIONSHIPS, "Relationship")) {
+            if (type.equals(rel.getAttribute("Type")) && !"External".equals(rel.getAttribute("TargetMode"))) {
+                return Utils.resolvePartName(base, rel.getAttribute("Target"));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write a sheet. If the workbook already contains a sheet with the same name, it's replaced.
+     *
+     * @param name
+     * @param rows
+     * @throws IOException
+     */
+    public void withSheet(String name, Stream<Row> rows) throws IOException {
+        withSheet(name, rows, null);
+    }
+
+    /**
+     * Write a sheet (with some options, {@link SheetOptions#rollover(int)} and the footer are not supported). If the
+     * workbook already contains a sheet with the same name, it's replaced.
+     *
+     * @param name
+     * @param rows
+     * @param options
+     * @throws IOException
+     */
+    public void withSheet(String name, Stream<Row> rows, SheetOptions options) throws IOException {
+        if (options != null && options.maxRows > 0) {
+            throw new IllegalArgumentException("The rollover is not supported for appended sheets");
+        }
+        if (options != null && (!options.aggregates.isEmpty() || !options.footerCells.isEmpty())) {
+            throw new IllegalArgumentException("The footer is not supported for appended sheets");
+        }
+        beforeSheet();
+
+        String sheetName = Utils.convertToExcelCompatibleWorksheetName(name);
+        String entry = existingSheets.get(sheetName.toUpperCase(Locale.ROOT));
+        if (entry == null) {
+            entry = addSheet(sheetName);
+        } else if (writtenEntries.contains(entry)) {
+            throw new IllegalArgumentException("The sheet " + sheetName + " has already been written");
+        } else {
+            replaceSheet(entry);
+        }
+        writtenEntries.add(entry);
+
+        // the size of the streamed rows is unknown, they may go over 4GB
+        try (OutputStream os = new BufferedOutputStream(zip.putNextEntry(entry, true), 64 * 1024)) {
+            sheetWriter.write(os, rows, options);
+        }
+    }
+
+    /**
+     * Append the rows after the existing rows of a sheet. Everything else in the sheet is kept as is (the dimension
+     * element excepted, as it would be stale). Note that the ranges referencing the sheet (tables, charts, defined
+     * names) are not extended: in the template, they should cover the expected rows or whole columns.
+     *
+     * @param name the name of an existing sheet
+     * @param rows
+     * @throws IOException
+     */
+    public void fillSheet(String name, Stream<Row> rows) throws IOException {
+        beforeSheet();
+
+        String sheetName = Utils.convertToExcelCompatibleWorksheetName(name);
+        String entry = existingSheets.get(sheetName.toUpperCase(Locale.ROOT));
+        if (entry == null) {
+            throw new IllegalArgumentException("The workbook does not contain the sheet " + sheetName);
+        } else if (writtenEntries.contains(entry)) {
+            throw new IllegalArgumentException("The sheet " + sheetName + " has already been written");
+        }
+
+        writtenEntries.add(entry);
+        // the template sheet is streamed: only the current tag is held in memory
+        try (InputStream is = source.open(entry);
+             OutputStream os = new BufferedOutputStream(zip.putNextEntry(entry, true), 64 * 1024)) {
+            XmlTagCopier copier = new XmlTagCopier(is);
+            while (!copier.isTag("sheetData")) {
+                if (!copier.copyToNextTag(os)) {
+                    throw new IllegalStateException("Unsupported sheet " + sheetName + ": missing the sheetData element");
+                }
+                // the dimension would be stale
+                if (!copier.isTag("sheetData") && !copier.isTag("dimension")) {
+                    copier.writeTag(os);
+                }
+            }
+            write(os, "<sheetData>");
+            int lastRow = 0;
+            if (!copier.isEmptyElement()) {
+                while (true) {
+                    if (!copier.copyToNextTag(os)) {
+                        throw new IllegalStateException("Unsupported sheet " + sheetName + ": malformed sheetData element");
+                    }
+                    if (copier.isTag("/sheetData")) {
+                        break;
+                    }
+                    if (copier.isTag("row")) {
+                        Matcher row = ROW.matcher(copier.tag());
+                        lastRow = row.matches() && row.group(1) != null ? Math.max(lastRow, Integer.parseInt(row.group(1))) : lastRow + 1;
+                    }
+                    copier.writeTag(os);
+                }
+            }
+            sheetWriter.writeRows(os, rows, lastRow, -1);
+            write(os, "</sheetData>");
+            copier.copyRemaining(os);
+        }
+    }
+
+    private static void write(OutputStream os, String s) throws IOException {
+        os.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Use a style already defined in the existing file.
+     *
+     * @param styleId the index in the cellXfs element of the styles (the value of the "s" attribute of the cells)
+     * @return a style that can be used with {@link Cell#withStyle(Style)}, it cannot be derived ({@link Style#derive()}
+     * throws an {@link IllegalStateException}).
+     */
+    public Style existingStyle(int styleId) {
+        Element cellXfs = stylesDocument == null ? null : getElement(stylesDocument, "cellXfs");
+        int count = cellXfs == null ? 1 : elements(cellXfs, Utils.NS_SPREADSHEETML_2006_MAIN, "xf").size();
+        // the styles defined with defineStyle are appended to the existing ones
+        if (styleId < 0 || styleId >= count - (hasRegisteredStyles ? styles.size() : 0)) {
+            throw new IllegalArgumentException("The style " + styleId + " is not defined");
+        }
+        return existingStyles.computeIfAbsent(styleId, id -> {
+            Style style = Style.existing();
+            styleToIdMapping.put(style, id);
+            return style;
+        });
+    }
+
+    /**
+     * Use the style of a cell of an existing sheet. For example the style of the first data row designed in a template.
+     *
+     * @param sheetName
+     * @param row 0 based
+     * @param column 0 based
+     * @return the style of the cell, the default style if the cell is not defined
+     * @throws IOException
+     */
+    public Style existingStyleAt(String sheetName, int row, int column) throws IOException {
+        String entry = existingSheets.get(Utils.convertToExcelCompatibleWorksheetName(sheetName).toUpperCase(Locale.ROOT));
+        if (entry == null) {
+            throw new IllegalArgumentException("The workbook does not contain the sheet " + sheetName);
+        }
+        String reference = Utils.fromRowColumnToExcelCoordinates(row, column);
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try (InputStream is = source.open(entry)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(is);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && "c".equals(reader.getLocalName())
+                            && reference.equals(reader.getAttributeValue(null, "r"))) {
+                        String style = reader.getAttributeValue(null, "s");
+                        return existingStyle(style == null ? 0 : Integer.parseInt(style));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+        return existingStyle(0);
+    }
+
+    private void beforeSheet() {
+        if (hasEnded) {
+            throw new IllegalStateException("Already ended");
+        }
+        if (!hasRegisteredStyles) {
+            commitStyles();
+            hasRegisteredStyles = true;
+        }
+    }
+
+    private void commitStyles() {
+        if (styles.isEmpty()) {
+            return;
+        }
+        if (stylesDocument == null) {
+            stylesEntry = base + "styles.xml";
+            stylesDocument = Utils.toDocument("styles_template.xml");
+            addRelationship(REL_STYLES, "/" + stylesEntry);
+            addOverride("/" + stylesEntry, CONTENT_TYPE_STYLES);
+        }
+        registerStyles(stylesDocument, styles, styleToIdMapping);
+    }
+
+    private String addSheet(String sheetName) {
+        String entry;
+        int index = existingSheets.size() + 1;
+        do {
+            entry = base + "worksheets/sheet" + index++ + ".xml";
+        } while (source.contains(entry) || writtenEntries.contains(entry));
+
+        String relId = addRelationship(REL_WORKSHEET, "/" + entry);
+
+        Element sheets = getElement(workbook, "sheets");
+        int sheetId = 0;
+        for (Element sheet : elements(sheets, Utils.NS_SPREADSHEETML_2006_MAIN, "sheet")) {
+            sheetId = Math.max(sheetId, Integer.parseInt(sheet.getAttribute("sheetId")));
+        }
+        Element sheet = workbook.createElementNS(Utils.NS_SPREADSHEETML_2006_MAIN, "sheet");
+        sheet.setAttribute("name", sheetName);
+        sheet.setAttribute("sheetId", Integer.toString(sheetId + 1));
+        sheet.setAttributeNS(NS_OFFICE_RELATIONSHIPS, "r:id", relId);
+        sheets.appendChild(sheet);
+
+        addOverride("/" + entry, CONTENT_TYPE_WORKSHEET);
+        existingSheets.put(sheetName.toUpperCase(Locale.ROOT), entry);
+        return entry;
+    }
+
+    private void replaceSheet(String entry) {
+        int separator = entry.lastIndexOf('/');
+        removedEntries.add(entry.substring(0, separator + 1) + "_rels/" + entry.substring(separator + 1) + ".rels");
+        // the cached results and the calculation chain may reference the replaced cells
+        String calcChain = findTarget(workbookRels, base, REL_CALC_CHAIN);
+        if (calcChain != null) {
+            removedEntries.add(calcChain);
+            for (Element rel : elements(workbookRels.getDocumentElement(), NS_RELATIONSHIPS, "Relationship")) {
+                if (REL_CALC_CHAIN.equals(rel.getAttribute("Type"))) {
+                    rel.getParentNode().removeChild(rel);
+                }
+            }
+            for (Element override : elements(contentTypes.getDocumentElement(), NS_CONTENT_TYPES, "Override")) {
+                if (override.getAttribute("PartName").equals("/" + calcChain)) {
+                    override.getParentNode().removeChild(override);
+                }
+            }
+        }
+    }
+
+    private String addRelationship(String type, String target) {
+        Element root = workbookRels.getDocumentElement();
+        Set<String> ids = new HashSet<>();
+        for (Element rel : elements(root, NS_RELATIONSHIPS, "Relationship")) {
+            ids.add(rel.getAttribute("Id"));
+        }
+        int index = ids.size() + 1;
+        while (ids.contains("rId" + index)) {
+            index++;
+        }
+        Element rel = workbookRels.createElementNS(NS_RELATIONSHIPS, "Relationship");
+        rel.setAttribute("Id", "rId" + index);
+        rel.setAttribute("Type", type);
+        rel.setAttribute("Target", target);
+        root.appendChild(rel);
+        return "rId" + index;
+    }
+
+    private void addOverride(String partName, String contentType) {
+        Element override = contentTypes.createElementNS(NS_CONTENT_TYPES, "Override");
+        override.setAttribute("PartName", partName);
+        override.setAttribute("ContentType", contentType);
+        contentTypes.getDocumentElement().appendChild(override);
+    }
+
+    private void markFullCalcOnLoad() {
+        Element calcPr = getOrCreateElement(workbook, "calcPr", WORKBOOK_CHILDREN);
+        calcPr.setAttribute("fullCalcOnLoad", "1");
+    }
+
+    /**
+     * Write the modified metadata, copy the untouched entries and close the existing file and the output stream.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!hasEnded) {
+                end();
+            }
+        } finally {
+            try {
+                zip.close();
+            } finally {
+                source.close();
+            }
+        }
+    }
+
+    private void end() throws IOException {
+        hasEnded = true;
+        markFullCalcOnLoad();
+
+        writeDocument("[Content_Types].xml", contentTypes);
+        writeDocument(workbookEntry, workbook);
+        writeDocument(workbookRelsEntry, workbookRels);
+        if (!styles.isEmpty()) {
+            writeDocument(stylesEntry, stylesDocument);
+        }
+
+        for (MappedZipFile.Entry entry : source.entries()) {
+            if (!writtenEntries.contains(entry.name) && !removedEntries.contains(entry.name)) {
+                zip.copy(entry, source.rawData(entry));
+            }
+        }
+        zip.finish();
+    }
+
+    private void writeDocument(String entry, Document doc) throws IOException {
+        writtenEntries.add(entry);
+        try (OutputStream os = new BufferedOutputStream(zip.putNextEntry(entry))) {
+            Utils.outputDocument(doc, os);
+        }
+    }
+
+    /**
+     * Copy a xml document tag by tag, the text between the tags is copied as is. Like the rest of the appender, it
+     * expects a sheet as written by the xlsx writers: no comments or CDATA sections containing a '&gt;'.
+     */
+    private static final class XmlTagCopier {
+
+        private final InputStream is;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int position;
+        private int limit;
+        private byte[] tag = new byte[256];
+        private int tagLength;
+
+        XmlTagCopier(InputStream is) {
+            this.is = is;
+        }
+
+        private boolean fill() throws IOException {
+            position = 0;
+            limit = Math.max(0, is.read(buffer));
+            return limit > 0;
+        }
+
+        /**
+         * Copy the text up to the next tag and read the tag (without writing it).
+         *
+         * @return false if the end of the document has been reached before a complete tag
+         */
+        boolean copyToNextTag(OutputStream os) throws IOException {
+            tagLength = 0;
+            while (true) {
+                if (position == limit && !fill()) {
+                    return false;
+                }
+                int start = position;
+                while (position < limit && buffer[position] != '<') {
+                    position++;
+                }
+                os.write(buffer, start, position - start);
+                if (position < limit) {
+                    break;
+                }
+            }
+            while (true) {
+                if (position == limit && !fill()) {
+                    return false;
+                }
+                byte b = buffer[position++];
+                if (tagLength == tag.length) {
+                    tag = Arrays.copyOf(tag, tag.length * 2);
+                }
+                tag[tagLength++] = b;
+                if (b == '>') {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @param name the element name, prefixed by '/' for an end tag
+         */
+        boolean isTag(String name) {
+            int length = name.length();
+            if (tagLength < length + 2 || tag[0] != '<') {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (tag[i + 1] != name.charAt(i)) {
+                    return false;
+                }
+            }
+            byte next = tag[length + 1];
+            return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\r' || next == '\n';
+        }
+
+        boolean isEmptyElement() {
+            return tagLength > 1 && tag[tagLength - 2] == '/';
+        }
+
+        /**
+         * The tag as a string, only the ascii characters are meaningful.
+         */
+        String tag() {
+            return new String(tag, 0, tagLength, StandardCharsets.ISO_8859_1);
+        }
+
+        void writeTag(OutputStream os) throws IOException {
+            os.write(tag, 0, tagLength);
+        }
+
+        void copyRemaining(OutputStream os) throws IOException {
+            os.write(buffer, position, limit - position);
+            position = limit;
+            is.transferTo(os);
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.stream.*;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * <p>Merge several xlsx files (e.g. produced in parallel by {@link StreamingWorkbook}) in a single workbook, the sheets
+ * are added in the order of the files.</p>
+ *
+ * <p>The sheets are copied without being decompressed and recompressed. If the style tables of the files are not
+ * identical, they are merged and only the sheets whose style ids change are re-encoded.</p>
+ *
+ * <p>Only self contained sheets are supported: the files must not use a shared strings table (basicxlsx always
+ * write inline strings) and the sheets must not have relationships (drawings, comments, ...). The sheets with the same
+ * name are renamed "name (2)", "name (3)", ...</p>
+ */
+public final class WorkbookMerger {
+
+    private static final String NS_RELATIONSHIPS = "http://schemas.openxmlformats.org/package/2006/relationships";
+    private static final String NS_OFFICE_RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String REL_OFFICE_DOCUMENT = NS_OFFICE_RELATIONSHIPS + "/officeDocument";
+    private static final String REL_STYLES = NS_OFFICE_RELATIONSHIPS + "/styles";
+    private static final String REL_SHARED_STRINGS = NS_OFFICE_RELATIONSHIPS + "/sharedStrings";
+
+    private WorkbookMerger() {
+    }
+
+    /**
+     * Merge the given xlsx files.
+     *
+     * @param files the files to merge
+     * @param os where the merged xlsx file is written, it's closed at the end
+     * @throws IOException
+     * @throws IllegalArgumentException if a file contains a shared strings table, sheets with relationships or use
+     *                                  the 1904 date system
+     */
+    public static void merge(List<Path> files, OutputStream os) throws IOException {
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No files to merge");
+        }
+        List<Shard> shards = new ArrayList<>(files.size());
+        try {
+            for (Path file : files) {
+                shards.add(new Shard(new MappedZipFile(file), file));
+            }
+            try (ZipWriter zip = new ZipWriter(os)) {
+                merge(shards, zip);
+            }
+        } finally {
+            for (Shard shard : shards) {
+                shard.zip.close();
+            }
+        }
+    }
+
+    private static void merge(List<Shard> shards, ZipWriter zip) throws IOException {
+        // styles: copy the first table if all are identical, else merge them
+        List<int[]> styleMappings = new ArrayList<>(shards.size());
+        Shard first = shards.get(0);
+        boolean identicalStyles = true;
+        for (Shard shard : shards) {
+            identicalStyles &= first.stylesEntry != null && shard.stylesEntry != null && Arrays.equals(first.stylesContent(), shard.stylesContent());
+        }
+        if (identicalStyles) {
+            MappedZipFile.Entry styles = first.zip.entry(first.stylesEntry);
+            zip.copy("xl/styles.xml", styles, first.zip.rawData(styles));
+            for (int i = 0; i < shards.size(); i++) {
+                styleMappings.add(null);
+            }
+        } else {
+            StyleTableMerger merger = new StyleTableMerger(first.stylesEntry == null ? Utils.toDocument("styles_template.xml") : first.stylesDocument());
+            for (Shard shard : shards) {
+                styleMappings.add(merger.merge(shard.stylesEntry == null ? Utils.toDocument("styles_template.xml") : shard.stylesDocument()));
+            }
+            AbstractWorkbook.addFileWithDocument(zip, "xl/styles.xml", merger.doc);
+        }
+
+        // sheets
+        List<String> sheetNames = new ArrayList<>();
+        Set<String> usedNames = new HashSet<>();
+        for (int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.get(i);
+            int[] mapping = styleMappings.get(i);
+            for (Map.Entry<String, String> sheet : shard.sheets.entrySet()) {
+                String name = Utils.convertToExcelCompatibleWorksheetName(sheet.getKey());
+                // the numbered name may itself be used, e.g. by a rolled over sheet "name (2)"
+                String sheetName = name;
+                for (int n = 2; !usedNames.add(sheetName.toUpperCase(Locale.ROOT)); n++) {
+                    sheetName = Utils.numberedWorksheetName(name, n);
+                }
+                sheetNames.add(sheetName);
+
+                String target = "xl/worksheets/sheet" + sheetNames.size() + ".xml";
+                MappedZipFile.Entry entry = shard.zip.entry(sheet.getValue());
+                if (mapping == null) {
+                    zip.copy(target, entry, shard.zip.rawData(entry));
+                } else {
+                    // the remapped ids barely change the size of the sheet
+                    boolean zip64 = entry.uncompressedSize > Integer.MAX_VALUE;
+                    try (InputStream is = shard.zip.open(entry.name); OutputStream out = new BufferedOutputStream(zip.putNextEntry(target, zip64), 64 * 1024)) {
+                        remapStyles(is, out, mapping);
+                    }
+                }
+            }
+        }
+
+        AbstractWorkbook.writeMetadataDocuments(zip, sheetNames);
+        zip.finish();
+    }
+
+    // copy the sheet xml, replacing the style ids of the cells, rows and columns
+    private static void remapStyles(InputStream is, OutputStream os, int[] mapping) throws IOException {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(is);
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        writer.writeStartElement(nullToEmpty(reader.getPrefix()), reader.getLocalName(), nullToEmpty(reader.getNamespaceURI()));
+                        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                            String prefix = reader.getNamespacePrefix(i);
+                            if (prefix == null || prefix.isEmpty()) {
+                                writer.writeDefaultNamespace(reader.getNamespaceURI(i));
+                            } else {
+                                writer.writeNamespace(prefix, reader.getNamespaceURI(i));
+                            }
+                        }
+                        String localName = reader.getLocalName();
+                        String styleAttribute = "col".equals(localName) ? "style" : ("c".equals(localName) || "row".equals(localName) ? "s" : null);
+                        for (int i = 0; i < reader.getAttributeCount(); i++) {
+                            String attributeNs = reader.getAttributeNamespace(i);
+                            String value = reader.getAttributeValue(i);
+                            if (attributeNs == null || attributeNs.isEmpty()) {
+                                if (reader.getAttributeLocalName(i).equals(styleAttribute)) {
+                                    int styleId = Integer.parseInt(value);
+                                    value = Integer.toString(styleId < mapping.length ? mapping[styleId] : 0);
+                                }
+                                writer.writeAttribute(reader.getAttributeLocalName(i), value);
+                            } else {
+                                writer.writeAttribute(nullToEmpty(reader.getAttributePrefix(i)), attributeNs, reader.getAttributeLocalName(i), value);
+                            }
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        writer.writeEndElement();
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        writer.writeCData(reader.getText());
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        writer.writeComment(reader.getText());
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                        break;
+                    case XMLStreamConstants.START_DOCUMENT:
+                        writer.writeStartDocument("UTF-8", "1.0");
+                        break;
+                    default:
+                        break;
+                }
+            }
+            writer.writeEndDocument();
+            writer.flush();
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static List<Element> elements(Element parent, String ns, String name) {
+        List<Element> res = new ArrayList<>();
+        if (parent == null) {
+            return res;
+        }
+        NodeList list = parent.getElementsByTagNameNS(ns, name);
+        for (int i = 0; i < list.getLength(); i++) {
+            res.add((Element) list.item(i));
+        }
+        return res;
+    }
+
+    private static final class Shard {
+        final MappedZipFile zip;
+        final String stylesEntry;
+        // sheet name -> entry, in the workbook order
+        final Map<String, String> sheets = new LinkedHashMap<>();
+        private byte[] stylesContent;
+
+        Shard(MappedZipFile zip, Path file) throws IOException {
+            this.zip = zip;
+            String workbookEntry = null;
+            for (Element rel : elements(document("_rels/.rels").getDocumentElement(), NS_RELATIONSHIPS, "Relationship")) {
+                if (REL_OFFICE_DOCUMENT.equals(rel.getAttribute("Type"))) {
+                    workbookEntry = Utils.resolvePartName("", rel.getAttribute("Target"));
+                }
+            }
+            if (workbookEntry == null) {
+                throw new IllegalArgumentException("Not a xlsx file: " + file);
+            }
+            int separator = workbookEntry.lastIndexOf('/');
+            String base = workbookEntry.substring(0, separator + 1);
+
+            String styles = null;
+            Map<String, String> targetsById = new HashMap<>();
+            for (Element rel : elements(document(base + "_rels/" + workbookEntry.substring(separator + 1) + ".rels").getDocumentElement(), NS_RELATIONSHIPS, "Relationship")) {
+                String target = Utils.resolvePartName(base, rel.getAttribute("Target"));
+                targetsById.put(rel.getAttribute("Id"), target);
+                if (REL_SHARED_STRINGS.equals(rel.getAttribute("Type"))) {
+                    throw new IllegalArgumentException("Unsupported file " + file + ": it contains a shared strings table");
+                } else if (REL_STYLES.equals(rel.getAttribute("Type"))) {
+                    styles = target;
+                }
+            }
+            this.stylesEntry = styles;
+
+            Document workbook = document(workbookEntry);
+            for (Element workbookPr : elements(workbook.getDocumentElement(), Utils.NS_SPREADSHEETML_2006_MAIN, "workbookPr")) {
+                String date1904 = workbookPr.getAttribute("date1904");
+                if ("1".equals(date1904) || "true".equals(date1904)) {
+                    throw new IllegalArgumentException("Unsupported file " + file + ": it uses the 1904 date system");
+                }
+            }
+            for (Element sheet : elements(workbook.getDocumentElement(), Utils.NS_SPREADSHEETML_2006_MAIN, "sheet")) {
+                String target = targetsById.get(sheet.getAttributeNS(NS_OFFICE_RELATIONSHIPS, "id"));
+                if (target == null || !zip.contains(target)) {
+                    throw new IllegalStateException("Missing sheet " + sheet.getAttribute("name") + " in " + file);
+                }
+                int sheetSeparator = target.lastIndexOf('/');
+                if (zip.contains(target.substring(0, sheetSeparator + 1) + "_rels/" + target.substring(sheetSeparator + 1) + ".rels")) {
+                    throw new IllegalArgumentException("Unsupported file " + file + ": the sheet " + sheet.getAttribute("name") + " has relationships");
+                }
+                sheets.put(sheet.getAttribute("name"), target);
+            }
+        }
+
+        private Document document(String entry) throws IOException {
+            try (InputStream is = zip.open(entry)) {
+                if (is == null) {
+                    throw new IllegalStateException("Missing part " + entry);
+                }
+                return Utils.toDocument(is);
+            }
+        }
+
+        byte[] stylesContent() throws IOException {
+            if (stylesContent == null) {
+                try (InputStream is = zip.open(stylesEntry)) {
+                    stylesContent = is.readAllBytes();
+                }
+            }
+            return stylesContent;
+        }
+
+        Document stylesDocument() throws IOException {
+            return document(stylesEntry);
+        }
+    }
+
+    /**
+     * Merge the style tables: the identical fonts, fills, borders, number formats and cell formats are shared.
+     */
+    private static final class StyleTableMerger {
+        final Document doc;
+        private final Transformer transformer = Utils.getTransformer(true);
+        private final Element numFmts;
+        private final Element cellXfs;
+        private final Map<String, Element> containers = new HashMap<>();
+        // canonical xml -> index, by container
+        private final Map<String, Map<String, Integer>> indexes = new HashMap<>();
+        private final Map<String, Integer> sizes = new HashMap<>();
+        private final Map<String, Integer> numFmtIds = new HashMap<>();
+        private int maxNumFmtId = 163;
+
+        StyleTableMerger(Document doc) {
+            this.doc = doc;
+            this.numFmts = AbstractWorkbook.getOrCreateElement(doc, "numFmts", AbstractWorkbook.STYLE_SHEET_CHILDREN);
+            for (Element numFmt : elements(numFmts, Utils.NS_SPREADSHEETML_2006_MAIN, "numFmt")) {
+                int id = Integer.parseInt(numFmt.getAttribute("numFmtId"));
+                maxNumFmtId = Math.max(maxNumFmtId, id);
+                numFmtIds.putIfAbsent(numFmt.getAttribute("formatCode"), id);
+            }
+            for (String name : List.of("fonts", "fills", "borders")) {
+                index(name, name.substring(0, name.length() - 1));
+            }
+            this.cellXfs = index("cellXfs", "xf");
+        }
+
+        private Element index(String containerName, String childName) {
+            Element container = AbstractWorkbook.getOrCreateElement(doc, containerName, AbstractWorkbook.STYLE_SHEET_CHILDREN);
+            Map<String, Integer> index = new HashMap<>();
+            List<Element> children = elements(container, Utils.NS_SPREADSHEETML_2006_MAIN, childName);
+            for (int i = 0; i < children.size(); i++) {
+                index.putIfAbsent(canonical(children.get(i)), i);
+            }
+            containers.put(childName, container);
+            indexes.put(childName, index);
+            sizes.put(childName, children.size());
+            return container;
+        }
+
+        /**
+         * Add the styles of a shard.
+         *
+         * @param shardStyles
+         * @return the mapping of the cell format ids of the shard, null if unchanged
+         */
+        int[] merge(Document shardStyles) {
+            Map<Integer, Integer> numFmtMapping = new HashMap<>();
+            for (Element numFmt : elements(AbstractWorkbook.getElement(shardStyles, "numFmts"), Utils.NS_SPREADSHEETML_2006_MAIN, "numFmt")) {
+                int id = Integer.parseInt(numFmt.getAttribute("numFmtId"));
+                numFmtMapping.put(id, numFmtIds.computeIfAbsent(numFmt.getAttribute("formatCode"), formatCode -> {
+                    int newId = ++maxNumFmtId;
+                    Element copy = (Element) doc.importNode(numFmt, true);
+                    copy.setAttribute("numFmtId", Integer.toString(newId));
+                    numFmts.appendChild(copy);
+                    return newId;
+                }));
+            }
+            int[] fonts = mergeChildren(shardStyles, "fonts", "font");
+            int[] fills = mergeChildren(shardStyles, "fills", "fill");
+            int[] borders = mergeChildren(shardStyles, "borders", "border");
+
+            List<Element> xfs = elements(AbstractWorkbook.getElement(shardStyles, "cellXfs"), Utils.NS_SPREADSHEETML_2006_MAIN, "xf");
+            int[] mapping = new int[xfs.size()];
+            boolean identity = true;
+            for (int i = 0; i < xfs.size(); i++) {
+                Element xf = (Element) doc.importNode(xfs.get(i), true);
+                remapAttribute(xf, "numFmtId", id -> numFmtMapping.getOrDefault(id, id));
+                remapAttribute(xf, "fontId", id -> id < fonts.length ? fonts[id] : 0);
+                remapAttribute(xf, "fillId", id -> id < fills.length ? fills[id] : 0);
+                remapAttribute(xf, "borderId", id -> id < borders.length ? borders[id] : 0);
+                mapping[i] = add("xf", xf);
+                identity &= mapping[i] == i;
+            }
+            adjustCounts();
+            return identity ? null : mapping;
+        }
+
+        private int[] mergeChildren(Document shardStyles, String containerName, String childName) {
+            List<Element> children = elements(AbstractWorkbook.getElement(shardStyles, containerName), Utils.NS_SPREADSHEETML_2006_MAIN, childName);
+            int[] mapping = new int[children.size()];
+            for (int i = 0; i < children.size(); i++) {
+                mapping[i] = add(childName, (Element) doc.importNode(children.get(i), true));
+            }
+            return mapping;
+        }
+
+        private int add(String childName, Element element) {
+            Map<String, Integer> index = indexes.get(childName);
+            return index.computeIfAbsent(canonical(element), key -> {
+                containers.get(childName).appendChild(element);
+                return sizes.merge(childName, 1, Integer::sum) - 1;
+            });
+        }
+
+        private static void remapAttribute(Element element, String attribute, IntUnaryOperator mapping) {
+            if (element.hasAttribute(attribute)) {
+                element.setAttribute(attribute, Integer.toString(mapping.applyAsInt(Integer.parseInt(element.getAttribute(attribute)))));
+            }
+        }
+
+        private void adjustCounts() {
+            numFmts.setAttribute("count", Integer.toString(elements(numFmts, Utils.NS_SPREADSHEETML_2006_MAIN, "numFmt").size()));
+            for (Map.Entry<String, Element> container : containers.entrySet()) {
+                container.getValue().setAttribute("count", Integer.toString(sizes.get(container.getKey())));
+            }
+        }
+
+        private String canonical(Node node) {
+            StringWriter sw = new StringWriter();
+            try {
+                transformer.transform(new DOMSource(node), new StreamResult(sw));
+            } catch (TransformerException e) {
+                throw new IllegalStateException(e);
+            }
+            return sw.toString();
+        }
+    }
+}
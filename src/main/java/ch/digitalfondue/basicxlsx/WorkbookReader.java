@@ -0,0 +1,1048 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * <p>Forward only reader for xlsx files.</p>
+ *
+ * <p>The rows of a sheet are read as a stream, the sheet xml is parsed incrementally with StAX: the memory usage does
+ * not depend on the number of rows. Only the shared strings table and the styles are kept in memory.</p>
+ *
+ * <p>The {@link Row} instance returned by the stream is reused: its content is valid only until the next row is read.</p>
+ *
+ * <p>When opened from a {@link Path}, the file is memory mapped and each sheet is inflated and parsed independently:
+ * the sheets can be read concurrently (see {@link #readSheets(ExecutorService, Function)}) and opening a sheet does not
+ * touch the others. For analytics ingestion, {@link #readColumns(int, int, ColumnType...)} extract typed columns in
+ * primitive arrays.</p>
+ *
+ * <pre>
+ * try (WorkbookReader reader = WorkbookReader.open(path); Stream&lt;WorkbookReader.Row&gt; rows = reader.rows(0)) {
+ *     rows.forEach(row -&gt; System.out.println(row.getString(0) + " " + row.getNumber(1)));
+ * }
+ * </pre>
+ */
+public class WorkbookReader implements Closeable {
+
+    /**
+     * Type of the value of a cell.
+     */
+    public enum CellType {
+        BLANK, STRING, NUMBER, BOOLEAN, DATE, ERROR
+    }
+
+    /**
+     * Type of a column extracted with {@link #readColumns(int, int, ColumnType...)}.
+     */
+    public enum ColumnType {
+        /**
+         * The numeric values, truncated, in a long[].
+         */
+        LONG,
+        /**
+         * The numeric values in a double[].
+         */
+        DOUBLE,
+        /**
+         * The string values, dictionary encoded.
+         */
+        STRING
+    }
+
+    private static final CellType[] CELL_TYPES = CellType.values();
+
+    /**
+     * Access to the parts of the xlsx package.
+     */
+    interface EntrySource extends Closeable {
+
+        /**
+         * Open the given entry.
+         *
+         * @param name
+         * @return the content, null if the entry does not exist
+         * @throws IOException
+         */
+        InputStream open(String name) throws IOException;
+    }
+
+    private static final class ZipFileEntrySource implements EntrySource {
+        private final ZipFile zip;
+
+        ZipFileEntrySource(ZipFile zip) {
+            this.zip = zip;
+        }
+
+        @Override
+        public InputStream open(String name) throws IOException {
+            ZipEntry entry = zip.getEntry(name);
+            return entry == null ? null : zip.getInputStream(entry);
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    private static final String NS_RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String REL_OFFICE_DOCUMENT = "/officeDocument";
+    private static final String REL_SHARED_STRINGS = "/sharedStrings";
+    private static final String REL_STYLES = "/styles";
+
+    private final EntrySource entries;
+    private final Path spooledFile;
+    private final XMLInputFactory xmlInputFactory;
+    private final List<String> sheetNames = new ArrayList<>();
+    private final List<String> sheetEntries = new ArrayList<>();
+    private final String[] sharedStrings;
+    private final boolean[] dateStyles;
+    private final boolean date1904;
+
+    private WorkbookReader(EntrySource entries, Path spooledFile) throws IOException {
+        this.entries = entries;
+        this.spooledFile = spooledFile;
+        this.xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            String workbookEntry = relationships("", "_rels/.rels").getOrDefault(REL_OFFICE_DOCUMENT, List.of("xl/workbook.xml")).get(0);
+            String base = workbookEntry.substring(0, workbookEntry.lastIndexOf('/') + 1);
+            String relsEntry = base + "_rels/" + workbookEntry.substring(base.length()) + ".rels";
+
+            Map<String, String> targetsById = new HashMap<>();
+            Map<String, List<String>> targetsByType = relationships(base, relsEntry, targetsById);
+            this.date1904 = readWorkbook(workbookEntry, targetsById);
+            this.sharedStrings = readSharedStrings(targetsByType.getOrDefault(REL_SHARED_STRINGS, List.of(base + "sharedStrings.xml")).get(0));
+            this.dateStyles = readDateStyles(targetsByType.getOrDefault(REL_STYLES, List.of(base + "styles.xml")).get(0));
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Open a xlsx file. The file is memory mapped.
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static WorkbookReader open(Path path) throws IOException {
+        MappedZipFile zip = new MappedZipFile(path);
+        try {
+            return new WorkbookReader(zip, null);
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a xlsx from a stream. As the parts of a xlsx can be in any order, the content is first copied in a temporary
+     * file that is deleted when the reader is closed. The input stream is not closed.
+     *
+     * @param inputStream
+     * @return
+     * @throws IOException
+     */
+    public static WorkbookReader open(InputStream inputStream) throws IOException {
+        Path tmp = Files.createTempFile("basicxlsx", ".xlsx");
+        try {
+            Files.copy(inputStream, tmp, StandardCopyOption.REPLACE_EXISTING);
+            // not mapped: a mapped file cannot be deleted on some platforms until the mapping is garbage collected
+            ZipFile zip = new ZipFile(tmp.toFile());
+            try {
+                return new WorkbookReader(new ZipFileEntrySource(zip), tmp);
+            } catch (IOException | RuntimeException e) {
+                zip.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    /**
+     * The names of the sheets, in the workbook order.
+     *
+     * @return
+     */
+    public List<String> sheetNames() {
+        return Collections.unmodifiableList(sheetNames);
+    }
+
+    /**
+     * Stream the rows of the given sheet. The rows without cells that are not present in the file are skipped: use
+     * {@link Row#getRowIndex()}. The returned stream should be closed if not fully consumed.
+     *
+     * @param sheetName
+     * @return
+     */
+    public Stream<Row> rows(String sheetName) {
+        int index = sheetNames.indexOf(sheetName);
+        if (index < 0) {
+            throw new IllegalArgumentException("Sheet " + sheetName + " does not exist");
+        }
+        return rows(index);
+    }
+
+    /**
+     * Stream the rows of the sheet at the given (0 based) position. See {@link #rows(String)}.
+     *
+     * @param sheetIndex
+     * @return
+     */
+    public Stream<Row> rows(int sheetIndex) {
+        if (sheetIndex < 0 || sheetIndex >= sheetEntries.size()) {
+            throw new IllegalArgumentException("Sheet index " + sheetIndex + " is out of range");
+        }
+        try {
+            InputStream inputStream = entries.open(sheetEntries.get(sheetIndex));
+            if (inputStream == null) {
+                throw new IllegalStateException("Missing part " + sheetEntries.get(sheetIndex));
+            }
+            RowIterator iterator = new RowIterator(inputStream);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                    .onClose(iterator::close);
+        } catch (IOException | XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Read all the sheets concurrently using the given executor. Each sheet is read by its own task: the row streams
+     * are independent and the rows are not shared between the sheets.
+     *
+     * @param executor
+     * @param sheetReader function that consume the rows of a sheet
+     * @param <T>
+     * @return the results by sheet name, in the workbook order
+     */
+    public <T> Map<String, T> readSheets(ExecutorService executor, Function<Stream<Row>, T> sheetReader) {
+        List<Callable<T>> tasks = new ArrayList<>(sheetNames.size());
+        for (int i = 0; i < sheetNames.size(); i++) {
+            int sheetIndex = i;
+            tasks.add(() -> {
+                try (Stream<Row> rows = rows(sheetIndex)) {
+                    return sheetReader.apply(rows);
+                }
+            });
+        }
+        Map<String, T> results = new LinkedHashMap<>();
+        try {
+            List<Future<T>> futures = executor.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                results.put(sheetNames.get(i), futures.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Extract typed columns from a sheet, in a single pass. Column i of the result contains the values of the column i
+     * of the sheet, starting from the given row (e.g. 1 to skip a header row); the columns with a null type are
+     * skipped. The rows missing in the sheet are reported as absent values.
+     *
+     * @param sheetIndex
+     * @param firstRow 0 based index of the first row to extract
+     * @param types the type of each column, null for the columns to skip
+     * @return
+     */
+    public Columns readColumns(int sheetIndex, int firstRow, ColumnType... types) {
+        Columns columns = new Columns(types);
+        try (Stream<Row> rows = rows(sheetIndex)) {
+            rows.forEach(row -> {
+                if (row.getRowIndex() >= firstRow) {
+                    columns.add(row.getRowIndex() - firstRow, row);
+                }
+            });
+        }
+        columns.trim();
+        return columns;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            entries.close();
+        } finally {
+            if (spooledFile != null) {
+                Files.deleteIfExists(spooledFile);
+            }
+        }
+    }
+
+    // workbook structure
+
+    private XMLStreamReader xml(String entryName) throws IOException, XMLStreamException {
+        InputStream inputStream = entries.open(entryName);
+        return inputStream == null ? null : createXMLStreamReader(inputStream);
+    }
+
+    // the factory is not guaranteed to be thread safe
+    private XMLStreamReader createXMLStreamReader(InputStream inputStream) throws XMLStreamException {
+        synchronized (xmlInputFactory) {
+            return xmlInputFactory.createXMLStreamReader(inputStream);
+        }
+    }
+
+    private Map<String, List<String>> relationships(String base, String relsEntry) throws IOException, XMLStreamException {
+        return relationships(base, relsEntry, new HashMap<>());
+    }
+
+    // return the targets by the type suffix (e.g. "/styles"), fill targetsById
+    private Map<String, List<String>> relationships(String base, String relsEntry, Map<String, String> targetsById) throws IOException, XMLStreamException {
+        Map<String, List<String>> targetsByType = new HashMap<>();
+        XMLStreamReader reader = xml(relsEntry);
+        if (reader == null) {
+            return targetsByType;
+        }
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "Relationship".equals(reader.getLocalName())) {
+                    if ("External".equals(reader.getAttributeValue(null, "TargetMode"))) {
+                        continue;
+                    }
+                    String type = reader.getAttributeValue(null, "Type");
+                    String target = Utils.resolvePartName(base, reader.getAttributeValue(null, "Target"));
+                    targetsById.put(reader.getAttributeValue(null, "Id"), target);
+                    if (type != null) {
+                        targetsByType.computeIfAbsent(type.substring(type.lastIndexOf('/')), k -> new ArrayList<>()).add(target);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return targetsByType;
+    }
+
+    // read the sheets and return true if the workbook use the 1904 date system
+    private boolean readWorkbook(String workbookEntry, Map<String, String> targetsById) throws IOException, XMLStreamException {
+        XMLStreamReader reader = xml(workbookEntry);
+        if (reader == null) {
+            throw new IllegalStateException("Missing part " + workbookEntry);
+        }
+        boolean date1904 = false;
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if ("workbookPr".equals(reader.getLocalName())) {
+                    String value = reader.getAttributeValue(null, "date1904");
+                    date1904 = "1".equals(value) || "true".equals(value);
+                } else if ("sheet".equals(reader.getLocalName())) {
+                    String target = targetsById.get(reader.getAttributeValue(NS_RELATIONSHIPS, "id"));
+                    if (target != null) {
+                        sheetNames.add(reader.getAttributeValue(null, "name"));
+                        sheetEntries.add(target);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return date1904;
+    }
+
+    private String[] readSharedStrings(String entryName) throws IOException, XMLStreamException {
+        XMLStreamReader reader = xml(entryName);
+        if (reader == null) {
+            return new String[0];
+        }
+        List<String> strings = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean inText = false;
+        boolean inPhonetic = false;
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("si".equals(name)) {
+                        sb.setLength(0);
+                    } else if ("t".equals(name)) {
+                        inText = !inPhonetic;
+                    } else if ("rPh".equals(name)) {
+                        inPhonetic = true;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("si".equals(name)) {
+                        strings.add(sb.toString());
+                    } else if ("t".equals(name)) {
+                        inText = false;
+                    } else if ("rPh".equals(name)) {
+                        inPhonetic = false;
+                    }
+                } else if (inText && isText(event)) {
+                    sb.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return strings.toArray(new String[0]);
+    }
+
+    // for each cell format (xf), true if it's a date format
+    private boolean[] readDateStyles(String entryName) throws IOException, XMLStreamException {
+        XMLStreamReader reader = xml(entryName);
+        if (reader == null) {
+            return new boolean[0];
+        }
+        Map<Integer, String> customFormats = new HashMap<>();
+        List<Boolean> dates = new ArrayList<>();
+        boolean inCellXfs = false;
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("numFmt".equals(name)) {
+                        customFormats.put(Integer.parseInt(reader.getAttributeValue(null, "numFmtId")), reader.getAttributeValue(null, "formatCode"));
+                    } else if ("cellXfs".equals(name)) {
+                        inCellXfs = true;
+                    } else if (inCellXfs && "xf".equals(name)) {
+                        String numFmtId = reader.getAttributeValue(null, "numFmtId");
+                        dates.add(numFmtId != null && isDateFormat(Integer.parseInt(numFmtId), customFormats));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "cellXfs".equals(reader.getLocalName())) {
+                    inCellXfs = false;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        boolean[] result = new boolean[dates.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = dates.get(i);
+        }
+        return result;
+    }
+
+    private static boolean isDateFormat(int numFmtId, Map<Integer, String> customFormats) {
+        String custom = customFormats.get(numFmtId);
+        if (custom != null) {
+            return NumericFormatter.forFormat(custom).isDate();
+        }
+        // builtin date formats: 14-22 and 45-47
+        return (numFmtId >= 14 && numFmtId <= 22) || (numFmtId >= 45 && numFmtId <= 47);
+    }
+
+    private static boolean isText(int event) {
+        return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE;
+    }
+
+    // parsing of the rows
+
+    private final class RowIterator implements Iterator<Row> {
+
+        private final InputStream inputStream;
+        private final XMLStreamReader reader;
+        private final Row row = new Row(date1904);
+        private boolean ready;
+        private boolean finished;
+
+        RowIterator(InputStream inputStream) throws XMLStreamException {
+            this.inputStream = inputStream;
+            this.reader = createXMLStreamReader(inputStream);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!ready && !finished) {
+                try {
+                    advance();
+                } catch (XMLStreamException e) {
+                    close();
+                    throw new IllegalStateException(e);
+                }
+            }
+            return ready;
+        }
+
+        @Override
+        public Row next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ready = false;
+            return row;
+        }
+
+        private void advance() throws XMLStreamException {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "row".equals(reader.getLocalName())) {
+                    readRow();
+                    ready = true;
+                    return;
+                }
+            }
+            close();
+        }
+
+        private void readRow() throws XMLStreamException {
+            String r = reader.getAttributeValue(null, "r");
+            row.reset(r != null ? Integer.parseInt(r) - 1 : row.rowIndex + 1);
+            int column = -1;
+            byte type = 0;
+            int style = 0;
+            boolean collecting = false;
+            boolean inPhonetic = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("c".equals(name)) {
+                        String ref = reader.getAttributeValue(null, "r");
+                        column = ref != null ? columnIndex(ref) : column + 1;
+                        type = cellType(reader.getAttributeValue(null, "t"));
+                        String s = reader.getAttributeValue(null, "s");
+                        style = s != null ? Integer.parseInt(s) : 0;
+                        row.startCell(column);
+                    } else if ("v".equals(name) || ("t".equals(name) && !inPhonetic)) {
+                        collecting = true;
+                    } else if ("rPh".equals(name)) {
+                        inPhonetic = true;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("c".equals(name)) {
+                        row.endCell(column, type, style < dateStyles.length && dateStyles[style], sharedStrings);
+                    } else if ("v".equals(name) || "t".equals(name)) {
+                        collecting = false;
+                    } else if ("rPh".equals(name)) {
+                        inPhonetic = false;
+                    } else if ("row".equals(name)) {
+                        return;
+                    }
+                } else if (collecting && isText(event)) {
+                    row.appendText(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+            }
+        }
+
+        void close() {
+            finished = true;
+            ready = false;
+            try {
+                reader.close();
+                inputStream.close();
+            } catch (XMLStreamException | IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // cell types as written in the "t" attribute
+    private static final byte T_NUMBER = 0;
+    private static final byte T_SHARED_STRING = 1;
+    private static final byte T_INLINE_STRING = 2;
+    private static final byte T_BOOLEAN = 3;
+    private static final byte T_ERROR = 4;
+    private static final byte T_DATE = 5;
+
+    private static byte cellType(String t) {
+        if (t == null) {
+            return T_NUMBER;
+        }
+        switch (t) {
+            case "s":
+                return T_SHARED_STRING;
+            case "inlineStr":
+            case "str":
+                return T_INLINE_STRING;
+            case "b":
+                return T_BOOLEAN;
+            case "e":
+                return T_ERROR;
+            case "d":
+                return T_DATE;
+            default:
+                return T_NUMBER;
+        }
+    }
+
+    // from "AB12" to 27
+    private static int columnIndex(String ref) {
+        int column = 0;
+        for (int i = 0; i < ref.length(); i++) {
+            char c = ref.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * Parse a xml number (e.g. "-12.5E-3") without creating a String: when the number has at most 15 significant
+     * digits and a small exponent the result is exact, else it falls back to {@link Double#parseDouble(String)}.
+     *
+     * @return the value, NaN if it's not a number
+     */
+    static double parseDouble(char[] chars, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        while (i < end && Character.isWhitespace(chars[i])) {
+            i++;
+        }
+        while (end > i && Character.isWhitespace(chars[end - 1])) {
+            end--;
+        }
+        if (i == end) {
+            return Double.NaN;
+        }
+        int start = i;
+        boolean negative = chars[i] == '-';
+        if (negative || chars[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean digits = false;
+        boolean point = false;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                if (significantDigits > 0 || c != '0') {
+                    significantDigits++;
+                }
+                if (significantDigits <= 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (point) {
+                        exponent--;
+                    }
+                } else if (!point) {
+                    exponent++;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!digits) {
+            return Double.NaN;
+        }
+        if (i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+            i++;
+            boolean negativeExponent = i < end && chars[i] == '-';
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                i++;
+            }
+            int explicitExponent = 0;
+            boolean exponentDigits = false;
+            for (; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+                exponentDigits = true;
+                explicitExponent = Math.min(explicitExponent * 10 + (chars[i] - '0'), 100_000);
+            }
+            if (!exponentDigits) {
+                return Double.NaN;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (i != end) {
+            return Double.NaN;
+        }
+        if (significantDigits <= 15 && exponent >= -22 && exponent <= 22) {
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(new String(chars, start, end - start));
+    }
+
+    /**
+     * A row of a sheet. The instance is reused while iterating: copy the values you need to keep.
+     *
+     * The cells are identified by their 0 based column index. The values are parsed when the row is read: reading a
+     * value does not allocate, except for the inline strings that are materialized on the first access.
+     */
+    public static final class Row {
+
+        private final boolean date1904;
+        private int rowIndex = -1;
+        private int cellCount;
+        private byte[] types = new byte[16];
+        private double[] numbers = new double[16];
+        private String[] strings = new String[16];
+        private int[] textOffsets = new int[16];
+        private int[] textLengths = new int[16];
+        private char[] text = new char[256];
+        private int textUsed;
+        private int cellTextStart;
+
+        Row(boolean date1904) {
+            this.date1904 = date1904;
+        }
+
+        void reset(int rowIndex) {
+            this.rowIndex = rowIndex;
+            Arrays.fill(types, 0, cellCount, (byte) CellType.BLANK.ordinal());
+            Arrays.fill(strings, 0, cellCount, null);
+            cellCount = 0;
+            textUsed = 0;
+        }
+
+        void startCell(int column) {
+            if (column >= types.length) {
+                int length = Math.max(column + 1, types.length * 2);
+                types = Arrays.copyOf(types, length);
+                numbers = Arrays.copyOf(numbers, length);
+                strings = Arrays.copyOf(strings, length);
+                textOffsets = Arrays.copyOf(textOffsets, length);
+                textLengths = Arrays.copyOf(textLengths, length);
+            }
+            cellTextStart = textUsed;
+        }
+
+        void appendText(char[] chars, int offset, int length) {
+            if (textUsed + length > text.length) {
+                text = Arrays.copyOf(text, Math.max(textUsed + length, text.length * 2));
+            }
+            System.arraycopy(chars, offset, text, textUsed, length);
+            textUsed += length;
+        }
+
+        void endCell(int column, byte t, boolean dateStyle, String[] sharedStrings) {
+            int length = textUsed - cellTextStart;
+            textOffsets[column] = cellTextStart;
+            textLengths[column] = length;
+            CellType type;
+            if (length == 0 && t != T_INLINE_STRING) {
+                type = CellType.BLANK;
+            } else if (t == T_SHARED_STRING) {
+                double index = parseDouble(text, cellTextStart, length);
+                if (!(index >= 0 && index < sharedStrings.length)) {
+                    throw new IllegalStateException("Invalid shared string index " + new String(text, cellTextStart, length));
+                }
+                strings[column] = sharedStrings[(int) index];
+                type = CellType.STRING;
+            } else if (t == T_INLINE_STRING) {
+                type = CellType.STRING;
+            } else if (t == T_BOOLEAN) {
+                numbers[column] = text[cellTextStart] == '1' || text[cellTextStart] == 't' ? 1 : 0;
+                type = CellType.BOOLEAN;
+            } else if (t == T_ERROR) {
+                type = CellType.ERROR;
+            } else if (t == T_DATE) {
+                numbers[column] = Double.NaN;
+                type = CellType.DATE;
+            } else {
+                double value = parseDouble(text, cellTextStart, length);
+                numbers[column] = value;
+                // not a number: e.g. a formula with a string result but without t="str"
+                type = Double.isNaN(value) ? CellType.STRING : dateStyle ? CellType.DATE : CellType.NUMBER;
+            }
+            types[column] = (byte) type.ordinal();
+            cellCount = Math.max(cellCount, column + 1);
+        }
+
+        /**
+         * The 0 based index of the row.
+         *
+         * @return
+         */
+        public int getRowIndex() {
+            return rowIndex;
+        }
+
+        /**
+         * The number of cells, including the blank ones: the index of the last column with a cell + 1.
+         *
+         * @return
+         */
+        public int getCellCount() {
+            return cellCount;
+        }
+
+        /**
+         * The type of the value of the cell.
+         *
+         * @param column
+         * @return
+         */
+        public CellType getType(int column) {
+            return column < 0 || column >= cellCount ? CellType.BLANK : CELL_TYPES[types[column]];
+        }
+
+        /**
+         * The value of a string or error cell, null for the other types.
+         *
+         * @param column
+         * @return
+         */
+        public String getString(int column) {
+            CellType type = getType(column);
+            if (type != CellType.STRING && type != CellType.ERROR) {
+                return null;
+            }
+            if (strings[column] == null) {
+                strings[column] = new String(text, textOffsets[column], textLengths[column]);
+            }
+            return strings[column];
+        }
+
+        /**
+         * The value of a numeric cell: number, date (as excel serial) or boolean (1 or 0). NaN for the other types.
+         *
+         * @param column
+         * @return
+         */
+        public double getNumber(int column) {
+            CellType type = getType(column);
+            if (type == CellType.DATE && Double.isNaN(numbers[column])) {
+                // ISO 8601 date (t="d"), 1462 days between the 1900 and 1904 date systems
+                return Utils.getExcelDate(getDate(column)).doubleValue() - (date1904 ? 1462 : 0);
+            }
+            return type == CellType.NUMBER || type == CellType.DATE || type == CellType.BOOLEAN ? numbers[column] : Double.NaN;
+        }
+
+        /**
+         * The value of a boolean cell, false for the other types.
+         *
+         * @param column
+         * @return
+         */
+        public boolean getBoolean(int column) {
+            return getType(column) == CellType.BOOLEAN && numbers[column] != 0;
+        }
+
+        /**
+         * The value of a date cell (a numeric cell with a date format), null for the other types.
+         *
+         * @param column
+         * @return
+         */
+        public LocalDateTime getDate(int column) {
+            if (getType(column) != CellType.DATE) {
+                return null;
+            }
+            if (Double.isNaN(numbers[column])) {
+                // ISO 8601 date (t="d")
+                String iso = new String(text, textOffsets[column], textLengths[column]).trim();
+                return iso.contains("T") ? LocalDateTime.parse(iso) : LocalDate.parse(iso).atStartOfDay();
+            }
+            return Utils.fromExcelDate(numbers[column], date1904);
+        }
+    }
+
+    /**
+     * Typed columns extracted with {@link #readColumns(int, int, ColumnType...)}. The values are indexed by row, relative
+     * to the first extracted row; {@link #isPresent(int, int)} tells if a value was present and of a compatible type.
+     */
+    public static final class Columns {
+
+        private final ColumnType[] types;
+        private final long[][] longs;
+        private final double[][] doubles;
+        private final int[][] codes;
+        private final List<Map<String, Integer>> dictionaries;
+        private final BitSet[] present;
+        private int rowCount;
+
+        Columns(ColumnType[] types) {
+            this.types = types.clone();
+            this.longs = new long[types.length][];
+            this.doubles = new double[types.length][];
+            this.codes = new int[types.length][];
+            this.dictionaries = new ArrayList<>(types.length);
+            this.present = new BitSet[types.length];
+            for (int i = 0; i < types.length; i++) {
+                dictionaries.add(types[i] == ColumnType.STRING ? new LinkedHashMap<>() : null);
+                present[i] = new BitSet();
+                if (types[i] == ColumnType.LONG) {
+                    longs[i] = new long[1024];
+                } else if (types[i] == ColumnType.DOUBLE) {
+                    doubles[i] = new double[1024];
+                } else if (types[i] == ColumnType.STRING) {
+                    codes[i] = new int[1024];
+                    Arrays.fill(codes[i], -1);
+                }
+            }
+        }
+
+        void add(int index, Row row) {
+            rowCount = index + 1;
+            for (int column = 0; column < types.length; column++) {
+                ColumnType type = types[column];
+                if (type == null) {
+                    continue;
+                }
+                ensureCapacity(column, index);
+                if (type == ColumnType.STRING) {
+                    String value = row.getString(column);
+                    if (value != null) {
+                        Map<String, Integer> dictionary = dictionaries.get(column);
+                        Integer code = dictionary.get(value);
+                        if (code == null) {
+                            code = dictionary.size();
+                            dictionary.put(value, code);
+                        }
+                        codes[column][index] = code;
+                        present[column].set(index);
+                    }
+                } else {
+                    double value = row.getNumber(column);
+                    if (!Double.isNaN(value)) {
+                        if (type == ColumnType.LONG) {
+                            longs[column][index] = (long) value;
+                        } else {
+                            doubles[column][index] = value;
+                        }
+                        present[column].set(index);
+                    }
+                }
+            }
+        }
+
+        private void ensureCapacity(int column, int index) {
+            if (types[column] == ColumnType.LONG && index >= longs[column].length) {
+                longs[column] = Arrays.copyOf(longs[column], Math.max(index + 1, longs[column].length * 2));
+            } else if (types[column] == ColumnType.DOUBLE && index >= doubles[column].length) {
+                doubles[column] = Arrays.copyOf(doubles[column], Math.max(index + 1, doubles[column].length * 2));
+            } else if (types[column] == ColumnType.STRING && index >= codes[column].length) {
+                int oldLength = codes[column].length;
+                codes[column] = Arrays.copyOf(codes[column], Math.max(index + 1, oldLength * 2));
+                Arrays.fill(codes[column], oldLength, codes[column].length, -1);
+            }
+        }
+
+        void trim() {
+            for (int column = 0; column < types.length; column++) {
+                if (longs[column] != null) {
+                    longs[column] = Arrays.copyOf(longs[column], rowCount);
+                }
+                if (doubles[column] != null) {
+                    doubles[column] = Arrays.copyOf(doubles[column], rowCount);
+                }
+                if (codes[column] != null) {
+                    codes[column] = Arrays.copyOf(codes[column], rowCount);
+                }
+            }
+        }
+
+        /**
+         * The number of extracted rows.
+         *
+         * @return
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * True if the column has a value of a compatible type in the given row.
+         *
+         * @param column
+         * @param row
+         * @return
+         */
+        public boolean isPresent(int column, int row) {
+            return column < present.length && present[column].get(row);
+        }
+
+        /**
+         * The values of a {@link ColumnType#LONG} column (0 for the absent values).
+         *
+         * @param column
+         * @return
+         */
+        public long[] getLongs(int column) {
+            checkType(column, ColumnType.LONG);
+            return longs[column];
+        }
+
+        /**
+         * The values of a {@link ColumnType#DOUBLE} column (0 for the absent values).
+         *
+         * @param column
+         * @return
+         */
+        public double[] getDoubles(int column) {
+            checkType(column, ColumnType.DOUBLE);
+            return doubles[column];
+        }
+
+        /**
+         * The dictionary codes of a {@link ColumnType#STRING} column: index in {@link #getDictionary(int)}, -1 for the
+         * absent values.
+         *
+         * @param column
+         * @return
+         */
+        public int[] getStringCodes(int column) {
+            checkType(column, ColumnType.STRING);
+            return codes[column];
+        }
+
+        /**
+         * The distinct values of a {@link ColumnType#STRING} column, in order of first appearance.
+         *
+         * @param column
+         * @return
+         */
+        public String[] getDictionary(int column) {
+            checkType(column, ColumnType.STRING);
+            return dictionaries.get(column).keySet().toArray(new String[0]);
+        }
+
+        private void checkType(int column, ColumnType type) {
+            if (column < 0 || column >= types.length || types[column] != type) {
+                throw new IllegalArgumentException("Column " + column + " is not of type " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal zip writer that, unlike {@link java.util.zip.ZipOutputStream}, can copy an already compressed entry as is
+ * (see {@link #copy(MappedZipFile.Entry, ByteBuffer)}). The new entries are deflated and followed by a data
+ * descriptor. The Zip64 extensions are used when needed (more than 65535 entries, entries or archive larger than 4GB).
+ * As the size of a new deflated entry is unknown when its local header is written, an entry that may be larger than
+ * 4GB must be declared with {@link #putNextEntry(String, boolean)}.
+ */
+class ZipWriter implements Closeable {
+
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final long UINT32_MAX = 0xFFFFFFFFL;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int DEFLATED = 8;
+
+    private final OutputStream out;
+    private final ByteBuffer header = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<CentralEntry> centralEntries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private long written;
+    private boolean entryOpen;
+    private boolean finished;
+
+    private static final class CentralEntry {
+        final byte[] name;
+        final int flags;
+        final int method;
+        final int dosTime;
+        final long crc;
+        final long compressedSize;
+        final long uncompressedSize;
+        final long localHeaderOffset;
+
+        CentralEntry(byte[] name, int flags, int method, int dosTime, long crc, long compressedSize, long uncompressedSize, long localHeaderOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        boolean zip64() {
+            return compressedSize >= UINT32_MAX || uncompressedSize >= UINT32_MAX || localHeaderOffset >= UINT32_MAX;
+        }
+    }
+
+    ZipWriter(OutputStream out) {
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+    }
+
+    /**
+     * Copy an entry of another archive, without decompressing it.
+     *
+     * @param entry
+     * @param rawData the compressed content, see {@link MappedZipFile#rawData(MappedZipFile.Entry)}
+     * @throws IOException
+     */
+    void copy(MappedZipFile.Entry entry, ByteBuffer rawData) throws IOException {
+        copy(entry.name, entry, rawData);
+    }
+
+    /**
+     * Copy an entry of another archive with a different name, without decompressing it.
+     *
+     * @param entryName
+     * @param entry
+     * @param rawData
+     * @throws IOException
+     */
+    void copy(String entryName, MappedZipFile.Entry entry, ByteBuffer rawData) throws IOException {
+        checkCanAddEntry(entryName);
+        writeLocalHeader(entryName, entry.method, entry.dosTime, entry.crc, entry.compressedSize, entry.uncompressedSize);
+        byte[] buffer = new byte[Math.min(64 * 1024, Math.max(1, rawData.remaining()))];
+        while (rawData.hasRemaining()) {
+            int count = Math.min(buffer.length, rawData.remaining());
+            rawData.get(buffer, 0, count);
+            writeBytes(buffer, 0, count);
+        }
+    }
+
+    /**
+     * Start an entry whose content is already deflated (raw deflate, without zlib header) and whose crc and sizes
+     * are known. The returned stream must receive exactly compressedSize bytes and be closed before adding another
+     * entry.
+     *
+     * @param entryName
+     * @param crc crc32 of the uncompressed content
+     * @param compressedSize
+     * @param uncompressedSize
+     * @return
+     * @throws IOException
+     */
+    OutputStream putNextDeflatedEntry(String entryName, long crc, long compressedSize, long uncompressedSize) throws IOException {
+        checkCanAddEntry(entryName);
+        writeLocalHeader(entryName, DEFLATED, dosTime(LocalDateTime.now()), crc, compressedSize, uncompressedSize);
+        entryOpen = true;
+        long start = written;
+        return new OutputStream() {
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writeBytes(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                entryOpen = false;
+                if (written - start != compressedSize) {
+                    throw new ZipException("Expected " + compressedSize + " compressed bytes for " + entryName + ", got " + (written - start));
+                }
+            }
+        };
+    }
+
+    // local header with known crc and sizes, the central entry is registered
+    private void writeLocalHeader(String entryName, int method, int dosTime, long crc, long compressedSize, long uncompressedSize) throws IOException {
+        byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+        long offset = written;
+        boolean zip64 = compressedSize >= UINT32_MAX || uncompressedSize >= UINT32_MAX;
+
+        header.clear();
+        header.putInt(LOCAL_FILE_HEADER);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) method);
+        header.putInt(dosTime);
+        header.putInt((int) crc);
+        header.putInt((int) (zip64 ? UINT32_MAX : compressedSize));
+        header.putInt((int) (zip64 ? UINT32_MAX : uncompressedSize));
+        header.putShort((short) name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        writeHeader();
+        writeBytes(name);
+        if (zip64) {
+            header.clear();
+            header.putShort((short) 0x0001);
+            header.putShort((short) 16);
+            header.putLong(uncompressedSize);
+            header.putLong(compressedSize);
+            writeHeader();
+        }
+        centralEntries.add(new CentralEntry(name, FLAG_UTF8, method, dosTime, crc, compressedSize, uncompressedSize, offset));
+    }
+
+    /**
+     * Start a new deflated entry. The returned stream must be closed before adding another entry; closing it does not
+     * close the archive.
+     *
+     * @param entryName
+     * @return
+     * @throws IOException
+     */
+    OutputStream putNextEntry(String entryName) throws IOException {
+        return putNextEntry(entryName, false);
+    }
+
+    /**
+     * Start a new deflated entry, see {@link #putNextEntry(String)}.
+     *
+     * @param entryName
+     * @param zip64 true if the entry may be larger than 4GB: the local header has a Zip64 extra field and the data
+     *              descriptor has 8 bytes sizes (some readers, like {@link java.util.zip.ZipInputStream} before java 21,
+     *              do not support it for small entries). If false, writing more than 4GB throws a {@link ZipException}.
+     * @return
+     * @throws IOException
+     */
+    OutputStream putNextEntry(String entryName, boolean zip64) throws IOException {
+        checkCanAddEntry(entryName);
+        byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+        long offset = written;
+        int dosTime = dosTime(LocalDateTime.now());
+        int flags = FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+
+        // crc and sizes are in the data descriptor
+        header.clear();
+        header.putInt(LOCAL_FILE_HEADER);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) flags);
+        header.putShort((short) DEFLATED);
+        header.putInt(dosTime);
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(0);
+        header.putShort((short) name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        writeHeader();
+        writeBytes(name);
+        if (zip64) {
+            // the sizes are in the data descriptor, but must be present in the extra field
+            header.clear();
+            header.putShort((short) 0x0001);
+            header.putShort((short) 16);
+            header.putLong(0);
+            header.putLong(0);
+            writeHeader();
+        }
+
+        entryOpen = true;
+        return new EntryOutputStream(name, flags, dosTime, offset, zip64);
+    }
+
+    private void checkCanAddEntry(String name) throws ZipException {
+        if (finished) {
+            throw new IllegalStateException("Already finished");
+        }
+        if (entryOpen) {
+            throw new IllegalStateException("The previous entry has not been closed");
+        }
+        if (!names.add(name)) {
+            throw new ZipException("Duplicate entry " + name);
+        }
+    }
+
+    /**
+     * Write the central directory. No entries can be added after.
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (entryOpen) {
+            throw new IllegalStateException("The last entry has not been closed");
+        }
+        finished = true;
+        long directoryOffset = written;
+        for (CentralEntry entry : centralEntries) {
+            boolean zip64 = entry.zip64();
+            int zip64Size = (entry.uncompressedSize >= UINT32_MAX ? 8 : 0) + (entry.compressedSize >= UINT32_MAX ? 8 : 0) + (entry.localHeaderOffset >= UINT32_MAX ? 8 : 0);
+            header.clear();
+            header.putInt(CENTRAL_DIRECTORY_HEADER);
+            header.putShort((short) (zip64 ? 45 : 20));
+            header.putShort((short) (zip64 ? 45 : 20));
+            header.putShort((short) entry.flags);
+            header.putShort((short) entry.method);
+            header.putInt(entry.dosTime);
+            header.putInt((int) entry.crc);
+            header.putInt((int) Math.min(entry.compressedSize, UINT32_MAX));
+            header.putInt((int) Math.min(entry.uncompressedSize, UINT32_MAX));
+            header.putShort((short) entry.name.length);
+            header.putShort((short) (zip64 ? 4 + zip64Size : 0));
+            header.putShort((short) 0); // comment
+            header.putShort((short) 0); // disk
+            header.putShort((short) 0); // internal attributes
+            header.putInt(0); // external attributes
+            header.putInt((int) Math.min(entry.localHeaderOffset, UINT32_MAX));
+            writeHeader();
+            writeBytes(entry.name);
+            if (zip64) {
+                header.clear();
+                header.putShort((short) 0x0001);
+                header.putShort((short) zip64Size);
+                if (entry.uncompressedSize >= UINT32_MAX) {
+                    header.putLong(entry.uncompressedSize);
+                }
+                if (entry.compressedSize >= UINT32_MAX) {
+                    header.putLong(entry.compressedSize);
+                }
+                if (entry.localHeaderOffset >= UINT32_MAX) {
+                    header.putLong(entry.localHeaderOffset);
+                }
+                writeHeader();
+            }
+        }
+        long directorySize = written - directoryOffset;
+        int count = centralEntries.size();
+
+        if (count >= 0xFFFF || directorySize >= UINT32_MAX || directoryOffset >= UINT32_MAX) {
+            long zip64EndOffset = written;
+            header.clear();
+            header.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+            header.putLong(44);
+            header.putShort((short) 45);
+            header.putShort((short) 45);
+            header.putInt(0);
+            header.putInt(0);
+            header.putLong(count);
+            header.putLong(count);
+            header.putLong(directorySize);
+            header.putLong(directoryOffset);
+            header.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR);
+            header.putInt(0);
+            header.putLong(zip64EndOffset);
+            header.putInt(1);
+            writeHeader();
+        }
+
+        header.clear();
+        header.putInt(END_OF_CENTRAL_DIRECTORY);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) Math.min(count, 0xFFFF));
+        header.putShort((short) Math.min(count, 0xFFFF));
+        header.putInt((int) Math.min(directorySize, UINT32_MAX));
+        header.putInt((int) Math.min(directoryOffset, UINT32_MAX));
+        header.putShort((short) 0);
+        writeHeader();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        writeBytes(header.array(), 0, header.position());
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        written += length;
+    }
+
+    // crc32_combine from zlib: crc of the concatenation of two blocks, from their crc and the length of the second one
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        odd[0] = 0xEDB88320L; // crc-32 polynomial
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd); // put operator for two zero bits in even
+        gf2MatrixSquare(odd, even); // put operator for four zero bits in odd
+
+        // apply len2 zeros to crc1 (first square will put the operator for one zero byte, eight zero bits, in even)
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return (crc1 ^ crc2) & UINT32_MAX;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    static int dosTime(LocalDateTime time) {
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16
+                | time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+    }
+
+    private final class EntryOutputStream extends OutputStream {
+        private final byte[] name;
+        private final int flags;
+        private final int dosTime;
+        private final long offset;
+        private final boolean zip64;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[64 * 1024];
+        private final byte[] single = new byte[1];
+        private long uncompressedSize;
+        private long compressedSize;
+        private boolean closed;
+
+        EntryOutputStream(byte[] name, int flags, int dosTime, long offset, boolean zip64) {
+            this.name = name;
+            this.flags = flags;
+            this.dosTime = dosTime;
+            this.offset = offset;
+            this.zip64 = zip64;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Entry already closed");
+            }
+            if (len == 0) {
+                return;
+            }
+            if (!zip64 && uncompressedSize + len >= UINT32_MAX) {
+                throw tooLarge();
+            }
+            crc.update(b, off, len);
+            uncompressedSize += len;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            int count = deflater.deflate(buffer, 0, buffer.length);
+            if (count > 0) {
+                writeBytes(buffer, 0, count);
+                compressedSize += count;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    drain();
+                }
+            } finally {
+                deflater.end();
+            }
+            if (!zip64 && compressedSize >= UINT32_MAX) {
+                throw tooLarge();
+            }
+            header.clear();
+            header.putInt(DATA_DESCRIPTOR);
+            header.putInt((int) crc.getValue());
+            if (zip64) {
+                header.putLong(compressedSize);
+                header.putLong(uncompressedSize);
+            } else {
+                header.putInt((int) compressedSize);
+                header.putInt((int) uncompressedSize);
+            }
+            writeHeader();
+            centralEntries.add(new CentralEntry(name, flags, DEFLATED, dosTime, crc.getValue(), compressedSize, uncompressedSize, offset));
+            entryOpen = false;
+        }
+
+        private ZipException tooLarge() {
+            return new ZipException("The entry " + new String(name, StandardCharsets.UTF_8) + " is larger than 4GB, it must be started as a Zip64 entry");
+        }
+    }
+}
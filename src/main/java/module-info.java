@@ -15,6 +15,7 @@
  */
 module ch.digitalfondue.basicxlsx {
     exports ch.digitalfondue.basicxlsx;
-    requires java.desktop; //java.awt.* for font measuring ;(
+    requires static java.desktop; //java.awt.* for measuring the fonts without bundled metrics, optional
     requires java.xml;
+    requires static jdk.jfr; //flight recorder events, optional
 }
\ No newline at end of file
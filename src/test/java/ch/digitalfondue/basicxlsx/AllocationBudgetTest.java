@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import static ch.digitalfondue.basicxlsx.Cell.cell;
+import static ch.digitalfondue.basicxlsx.StreamingWorkbook.row;
+
+/**
+ * Bytes allocated by the writers for each row and each cell, measured with the allocation counter of the thread.
+ *
+ * The fixed cost (templates, styles, zip) is removed by comparing two runs with a different number of rows. The
+ * budgets can be overridden with the system property "allocation.budget.[name]" (bytes).
+ */
+public class AllocationBudgetTest {
+
+    // bytes per row or per cell (creation of the cell included), ~1.5x the measures on JDK 17: lower them when the
+    // encoding improves
+    private static final Map<String, Long> BUDGETS = Map.of(
+            "streaming.row", 256L,
+            "streaming.cell.string", 20_000L,
+            "streaming.cell.number", 18_000L,
+            "streaming.cell.boolean", 18_000L,
+            "streaming.cell.date", 19_000L,
+            "streaming.cell.formula", 19_000L,
+            "workbook.cell.string", 7_000L,
+            "workbook.cell.number", 5_500L);
+
+    private static final int COLUMNS = 10;
+    private static final int SMALL = 500;
+    private static final int LARGE = 2500;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeClass
+    public static void checkSupport() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private interface Writer {
+        void write(int rows) throws IOException;
+    }
+
+    @Test
+    public void streamingEmptyRow() throws IOException {
+        assertPerRowBudget("streaming.row", 1, rows -> streaming(rows, i -> new Cell[0]));
+    }
+
+    @Test
+    public void streamingStringCell() throws IOException {
+        assertPerRowBudget("streaming.cell.string", COLUMNS, rows -> streaming(rows, i -> cells(c -> cell("value " + c))));
+    }
+
+    @Test
+    public void streamingNumberCell() throws IOException {
+        assertPerRowBudget("streaming.cell.number", COLUMNS, rows -> streaming(rows, i -> cells(c -> cell(new BigDecimal("1234.56")))));
+    }
+
+    @Test
+    public void streamingBooleanCell() throws IOException {
+        assertPerRowBudget("streaming.cell.boolean", COLUMNS, rows -> streaming(rows, i -> cells(c -> cell(true))));
+    }
+
+    @Test
+    public void streamingDateCell() throws IOException {
+        assertPerRowBudget("streaming.cell.date", COLUMNS, rows -> streaming(rows, i -> cells(c -> cell(LocalDate.of(2018, 5, 14)))));
+    }
+
+    @Test
+    public void streamingFormulaCell() throws IOException {
+        assertPerRowBudget("streaming.cell.formula", COLUMNS, rows -> streaming(rows, i -> cells(c -> Cell.formula("A1+B1", "42"))));
+    }
+
+    @Test
+    public void workbookStringCell() throws IOException {
+        assertPerRowBudget("workbook.cell.string", COLUMNS, rows -> {
+            Workbook w = new Workbook();
+            Sheet s = w.sheet("data");
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < COLUMNS; c++) {
+                    s.setValueAt("value " + c, r, c);
+                }
+            }
+            w.write(OutputStream.nullOutputStream());
+        });
+    }
+
+    @Test
+    public void workbookNumberCell() throws IOException {
+        assertPerRowBudget("workbook.cell.number", COLUMNS, rows -> {
+            Workbook w = new Workbook();
+            Sheet s = w.sheet("data");
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < COLUMNS; c++) {
+                    s.setValueAt(1234.56, r, c);
+                }
+            }
+            w.write(OutputStream.nullOutputStream());
+        });
+    }
+
+    private static Cell[] cells(IntFunction<Cell> cell) {
+        Cell[] cells = new Cell[COLUMNS];
+        for (int c = 0; c < COLUMNS; c++) {
+            cells[c] = cell.apply(c);
+        }
+        return cells;
+    }
+
+    private static void streaming(int rows, IntFunction<Cell[]> rowCells) throws IOException {
+        try (StreamingWorkbook w = new StreamingWorkbook(OutputStream.nullOutputStream())) {
+            w.withSheet("data", IntStream.range(0, rows).mapToObj(i -> row(rowCells.apply(i))));
+        }
+    }
+
+    private static long allocated(Writer writer, int rows) throws IOException {
+        long tid = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(tid);
+        writer.write(rows);
+        return threads.getThreadAllocatedBytes(tid) - before;
+    }
+
+    /**
+     * @param perRow the number of units (cells) in a row: the budget is per unit
+     */
+    private static void assertPerRowBudget(String name, int perRow, Writer writer) throws IOException {
+        // warm up, then keep the lowest measure: the JIT compilation reduce the allocations
+        long perUnit = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long small = allocated(writer, SMALL);
+            long large = allocated(writer, LARGE);
+            perUnit = Math.min(perUnit, (large - small) / ((long) (LARGE - SMALL) * perRow));
+        }
+        long budget = Long.getLong("allocation.budget." + name, BUDGETS.get(name));
+        Assert.assertTrue(name + ": " + perUnit + " bytes allocated, the budget is " + budget, perUnit <= budget);
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+
+public class CellWidthCalculatorTest {
+
+    @Test
+    public void fontMetricsAreCached() {
+        Workbook w = new Workbook();
+        Style a = w.defineStyle().font().name("Arial").size(12).build();
+        Style b = w.defineStyle().bgColor(Style.Color.RED).font().name("Arial").size(12).color(Style.Color.BLUE).build();
+        Assert.assertSame(FontMetrics.of(a.getFontDesc()), FontMetrics.of(b.getFontDesc()));
+        Assert.assertNotSame(FontMetrics.of(a.getFontDesc()), FontMetrics.of(a.derive().font().bold(true).build().getFontDesc()));
+    }
+
+    @Test
+    public void widthIsTheSumOfTheAdvances() {
+        FontMetrics metrics = FontMetrics.of(null);
+        Assert.assertEquals(metrics.advance('a') * 2 + metrics.advance('b'), metrics.width("aba"), 0.0001);
+        Assert.assertEquals(0, metrics.width(""), 0.0);
+        Assert.assertTrue(metrics.advance('中') > 0);
+        Assert.assertEquals(metrics.advance(0x1F600), metrics.width(new String(Character.toChars(0x1F600))), 0.0001);
+    }
+
+    @Test
+    public void cellWidth() {
+        Workbook w = new Workbook();
+        Style style = w.defineStyle().font().size(10).build();
+        Style rotated = style.derive().rotation(90).build();
+        double shortWidth = CellWidthCalculator.cellWidth(Cell.cell("abc").withStyle(style));
+        double longWidth = CellWidthCalculator.cellWidth(Cell.cell("abcabcabcabc").withStyle(style));
+        Assert.assertEquals(shortWidth * 4, longWidth, 0.0001);
+        Assert.assertTrue(CellWidthCalculator.cellWidth(Cell.cell("abcabcabcabc").withStyle(rotated)) < longWidth);
+        Assert.assertEquals(8.43, CellWidthCalculator.cellWidth(Cell.formula("A1+1")), 0.0);
+    }
+
+    @Test
+    public void numbersAndDatesAreFormatted() {
+        Workbook w = new Workbook();
+        Style defaultFont = w.defineStyle().font().build();
+        Style twoDecimals = w.defineStyle().numericFormat("#,##0.00").build();
+        Style date = w.defineStyle().numericFormat("dd-mm-yyyy HH:mm:ss").build();
+        // "1234567" and "1,234,567.00"
+        Assert.assertEquals(7 * 0.9, CellWidthCalculator.cellWidth(Cell.cell(1234567)), 0.0001);
+        Assert.assertEquals(CellWidthCalculator.cellWidth(Cell.cell("1,234,567.00").withStyle(twoDecimals)),
+                CellWidthCalculator.cellWidth(Cell.cell(1234567).withStyle(twoDecimals)), 0.0001);
+        Assert.assertEquals(7, CellWidthCalculator.cellWidth(Cell.cell(1234567).withStyle(defaultFont)), 0.0001);
+        Assert.assertEquals(CellWidthCalculator.cellWidth(Cell.cell("04-03-2018 17:05:09").withStyle(date)),
+                CellWidthCalculator.cellWidth(Cell.cell(LocalDateTime.of(2018, 3, 4, 17, 5, 9)).withStyle(date)), 0.0001);
+        Assert.assertEquals(CellWidthCalculator.cellWidth(Cell.cell("2,105.00").withStyle(twoDecimals)),
+                CellWidthCalculator.cellWidth(Cell.formula("SUM(B2:B8)", "2105").withStyle(twoDecimals)), 0.0001);
+    }
+
+    @Test
+    public void fontSetupErrors() {
+        // these errors fall back to the bundled metrics, the others are propagated
+        Assert.assertTrue(AwtFontMetrics.isFontSetupError(new java.awt.AWTError("Can't connect to X11 window server")));
+        Assert.assertTrue(AwtFontMetrics.isFontSetupError(new InternalError("Fontconfig head is null")));
+        Assert.assertFalse(AwtFontMetrics.isFontSetupError(new OutOfMemoryError()));
+    }
+
+    @Test
+    public void bundledMetrics() {
+        // Arial 10: '0' is 5.56 points wide
+        Assert.assertEquals(5.56, FontMetrics.of(null).advance('0'), 0.0001);
+        Workbook w = new Workbook();
+        Style calibri = w.defineStyle().font().name("Calibri").size(11).build();
+        Assert.assertEquals(11 * 1038 / 2048.0, FontMetrics.of(calibri.getFontDesc()).advance('0'), 0.0001);
+
+        // accented characters are measured as their base character
+        Assert.assertEquals(FontMetrics.of(null).advance('e'), FontMetrics.of(null).advance('é'), 0.0001);
+        // wide characters: 1 em
+        Assert.assertEquals(10, FontMetrics.of(null).advance('中'), 0.0001);
+
+        // 10 '0' in the default font -> 10 characters width
+        Style defaultFont = w.defineStyle().font().build();
+        Assert.assertEquals(10, CellWidthCalculator.cellWidth(Cell.cell("0000000000").withStyle(defaultFont)), 0.0001);
+    }
+}
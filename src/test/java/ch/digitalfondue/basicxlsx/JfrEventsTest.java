@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static ch.digitalfondue.basicxlsx.Cell.cell;
+import static ch.digitalfondue.basicxlsx.StreamingWorkbook.row;
+
+public class JfrEventsTest {
+
+    private static final String PREFIX = "ch.digitalfondue.basicxlsx.";
+
+    @Test
+    public void streamingWorkbookEvents() throws IOException {
+        List<RecordedEvent> events = record(() -> {
+            try (StreamingWorkbook w = new StreamingWorkbook(new ByteArrayOutputStream())) {
+                Style bold = w.defineStyle().font().bold(true).build();
+                Style yellow = bold.derive().bgColor("#ffff00").build();
+                bold.derive().bgColor("#ffff00").build();
+                w.withSheet("data", IntStream.range(0, 2500).mapToObj(i -> row(new Cell[]{cell("row " + i).withStyle(yellow), cell(i)})));
+                w.withSheet("autofit", IntStream.range(0, 10).mapToObj(i -> row(new Cell[]{cell("value " + i)})),
+                        new StreamingWorkbook.SheetOptions().autoFitColumns());
+            }
+        });
+
+        RecordedEvent write = single(events, "WorkbookWrite");
+        Assert.assertEquals("StreamingWorkbook", write.getString("writer"));
+        Assert.assertEquals(2, write.getInt("sheets"));
+
+        RecordedEvent styles = single(events, "StylesCommit");
+        Assert.assertEquals(2, styles.getInt("styleCount"));
+        Assert.assertEquals(1, styles.getInt("derivedStyleHits"));
+
+        List<RecordedEvent> sheets = byName(events, "SheetWrite");
+        Assert.assertEquals(2, sheets.size());
+        Assert.assertEquals("data", sheets.get(0).getString("sheetName"));
+        Assert.assertEquals(2500, sheets.get(0).getLong("rows"));
+        Assert.assertTrue(sheets.get(0).getLong("compressedBytes") > 0);
+        Assert.assertTrue(sheets.get(0).getLong("uncompressedBytes") > sheets.get(0).getLong("compressedBytes"));
+
+        List<RecordedEvent> batches = byName(events, "RowBatch");
+        Assert.assertEquals(List.of(1000, 1000, 500, 10), batches.stream().map(e -> e.getInt("rows")).collect(Collectors.toList()));
+        Assert.assertEquals(List.of(1, 1001, 2001, 1), batches.stream().map(e -> e.getInt("firstRow")).collect(Collectors.toList()));
+
+        RecordedEvent autosize = single(events, "Autosize");
+        Assert.assertEquals(1, autosize.getInt("columns"));
+        Assert.assertEquals(10, autosize.getLong("cellsMeasured"));
+        // the event covers the rows spooled while measuring
+        RecordedEvent spooled = batches.get(3);
+        Assert.assertFalse(spooled.getStartTime().isBefore(autosize.getStartTime()));
+        Assert.assertFalse(spooled.getEndTime().isAfter(autosize.getEndTime()));
+    }
+
+    @Test
+    public void workbookEvents() throws IOException {
+        List<RecordedEvent> events = record(() -> {
+            Workbook w = new Workbook();
+            Sheet s = w.sheet("data");
+            for (int i = 0; i < 20; i++) {
+                s.setValueAt("value " + i, i, 0);
+                s.setValueAt(i, i, 1);
+            }
+            s.autoResizeAllColumns();
+            w.write(OutputStream.nullOutputStream());
+        });
+
+        Assert.assertEquals("Workbook", single(events, "WorkbookWrite").getString("writer"));
+        Assert.assertEquals(20, single(events, "SheetWrite").getLong("rows"));
+        Assert.assertEquals(2, byName(events, "Autosize").size());
+        Assert.assertEquals(0, single(events, "StylesCommit").getInt("styleCount"));
+    }
+
+    @Test
+    public void disabledByDefault() throws IOException {
+        Path file = Files.createTempFile("basicxlsx", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.start();
+            try (StreamingWorkbook w = new StreamingWorkbook(new ByteArrayOutputStream())) {
+                w.withSheet("data", IntStream.range(0, 10).mapToObj(i -> row(new Cell[]{cell(i)})));
+            }
+            recording.stop();
+            recording.dump(file);
+            Assert.assertTrue(RecordingFile.readAllEvents(file).stream().noneMatch(e -> e.getEventType().getName().startsWith(PREFIX)));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private interface Action {
+        void run() throws IOException;
+    }
+
+    private static List<RecordedEvent> record(Action action) throws IOException {
+        Path file = Files.createTempFile("basicxlsx", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : List.of("WorkbookWrite", "SheetWrite", "StylesCommit", "RowBatch", "Autosize")) {
+                recording.enable(PREFIX + name);
+            }
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(e -> e.getEventType().getName().startsWith(PREFIX))
+                    .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+                    .collect(Collectors.toList());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static List<RecordedEvent> byName(List<RecordedEvent> events, String name) {
+        return events.stream().filter(e -> e.getEventType().getName().equals(PREFIX + name)).collect(Collectors.toList());
+    }
+
+    private static RecordedEvent single(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> found = byName(events, name);
+        Assert.assertEquals(name, 1, found.size());
+        return found.get(0);
+    }
+}
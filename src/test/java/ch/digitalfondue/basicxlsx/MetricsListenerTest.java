@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static ch.digitalfondue.basicxlsx.Cell.cell;
+import static ch.digitalfondue.basicxlsx.StreamingWorkbook.row;
+
+public class MetricsListenerTest {
+
+    private static class RecordingListener implements MetricsListener {
+        final List<Integer> styleCounts = new ArrayList<>();
+        int metadata;
+        final List<Integer> batches = new ArrayList<>();
+        final List<SheetMetrics> sheets = new ArrayList<>();
+
+        @Override
+        public void stylesCommitted(int styleCount, long nanos) {
+            styleCounts.add(styleCount);
+        }
+
+        @Override
+        public void metadataWritten(long nanos) {
+            metadata++;
+        }
+
+        @Override
+        public void rowBatchWritten(String sheetName, int rows, long nanos) {
+            batches.add(rows);
+        }
+
+        @Override
+        public void sheetWritten(SheetMetrics metrics) {
+            sheets.add(metrics);
+        }
+    }
+
+    @Test
+    public void streamingWorkbook() throws IOException {
+        RecordingListener listener = new RecordingListener();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (StreamingWorkbook w = new StreamingWorkbook(baos)) {
+            w.setMetricsListener(listener);
+            Style bold = w.defineStyle().font().bold(true).build();
+            w.withSheet("data", IntStream.range(0, 2500).mapToObj(i -> row(new Cell[]{cell("row " + i).withStyle(bold), cell(i), null})));
+            w.withSheet("empty", IntStream.range(0, 0).mapToObj(i -> row(new Cell[0])));
+        }
+
+        Assert.assertEquals(Arrays.asList(1), listener.styleCounts);
+        Assert.assertEquals(1, listener.metadata);
+        Assert.assertEquals(Arrays.asList(1000, 1000, 500), listener.batches);
+        Assert.assertEquals(2, listener.sheets.size());
+
+        SheetMetrics data = listener.sheets.get(0);
+        Assert.assertEquals("data", data.getSheetName());
+        Assert.assertEquals(2500, data.getRows());
+        Assert.assertEquals(5000, data.getCells());
+        Assert.assertEquals(3, Arrays.stream(data.getRowBatchLatencyHistogram()).sum());
+        Assert.assertTrue(data.getEncodingNanos() > 0);
+        Assert.assertTrue(data.getCompressionNanos() > 0);
+        checkSizes(baos.toByteArray(), "xl/worksheets/sheet1.xml", data);
+
+        SheetMetrics empty = listener.sheets.get(1);
+        Assert.assertEquals("empty", empty.getSheetName());
+        Assert.assertEquals(0, empty.getRows());
+        Assert.assertEquals(0, Arrays.stream(empty.getRowBatchLatencyHistogram()).sum());
+        checkSizes(baos.toByteArray(), "xl/worksheets/sheet2.xml", empty);
+
+        try (org.apache.poi.ss.usermodel.Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(baos.toByteArray()))) {
+            Assert.assertEquals("row 2499", workbook.getSheetAt(0).getRow(2499).getCell(0).getStringCellValue());
+        }
+    }
+
+    @Test
+    public void workbook() throws IOException {
+        RecordingListener listener = new RecordingListener();
+        Workbook w = new Workbook();
+        w.setMetricsListener(listener);
+        Sheet s = w.sheet("data");
+        for (int i = 0; i < 1200; i++) {
+            s.setValueAt("row " + i, i, 0);
+            s.setValueAt(i, i, 2);
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        w.write(baos);
+
+        Assert.assertEquals(Arrays.asList(0), listener.styleCounts);
+        Assert.assertEquals(1, listener.metadata);
+        Assert.assertEquals(Arrays.asList(1000, 200), listener.batches);
+        SheetMetrics data = listener.sheets.get(0);
+        Assert.assertEquals(1200, data.getRows());
+        Assert.assertEquals(2400, data.getCells());
+        checkSizes(baos.toByteArray(), "xl/worksheets/sheet1.xml", data);
+    }
+
+    private static void checkSizes(byte[] xlsx, String entryName, SheetMetrics metrics) throws IOException {
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(xlsx))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.getName().equals(entryName)) {
+                    byte[] content = zis.readAllBytes();
+                    Assert.assertEquals(content.length, metrics.getUncompressedBytes());
+                    Assert.assertEquals(entry.getCompressedSize(), metrics.getCompressedBytes());
+                    return;
+                }
+            }
+        }
+        Assert.fail("missing " + entryName);
+    }
+}
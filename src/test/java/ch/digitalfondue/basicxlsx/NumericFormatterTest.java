@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+public class NumericFormatterTest {
+
+    private static String format(String formatCode, double value) {
+        StringBuilder sb = new StringBuilder();
+        NumericFormatter.forFormat(formatCode).format(value, sb);
+        return sb.toString();
+    }
+
+    private static String builtin(int index, double value) {
+        return format(NumericFormatter.builtinFormat(index), value);
+    }
+
+    private static double serial(LocalDateTime dateTime) {
+        return Utils.getExcelDate(dateTime).doubleValue();
+    }
+
+    @Test
+    public void general() {
+        Assert.assertEquals("42", builtin(0, 42));
+        Assert.assertEquals("-3.5", builtin(0, -3.5));
+        Assert.assertEquals("0.333333333", builtin(0, 1 / 3d));
+        Assert.assertEquals("1234567.891", builtin(0, 1234567.8912));
+        Assert.assertEquals("1.23457E+11", builtin(0, 123456789012d));
+        Assert.assertEquals("0", builtin(0, 0));
+    }
+
+    @Test
+    public void builtinNumbers() {
+        Assert.assertEquals("1235", builtin(1, 1234.5));
+        Assert.assertEquals("1234.50", builtin(2, 1234.5));
+        Assert.assertEquals("1,234,568", builtin(3, 1234567.6));
+        Assert.assertEquals("-1,234.50", builtin(4, -1234.5));
+        Assert.assertEquals("$1,234 ", builtin(5, 1234));
+        Assert.assertEquals("($1,234)", builtin(5, -1234));
+        Assert.assertEquals("12%", builtin(9, 0.123));
+        Assert.assertEquals("12.30%", builtin(10, 0.123));
+        Assert.assertEquals("1.23E+04", builtin(11, 12345));
+        Assert.assertEquals("1.00E-03", builtin(11, 0.001));
+        Assert.assertEquals("12.3E+3", builtin(48, 12345));
+        Assert.assertEquals("1 1/2", builtin(12, 1.5));
+        Assert.assertEquals("3 14/99", builtin(13, 3.1415));
+        Assert.assertEquals(" 1,234.50 ", builtin(43, 1234.5));
+        Assert.assertEquals(" -   ", builtin(43, 0));
+    }
+
+    @Test
+    public void customNumbers() {
+        Assert.assertEquals("0,005", format("0,000", 5));
+        Assert.assertEquals(".50", format("#.00", 0.5));
+        Assert.assertEquals("1.2", format("0.0#", 1.2));
+        Assert.assertEquals("1.0", format("0.0#", 1));
+        Assert.assertEquals("1.  ", format("0.??", 1));
+        Assert.assertEquals("1,235K", format("#,##0,\"K\"", 1234567));
+        Assert.assertEquals("123-45-6789", format("000-00-0000", 123456789));
+        Assert.assertEquals("€ 12.30", format("[$€-407] 0.00", 12.3));
+        Assert.assertEquals("CHF 12.30", format("\"CHF\" 0.00;[Red]\"CHF\" -0.00", 12.3));
+        Assert.assertEquals("CHF -12.30", format("\"CHF\" 0.00;[Red]\"CHF\" -0.00", -12.3));
+        Assert.assertEquals("zero", format("0;-0;\"zero\"", 0));
+        Assert.assertEquals("Total: 42", format("\"Total: \"General", 42));
+        Assert.assertEquals("42", format("@", 42));
+    }
+
+    @Test
+    public void dates() {
+        double date = serial(LocalDateTime.of(2018, 3, 4, 17, 5, 9));
+        Assert.assertEquals("3/4/2018", builtin(14, date));
+        Assert.assertEquals("4-Mar-18", builtin(15, date));
+        Assert.assertEquals("Mar-18", builtin(17, date));
+        Assert.assertEquals("5:05 PM", builtin(18, date));
+        Assert.assertEquals("17:05:09", builtin(21, date));
+        Assert.assertEquals("3/4/2018 17:05", builtin(22, date));
+        Assert.assertEquals("04-03-2018 17:05:09", format("dd-mm-yyyy HH:mm:ss", date));
+        Assert.assertEquals("Sunday, March 04, 2018", format("dddd, mmmm dd, yyyy", date));
+        Assert.assertEquals("2018-03-04", format("yyyy-mm-dd", Utils.getExcelDate(LocalDate.of(2018, 3, 4)).doubleValue()));
+        Assert.assertEquals("1900-02-29", format("yyyy-mm-dd", 60));
+        Assert.assertEquals("1900-03-01", format("yyyy-mm-dd", 61));
+        Assert.assertEquals("1900-01-01", format("yyyy-mm-dd", 1));
+    }
+
+    @Test
+    public void times() {
+        Assert.assertEquals("26:30:00", builtin(46, 1.1041666666666667));
+        Assert.assertEquals("01:30.5", builtin(47, 90.5 / 86400));
+        Assert.assertEquals("12:00 a", format("hh:mm a/p", 0));
+        Assert.assertEquals("90", format("[mm]", 90d / 1440));
+    }
+
+    @Test
+    public void sameInstanceForSameFormat() {
+        Workbook w = new Workbook();
+        Style style = w.defineStyle().numericFormat("0.00").build();
+        Style builtin = w.defineStyle().numericFormat(2).build();
+        Assert.assertSame(NumericFormatter.of(style), NumericFormatter.of(builtin));
+        Assert.assertSame(NumericFormatter.of(null), NumericFormatter.forFormat("General"));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static ch.digitalfondue.basicxlsx.Cell.cell;
+import static ch.digitalfondue.basicxlsx.StreamingWorkbook.row;
+
+public class SharedFormulaTest {
+
+    @Test
+    public void shift() {
+        SharedFormula f = new SharedFormula("B2*C2+$D$1+SUM(B$2:B2)+LOG10(A2)+Sheet2!B2+'My ''sheet'''!A1&\"B2\"");
+        Assert.assertEquals(f.getFormula(), f.shift(0, 0));
+        Assert.assertEquals("B5*C5+$D$1+SUM(B$2:B5)+LOG10(A5)+Sheet2!B5+'My ''sheet'''!A4&\"B2\"", f.shift(3, 0));
+        Assert.assertEquals("C2*D2+$D$1+SUM(C$2:C2)+LOG10(B2)+Sheet2!C2+'My ''sheet'''!B1&\"B2\"", f.shift(0, 1));
+        Assert.assertEquals("AA10+SUM(B:C)+SUM(3:4)+$A11", new SharedFormula("Z9+SUM(A:B)+SUM(2:3)+$A10").shift(1, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shiftOutOfSheet() {
+        new SharedFormula("A2").shift(-2, 0);
+    }
+
+    @Test
+    public void workbook() throws IOException {
+        Workbook w = new Workbook();
+        Sheet sheet = w.sheet("test");
+        SharedFormula total = new SharedFormula("A2*B2");
+        for (int i = 1; i <= 10; i++) {
+            sheet.setValueAt(i, i, 0);
+            sheet.setValueAt(2, i, 1);
+            if (i != 6) {
+                sheet.setFormulaAt(total, i, 2);
+            }
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        w.write(baos);
+
+        String xml = sheetXml(baos.toByteArray());
+        // two groups with the exact range: the row 7 interrupts the column
+        Assert.assertTrue(xml.contains("<f ref=\"C2:C6\" si=\"0\" t=\"shared\">A2*B2</f>"));
+        Assert.assertTrue(xml.contains("<f ref=\"C8:C11\" si=\"1\" t=\"shared\">A8*B8</f>"));
+        assertFormulas(baos.toByteArray(), 1, 10, 6);
+    }
+
+    @Test
+    public void streaming() throws IOException {
+        int rows = 3000;
+        SharedFormula total = new SharedFormula("A2*B2");
+        Stream<StreamingWorkbook.Row> data = IntStream.rangeClosed(1, rows).mapToObj(i -> row(new Cell[]{cell(i), cell(2), Cell.formula(total, Integer.toString(i * 2))}));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (StreamingWorkbook w = new StreamingWorkbook(baos)) {
+            w.withSheet("test", Stream.concat(Stream.of(row(new Cell[]{cell("a"), cell("b"), cell("total")})), data));
+        }
+
+        String xml = sheetXml(baos.toByteArray());
+        Assert.assertTrue(xml.contains("<f ref=\"C2:C1025\" si=\"0\" t=\"shared\">A2*B2</f>"));
+        Assert.assertTrue(xml.contains("<f ref=\"C1026:C2049\" si=\"1\" t=\"shared\">A1026*B1026</f>"));
+        Assert.assertTrue(xml.contains("<f si=\"0\" t=\"shared\"/>"));
+        assertFormulas(baos.toByteArray(), 1, rows, -1);
+    }
+
+    @Test
+    public void fragments() throws IOException {
+        SharedFormula doubled = new SharedFormula("A2*2");
+        SheetFragmentWriter writer = new SheetFragmentWriter();
+        writer.setFormulaRow(1);
+        Path first = Files.createTempFile("fragment", ".bxsf");
+        Path second = Files.createTempFile("fragment", ".bxsf");
+        try {
+            // the second fragment is written first, the formula is still declared for the row 2
+            writer.write(second, 3, IntStream.range(3, 6).mapToObj(i -> row(new Cell[]{cell(i), Cell.formula(doubled)})));
+            writer.write(first, 0, Stream.concat(Stream.of(row(new Cell[]{cell("a"), cell("doubled")})),
+                    IntStream.range(1, 3).mapToObj(i -> row(new Cell[]{cell(i), Cell.formula(doubled)}))));
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (SheetFragmentAssembler assembler = new SheetFragmentAssembler(baos)) {
+                assembler.withSheet("test", List.of(first, second));
+            }
+            Assert.assertEquals(List.of("A2*2", "A3*2", "A4*2", "A5*2", "A6*2"), formulas(baos.toByteArray(), 0));
+        } finally {
+            Files.delete(first);
+            Files.delete(second);
+        }
+    }
+
+    @Test
+    public void rollover() throws IOException {
+        SharedFormula doubled = new SharedFormula("A2*2");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (StreamingWorkbook w = new StreamingWorkbook(baos)) {
+            w.withSheet("test", withHeader(doubled, 5), new StreamingWorkbook.SheetOptions().rollover(3));
+            w.withSheet("repeated", withHeader(doubled, 5), new StreamingWorkbook.SheetOptions().rollover(3, true));
+        }
+        byte[] file = baos.toByteArray();
+        // the header is only in the first sheet
+        Assert.assertEquals(List.of("A2*2", "A3*2"), formulas(file, 0));
+        Assert.assertEquals(List.of("A1*2", "A2*2", "A3*2"), formulas(file, 1));
+        // the groups do not go past the last row of the sheet
+        Assert.assertTrue(sheetXml(file, 1).contains("<f ref=\"B2:B3\" si=\"0\" t=\"shared\">A2*2</f>"));
+        Assert.assertTrue(sheetXml(file, 2).contains("<f ref=\"B1:B3\" si=\"0\" t=\"shared\">A1*2</f>"));
+        // the header is repeated in each sheet
+        for (int i = 2; i < 5; i++) {
+            Assert.assertEquals(i == 4 ? List.of("A2*2") : List.of("A2*2", "A3*2"), formulas(file, i));
+        }
+    }
+
+    @Test
+    public void split() throws IOException {
+        SharedFormula doubled = new SharedFormula("A2*2");
+        Random random = new Random(42);
+        Stream<StreamingWorkbook.Row> rows = Stream.concat(Stream.of(row(new Cell[]{cell("a"), cell("doubled")})),
+                IntStream.rangeClosed(1, 20_000).mapToObj(i -> row(new Cell[]{cell(i), Cell.formula(doubled), cell(Long.toHexString(random.nextLong()))})));
+        List<ByteArrayOutputStream> files = new ArrayList<>();
+        try (SplittingWorkbook w = new SplittingWorkbook(part -> {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            files.add(baos);
+            return baos;
+        }, 200 * 1024, 32 * 1024)) {
+            w.withSheet("test", rows);
+        }
+        Assert.assertTrue(files.size() > 1);
+        int count = 0;
+        for (ByteArrayOutputStream file : files) {
+            // the header is only in the first file, each formula references its own row
+            List<String> formulas = formulas(file.toByteArray(), 0);
+            int firstRow = count == 0 ? 2 : 1;
+            for (int i = 0; i < formulas.size(); i++) {
+                Assert.assertEquals("A" + (firstRow + i) + "*2", formulas.get(i));
+            }
+            count += formulas.size();
+        }
+        Assert.assertEquals(20_000, count);
+    }
+
+    private static Stream<StreamingWorkbook.Row> withHeader(SharedFormula formula, int rows) {
+        return Stream.concat(Stream.of(row(new Cell[]{cell("a"), cell("doubled")})),
+                IntStream.rangeClosed(1, rows).mapToObj(i -> row(new Cell[]{cell(i), Cell.formula(formula)})));
+    }
+
+    // the formulas of the column B
+    private static List<String> formulas(byte[] file, int sheetIndex) throws IOException {
+        List<String> formulas = new ArrayList<>();
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(file))) {
+            for (org.apache.poi.ss.usermodel.Row row : workbook.getSheetAt(sheetIndex)) {
+                org.apache.poi.ss.usermodel.Cell c = row.getCell(1);
+                if (c != null && c.getCellType() == CellType.FORMULA) {
+                    formulas.add(c.getCellFormula());
+                }
+            }
+        }
+        return formulas;
+    }
+
+    private static void assertFormulas(byte[] file, int firstRow, int lastRow, int missingRow) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(file))) {
+            XSSFSheet sheet = workbook.getSheetAt(0);
+            FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+            DataFormatter formatter = new DataFormatter();
+            for (int i = firstRow; i <= lastRow; i++) {
+                if (i == missingRow) {
+                    Assert.assertNull(sheet.getRow(i).getCell(2));
+                    continue;
+                }
+                org.apache.poi.ss.usermodel.Cell c = sheet.getRow(i).getCell(2);
+                Assert.assertEquals("A" + (i + 1) + "*B" + (i + 1), c.getCellFormula());
+                Assert.assertEquals(Integer.toString(i * 2), formatter.formatCellValue(c, evaluator));
+            }
+        }
+    }
+
+    private static String sheetXml(byte[] file) throws IOException {
+        return sheetXml(file, 1);
+    }
+
+    private static String sheetXml(byte[] file, int sheet) throws IOException {
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(file))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.getName().equals("xl/worksheets/sheet" + sheet + ".xml")) {
+                    return new String(zis.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8);
+                }
+            }
+        }
+        throw new IllegalStateException("No sheet");
+    }
+}
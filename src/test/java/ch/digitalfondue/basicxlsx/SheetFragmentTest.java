@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static ch.digitalfondue.basicxlsx.StreamingWorkbook.row;
+
+public class SheetFragmentTest {
+
+    private final List<Path> files = new ArrayList<>();
+
+    @After
+    public void cleanup() throws IOException {
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private Path tempFile(String suffix) throws IOException {
+        Path file = Files.createTempFile("fragment", suffix);
+        files.add(file);
+        return file;
+    }
+
+    private static Style defineStyles(AbstractWorkbook w) {
+        return w.defineStyle().numericFormat("0.00").font().bold(true).build();
+    }
+
+    // each "worker" has its own writer
+    private SheetFragment writeFragment(int firstRow, int count) throws IOException {
+        SheetFragmentWriter writer = new SheetFragmentWriter();
+        Style amount = defineStyles(writer);
+        return writer.write(tempFile(".bxsf"), firstRow, IntStream.range(firstRow, firstRow + count)
+                .mapToObj(i -> row(new Cell[]{Cell.cell("row " + i), Cell.cell(i * 1.5).withStyle(amount)})));
+    }
+
+    @Test
+    public void assembleFragments() throws IOException {
+        SheetFragment first = writeFragment(0, 1000);
+        SheetFragment second = writeFragment(1000, 2500);
+        SheetFragment empty = writeFragment(3500, 0);
+        SheetFragment third = writeFragment(3500, 10);
+
+        SheetFragment read = SheetFragment.read(second.getPath());
+        Assert.assertEquals(1000, read.getFirstRow());
+        Assert.assertEquals(2500, read.getRowCount());
+        Assert.assertEquals(2, read.getColumnCount());
+        Assert.assertEquals(first.getStylesFingerprint(), read.getStylesFingerprint());
+
+        Path result = tempFile(".xlsx");
+        try (OutputStream os = Files.newOutputStream(result); SheetFragmentAssembler assembler = new SheetFragmentAssembler(os)) {
+            defineStyles(assembler);
+            assembler.withSheet("assembled", List.of(third.getPath(), empty.getPath(), first.getPath(), second.getPath()));
+            assembler.withSheet("partial", List.of(third.getPath()));
+        }
+
+        // the crc and sizes of the entry are checked while reading
+        try (ZipFile zip = new ZipFile(result.toFile())) {
+            ZipEntry sheet = zip.getEntry("xl/worksheets/sheet1.xml");
+            try (InputStream is = zip.getInputStream(sheet)) {
+                String xml = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+                Assert.assertTrue(xml.contains("<dimension ref=\"A1:B3510\"/>"));
+                Assert.assertEquals(sheet.getSize(), xml.getBytes(StandardCharsets.UTF_8).length);
+            }
+        }
+
+        try (WorkbookReader reader = WorkbookReader.open(result)) {
+            Assert.assertEquals(3510, reader.rows("assembled").count());
+            WorkbookReader.Row row = reader.rows("partial").findFirst().orElseThrow();
+            Assert.assertEquals(3500, row.getRowIndex());
+            Assert.assertEquals("row 3500", row.getString(0));
+        }
+        try (XSSFWorkbook poi = new XSSFWorkbook(Files.newInputStream(result))) {
+            org.apache.poi.ss.usermodel.Cell cell = poi.getSheet("assembled").getRow(2000).getCell(1);
+            Assert.assertEquals(3000, cell.getNumericCellValue(), 0);
+            Assert.assertEquals("0.00", cell.getCellStyle().getDataFormatString());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void overlappingFragments() throws IOException {
+        SheetFragment first = writeFragment(0, 100);
+        SheetFragment second = writeFragment(50, 100);
+        try (SheetFragmentAssembler assembler = new SheetFragmentAssembler(OutputStream.nullOutputStream())) {
+            defineStyles(assembler);
+            assembler.withSheet("overlap", List.of(first.getPath(), second.getPath()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void footerNotSupported() throws IOException {
+        SheetFragment fragment = writeFragment(0, 10);
+        try (SheetFragmentAssembler assembler = new SheetFragmentAssembler(OutputStream.nullOutputStream())) {
+            defineStyles(assembler);
+            assembler.withSheet("footer", List.of(fragment.getPath()), new StreamingWorkbook.SheetOptions().footerCell(0, Cell.cell("Total")));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void differentStyleTable() throws IOException {
+        SheetFragment fragment = writeFragment(0, 100);
+        try (SheetFragmentAssembler assembler = new SheetFragmentAssembler(OutputStream.nullOutputStream())) {
+            assembler.defineStyle().font().italic(true).build();
+            assembler.withSheet("styles", List.of(fragment.getPath()));
+        }
+    }
+
+    @Test
+    public void crc32Combine() {
+        Random random = new Random(42);
+        for (int length : new int[]{0, 1, 7, 1000, 65537}) {
+            byte[] a = new byte[random.nextInt(1000)];
+            byte[] b = new byte[length];
+            random.nextBytes(a);
+            random.nextBytes(b);
+            CRC32 crcA = new CRC32();
+            crcA.update(a);
+            CRC32 crcB = new CRC32();
+            crcB.update(b);
+            CRC32 crcAll = new CRC32();
+            crcAll.update(a);
+            crcAll.update(b);
+            Assert.assertEquals(crcAll.getValue(), ZipWriter.crc32Combine(crcA.getValue(), crcB.getValue(), b.length));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class SheetTest {
+
+    @Test
+    public void trackedColumnWidthsMatchAutoResize() {
+        Workbook w = new Workbook();
+        Style bold = w.defineStyle().font().bold(true).build();
+
+        Sheet tracked = w.sheet("tracked");
+        tracked.trackColumnWidths();
+        Sheet resized = w.sheet("resized");
+        for (Sheet s : new Sheet[]{tracked, resized}) {
+            s.setValueAt("short", 0, 0);
+            s.setValueAt("a quite long header value", 0, 1).withStyle(bold);
+            s.setValueAt("a quite long value", 1, 1);
+            s.setValueAt(42, 1, 2);
+            s.setValueAt("x", 2, 1).withStyle(bold);
+        }
+        resized.autoResizeAllColumns();
+
+        Assert.assertNull(tracked.getColumnWidth(0));
+        Assert.assertEquals(resized.getColumnWidth(1), tracked.getColumnWidth(1));
+        Assert.assertNull(tracked.getColumnWidth(2));
+
+        // explicit width wins
+        tracked.setColumnWidth(1, 42);
+        Assert.assertEquals(42, tracked.getColumnWidth(1), 0.0);
+    }
+
+    @Test
+    public void trackedColumnWidthsWithDistinctValuesLimit() {
+        Workbook w = new Workbook();
+        Style style = w.defineStyle().font().build();
+        Sheet s = w.sheet("test");
+        s.trackColumnWidths(2);
+        s.setValueAt("aaaaaaaaaaaaaaaaaaaa", 0, 0).withStyle(style);
+        s.setValueAt("b", 1, 0).withStyle(style);
+        // limit reached: not measured as it's not longer than the longest measured value
+        s.setValueAt("WWWWWWWWWWWWWWWWWWWW", 2, 0).withStyle(style);
+        s.setValueAt("c", 3, 0).withStyle(style);
+        double width = s.getColumnWidth(0);
+        Assert.assertEquals(CellWidthCalculator.cellWidth(Cell.cell("aaaaaaaaaaaaaaaaaaaa").withStyle(style)), width, 0.0001);
+
+        // longer: measured
+        s.setValueAt("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", 4, 0).withStyle(style);
+        Assert.assertTrue(s.getColumnWidth(0) > width);
+    }
+
+    @Test
+    public void sampledAutoResize() {
+        Workbook w = new Workbook();
+        Style style = w.defineStyle().font().build();
+        Sheet exact = w.sheet("exact");
+        Sheet sampled = w.sheet("sampled");
+        for (Sheet s : new Sheet[]{exact, sampled}) {
+            for (int i = 0; i < 10_000; i++) {
+                s.setValueAt(i == 7_777 ? "the longest value of the column by far" : "value number " + i, i, 0).withStyle(style);
+            }
+        }
+        exact.autoResizeColumn(0);
+        sampled.autoResizeColumn(0, Sheet.Sampling.of(10, 5, 10));
+        Assert.assertEquals(exact.getColumnWidth(0), sampled.getColumnWidth(0));
+
+        List<Cell> cells = sampled.getColumnCells(0);
+        Assert.assertTrue(Sheet.Sampling.of(10, 5, 10).select(cells).size() <= 25);
+        Assert.assertSame(cells, Sheet.Sampling.of(10_000, 0, 0).select(cells));
+    }
+
+    @Test
+    public void sampledAutoResizeOfNumbers() {
+        Workbook w = new Workbook();
+        Style amount = w.defineStyle().numericFormat("#,##0.00").build();
+        Sheet exact = w.sheet("exact");
+        Sheet sampled = w.sheet("sampled");
+        for (Sheet s : new Sheet[]{exact, sampled}) {
+            for (int i = 0; i < 10_000; i++) {
+                s.setValueAt(i == 7_777 ? 1234567890123L : i % 10, i, 0).withStyle(amount);
+            }
+        }
+        exact.autoResizeColumn(0);
+        // the longest formatted number is selected
+        sampled.autoResizeColumn(0, Sheet.Sampling.of(10, 1, 0));
+        Assert.assertNotNull(exact.getColumnWidth(0));
+        Assert.assertEquals(exact.getColumnWidth(0), sampled.getColumnWidth(0));
+    }
+
+    @Test
+    public void distinctValuesLimitOfNumbers() {
+        ColumnWidthTracker tracker = new ColumnWidthTracker(2);
+        for (int value : new int[]{1, 2, 3, 3, 1}) {
+            tracker.track(0, Cell.cell(value));
+        }
+        // only the first two distinct values are measured, the others are not longer
+        Assert.assertEquals(2, tracker.measuredCells());
+        tracker.track(0, Cell.cell(100));
+        Assert.assertEquals(3, tracker.measuredCells());
+    }
+
+    @Test
+    public void parallelAutoResize() throws InterruptedException {
+        Workbook w = new Workbook();
+        Style bold = w.defineStyle().font().bold(true).build();
+        Style times = w.defineStyle().font().name("Times New Roman").size(14).build();
+        Sheet sequential = w.sheet("sequential");
+        Sheet parallel = w.sheet("parallel");
+        Sheet parallelWithExecutor = w.sheet("parallelWithExecutor");
+        for (Sheet s : new Sheet[]{sequential, parallel, parallelWithExecutor}) {
+            for (int i = 0; i < 10_000; i++) {
+                s.setValueAt("row " + i, i, 0).withStyle(bold);
+                s.setValueAt(i % 1000 == 0 ? "a long value with Times New Roman " + i : "v", i, 1).withStyle(times);
+                s.setValueAt(i, i, 3);
+            }
+        }
+        sequential.autoResizeAllColumns();
+        parallel.autoResizeAllColumnsParallel();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            parallelWithExecutor.autoResizeAllColumns(executor);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(sequential.getColumnWidth(i), parallel.getColumnWidth(i));
+            Assert.assertEquals(sequential.getColumnWidth(i), parallelWithExecutor.getColumnWidth(i));
+        }
+        Assert.assertNotNull(parallel.getColumnWidth(1));
+    }
+}
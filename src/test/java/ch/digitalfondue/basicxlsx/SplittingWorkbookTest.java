@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static ch.digitalfondue.basicxlsx.StreamingWorkbook.row;
+
+public class SplittingWorkbookTest {
+
+    private final List<Path> files = new ArrayList<>();
+
+    @After
+    public void cleanup() throws IOException {
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void splitBySize() throws IOException {
+        long maxBytes = 200 * 1024;
+        Random random = new Random(42);
+        Stream<StreamingWorkbook.Row> rows = Stream.concat(Stream.of(row(new Cell[]{Cell.cell("id"), Cell.cell("value")})),
+                IntStream.range(0, 20_000).mapToObj(i -> row(new Cell[]{Cell.cell(i), Cell.cell(Long.toHexString(random.nextLong()))})));
+
+        try (SplittingWorkbook w = new SplittingWorkbook(part -> {
+            Path file = Files.createTempFile("part-" + part, ".xlsx");
+            files.add(file);
+            return Files.newOutputStream(file);
+        }, maxBytes, 32 * 1024)) {
+            Style bold = w.defineStyle().font().bold(true).build();
+            w.withSheet("first", Stream.of(row(new Cell[]{Cell.cell("styled").withStyle(bold)})));
+            w.withSheet("data", rows, new StreamingWorkbook.SheetOptions().rollover(StreamingWorkbook.SheetOptions.MAX_ROWS, true));
+            Assert.assertTrue(w.getPartCount() > 1);
+        }
+
+        Assert.assertTrue(files.size() > 1);
+        List<Double> ids = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            Assert.assertTrue(Files.size(file) <= maxBytes);
+            try (WorkbookReader reader = WorkbookReader.open(file)) {
+                Assert.assertEquals(i == 0 ? List.of("first", "data") : List.of("data"), reader.sheetNames());
+                reader.rows("data").limit(1).forEach(header -> Assert.assertEquals("id", header.getString(0)));
+                reader.rows("data").skip(1).forEach(row -> ids.add(row.getNumber(0)));
+            }
+        }
+        // all the rows, in order
+        Assert.assertEquals(IntStream.range(0, 20_000).mapToObj(i -> (double) i).collect(Collectors.toList()), ids);
+
+        // the styles are in every file
+        try (org.apache.poi.xssf.usermodel.XSSFWorkbook poi = new org.apache.poi.xssf.usermodel.XSSFWorkbook(Files.newInputStream(files.get(files.size() - 1)))) {
+            Assert.assertTrue(poi.getNumCellStyles() > 1);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void autoFitNotSupported() throws IOException {
+        try (SplittingWorkbook w = new SplittingWorkbook(part -> OutputStream.nullOutputStream(), 200 * 1024)) {
+            w.withSheet("data", Stream.of(row(new Cell[]{Cell.cell("a")})), new StreamingWorkbook.SheetOptions().autoFitColumns());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reserveGreaterThanBudget() {
+        new SplittingWorkbook(part -> null, 1000, 2000);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static ch.digitalfondue.basicxlsx.Cell.cell;
+import static ch.digitalfondue.basicxlsx.StreamingWorkbook.row;
+
+/**
+ * Stream tens of millions of rows (rolling over several sheets) and check that the memory stays flat, that the
+ * throughput does not degrade and that the result is valid. Run with: mvn test -Psoak (the number of rows can be
+ * changed with -Dsoak.rows=...).
+ *
+ * The output is not kept: it's piped to a validator reading the zip and the sheets with StAX in another thread.
+ */
+public class StreamingWorkbookSoakTest {
+
+    private static final long ROWS = Long.getLong("soak.rows", 10_000_000L);
+    private static final int WINDOW = 500_000;
+    // retained heap after gc, over the first sample
+    private static final long MAX_HEAP_GROWTH = 32L * 1024 * 1024;
+    // throughput of a window, compared to the best of the first windows
+    private static final double MIN_THROUGHPUT_RATIO = 0.5;
+
+    @Test
+    public void constantMemory() throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        List<Long> retainedHeap = new ArrayList<>();
+        List<Double> throughput = new ArrayList<>();
+
+        PipedInputStream pipeIn = new PipedInputStream(1024 * 1024);
+        CountingOutputStream sink = new CountingOutputStream(new PipedOutputStream(pipeIn));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Validation> validation = executor.submit(() -> validate(pipeIn));
+
+            try {
+                write(sink, memory, retainedHeap, throughput);
+            } catch (IOException | IllegalStateException e) {
+                // the pipe has been closed by the validator: report its error
+                validation.get();
+                throw e;
+            }
+
+            Validation result = validation.get();
+            long expectedSheets = (ROWS + StreamingWorkbook.SheetOptions.MAX_ROWS - 1) / StreamingWorkbook.SheetOptions.MAX_ROWS;
+            Assert.assertEquals(ROWS, result.rows);
+            Assert.assertEquals(ROWS * 4, result.cells);
+            Assert.assertEquals(expectedSheets, result.sheets);
+            Assert.assertTrue(result.hasWorkbook);
+            Assert.assertEquals(sink.count, result.bytes);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (long heap : retainedHeap) {
+            Assert.assertTrue("retained heap grew from " + retainedHeap.get(0) + " to " + heap, heap - retainedHeap.get(0) <= MAX_HEAP_GROWTH);
+        }
+        // the first window include the warm up
+        double reference = throughput.stream().skip(1).limit(3).mapToDouble(Double::doubleValue).max().orElse(0);
+        for (double rowsPerSecond : throughput.subList(Math.min(1, throughput.size()), throughput.size())) {
+            Assert.assertTrue("throughput went from " + (long) reference + " to " + (long) rowsPerSecond + " rows/s", rowsPerSecond >= reference * MIN_THROUGHPUT_RATIO);
+        }
+    }
+
+    private static void write(OutputStream sink, MemoryMXBean memory, List<Long> retainedHeap, List<Double> throughput) throws IOException {
+        long[] windowStart = {System.nanoTime()};
+        try (StreamingWorkbook w = new StreamingWorkbook(sink)) {
+            Style amount = w.defineStyle().numericFormat("#,##0.00").build();
+            w.withSheet("data", LongStream.range(0, ROWS).mapToObj(i -> {
+                if (i > 0 && i % WINDOW == 0) {
+                    throughput.add(WINDOW / ((System.nanoTime() - windowStart[0]) / 1e9));
+                    System.gc();
+                    retainedHeap.add(memory.getHeapMemoryUsage().getUsed());
+                    windowStart[0] = System.nanoTime();
+                }
+                return row(new Cell[]{
+                        cell("row " + i),
+                        cell(i),
+                        cell(BigDecimal.valueOf(i % 100_000, 2)).withStyle(amount),
+                        cell(i % 2 == 0)
+                });
+            }));
+        }
+    }
+
+    private static final class Validation {
+        long bytes;
+        long sheets;
+        long rows;
+        long cells;
+        boolean hasWorkbook;
+    }
+
+    // read the zip as it is written, check that each sheet is well formed and that the row numbers are contiguous
+    private static Validation validate(InputStream pipe) throws IOException, XMLStreamException {
+        Validation validation = new Validation();
+        CountingInputStream counting = new CountingInputStream(pipe);
+        try (ZipInputStream zis = new ZipInputStream(counting)) {
+            XMLInputFactory factory = XMLInputFactory.newFactory();
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.getName().startsWith("xl/worksheets/sheet")) {
+                    validation.sheets++;
+                    // the StAX reader close the stream at the end of the document
+                    InputStream sheet = new FilterInputStream(zis) {
+                        @Override
+                        public void close() {
+                        }
+                    };
+                    validateSheet(factory.createXMLStreamReader(sheet), validation);
+                } else {
+                    validation.hasWorkbook |= entry.getName().equals("xl/workbook.xml");
+                    zis.transferTo(OutputStream.nullOutputStream());
+                }
+            }
+            // the end of the central directory
+            zis.transferTo(OutputStream.nullOutputStream());
+            counting.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException | XMLStreamException | RuntimeException e) {
+            // unblock the writer
+            pipe.close();
+            throw e;
+        }
+        validation.bytes = counting.count;
+        return validation;
+    }
+
+    private static void validateSheet(XMLStreamReader reader, Validation validation) throws XMLStreamException {
+        long expectedRow = 1;
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                if ("row".equals(reader.getLocalName())) {
+                    long r = Long.parseLong(reader.getAttributeValue(null, "r"));
+                    if (r != expectedRow) {
+                        throw new IllegalStateException("expected row " + expectedRow + ", found " + r);
+                    }
+                    expectedRow++;
+                    validation.rows++;
+                } else if ("c".equals(reader.getLocalName())) {
+                    validation.cells++;
+                }
+            }
+        }
+        reader.close();
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
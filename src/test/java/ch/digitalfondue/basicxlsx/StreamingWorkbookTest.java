@@ -16,18 +16,27 @@
 package ch.digitalfondue.basicxlsx;
 
 import org.apache.commons.lang3.time.DateUtils;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.math.BigDecimal;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static ch.digitalfondue.basicxlsx.Cell.cell;
 import static ch.digitalfondue.basicxlsx.Cell.formula;
@@ -144,4 +153,212 @@ public class StreamingWorkbookTest {
 
         PoiCrossCheck.checkResult(dateForSheet2Row1Col3, new ByteArrayInputStream(baos.toByteArray()));
     }
+
+    @Test
+    public void testAutoFitColumns() throws IOException {
+        for (boolean compressSpool : new boolean[]{true, false}) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            Style style;
+            try (StreamingWorkbook w = new StreamingWorkbook(baos)) {
+                style = w.defineStyle().font().bold(true).build();
+                Stream<StreamingWorkbook.Row> rows = IntStream.range(0, 1000).mapToObj(i -> row(new Cell[]{
+                        cell(i),
+                        cell("value " + i).withStyle(style),
+                        cell(i == 500 ? "a much longer value, the longest of the column" : "short").withStyle(style)
+                }));
+                w.withSheet("test", rows, new StreamingWorkbook.SheetOptions(new double[]{20}).autoFitColumns(compressSpool));
+            }
+
+            try (org.apache.poi.ss.usermodel.Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(baos.toByteArray()))) {
+                org.apache.poi.ss.usermodel.Sheet sheet = workbook.getSheet("test");
+                Assert.assertEquals(999, sheet.getLastRowNum());
+                Assert.assertEquals("a much longer value, the longest of the column", sheet.getRow(500).getCell(2).getStringCellValue());
+                Assert.assertEquals(999, sheet.getRow(999).getCell(0).getNumericCellValue(), 0.0);
+                // explicit width
+                Assert.assertEquals(20 * 256, sheet.getColumnWidth(0));
+                // default width
+                Assert.assertEquals((int) (8.43 * 256), sheet.getColumnWidth(1));
+                // measured
+                double expected = CellWidthCalculator.cellWidth(cell("a much longer value, the longest of the column").withStyle(style));
+                Assert.assertEquals((int) (expected * 256), sheet.getColumnWidth(2));
+            }
+        }
+    }
+
+    @Test
+    public void testRollover() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        String longName = "a sheet name of 31 characters!!";
+        try (StreamingWorkbook w = new StreamingWorkbook(baos)) {
+            Stream<StreamingWorkbook.Row> rows = Stream.concat(Stream.of(row(new Cell[]{cell("header")})),
+                    IntStream.range(0, 25).mapToObj(i -> row(new Cell[]{cell(i)})));
+            w.withSheet("data", rows, new StreamingWorkbook.SheetOptions().rollover(10, true));
+            w.withSheet(longName, IntStream.range(0, 15).mapToObj(i -> row(new Cell[]{cell(i)})), new StreamingWorkbook.SheetOptions().rollover(10));
+            w.withSheet("exact", IntStream.range(0, 10).mapToObj(i -> row(new Cell[]{cell(i)})), new StreamingWorkbook.SheetOptions().rollover(10));
+        }
+
+        try (org.apache.poi.ss.usermodel.Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(baos.toByteArray()))) {
+            Assert.assertEquals(6, workbook.getNumberOfSheets());
+            for (String name : new String[]{"data", "data (2)", "data (3)"}) {
+                org.apache.poi.ss.usermodel.Sheet sheet = workbook.getSheet(name);
+                Assert.assertEquals("header", sheet.getRow(0).getCell(0).getStringCellValue());
+            }
+            Assert.assertEquals(9, workbook.getSheet("data").getLastRowNum());
+            Assert.assertEquals(9, workbook.getSheet("data (2)").getRow(1).getCell(0).getNumericCellValue(), 0.0);
+            Assert.assertEquals(7, workbook.getSheet("data (3)").getLastRowNum());
+            Assert.assertEquals(24, workbook.getSheet("data (3)").getRow(7).getCell(0).getNumericCellValue(), 0.0);
+
+            Assert.assertEquals(longName, workbook.getSheetName(3));
+            Assert.assertEquals("a sheet name of 31 characte (2)", workbook.getSheetName(4));
+            Assert.assertEquals(4, workbook.getSheetAt(4).getLastRowNum());
+            Assert.assertEquals("exact", workbook.getSheetName(5));
+        }
+    }
+
+    @Test
+    public void testRolloverSkipsExistingNames() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (StreamingWorkbook w = new StreamingWorkbook(baos)) {
+            w.withSheet("x (2)", Stream.of(row(new Cell[]{cell("user")})));
+            w.withSheet("x", IntStream.range(0, 15).mapToObj(i -> row(new Cell[]{cell(i)})), new StreamingWorkbook.SheetOptions().rollover(10));
+        }
+        try (org.apache.poi.ss.usermodel.Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(baos.toByteArray()))) {
+            Assert.assertEquals(3, workbook.getNumberOfSheets());
+            Assert.assertEquals("x (2)", workbook.getSheetName(0));
+            Assert.assertEquals("x", workbook.getSheetName(1));
+            Assert.assertEquals("x (3)", workbook.getSheetName(2));
+            Assert.assertEquals(10, workbook.getSheetAt(2).getRow(0).getCell(0).getNumericCellValue(), 0.0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRollover() {
+        new StreamingWorkbook.SheetOptions().rollover(StreamingWorkbook.SheetOptions.MAX_ROWS + 1);
+    }
+
+    @Test
+    public void testProgress() throws IOException {
+        List<String> progress = new ArrayList<>();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (StreamingWorkbook w = new StreamingWorkbook(baos)) {
+            w.setProgressListener((sheetName, rows, bytes) -> progress.add(sheetName + ":" + rows), 1000);
+            w.withSheet("data", IntStream.range(0, 2500).mapToObj(i -> row(new Cell[]{cell(i)})), new StreamingWorkbook.SheetOptions().rollover(2000));
+        }
+        Assert.assertEquals(Arrays.asList("data:1000", "data:2000", "data (2):500"), progress);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidProgressInterval() {
+        new StreamingWorkbook(new ByteArrayOutputStream()).setProgressListener((sheetName, rows, bytes) -> {}, 0);
+    }
+
+    @Test
+    public void testCancellation() throws IOException {
+        CancellationToken token = new CancellationToken();
+        AtomicBoolean closed = new AtomicBoolean();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        StreamingWorkbook w = new StreamingWorkbook(baos);
+        w.setCancellationToken(token);
+        w.setProgressListener((sheetName, rows, bytes) -> token.cancel(), 100);
+        try {
+            w.withSheet("data", IntStream.range(0, 10_000).mapToObj(i -> row(new Cell[]{cell(i)})).onClose(() -> closed.set(true)));
+            Assert.fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+        Assert.assertTrue(closed.get());
+        Assert.assertTrue(w.isCancelled());
+        try {
+            w.withSheet("other", Stream.empty());
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        int size = baos.size();
+        w.close();
+        // nothing is written when closing the zip
+        Assert.assertEquals(size, baos.size());
+
+        // the file is not a valid xlsx
+        try {
+            WorkbookFactory.create(new ByteArrayInputStream(baos.toByteArray())).close();
+            Assert.fail();
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAggregateFooter() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (StreamingWorkbook w = new StreamingWorkbook(baos)) {
+            Style bold = w.defineStyle().font().bold(true).build();
+            StreamingWorkbook.SheetOptions options = new StreamingWorkbook.SheetOptions()
+                    .rollover(102, true)
+                    .footerCell(0, cell("Total").withStyle(bold))
+                    .aggregate(1, StreamingWorkbook.Aggregate.SUM, bold)
+                    .aggregate(2, StreamingWorkbook.Aggregate.AVERAGE)
+                    .aggregate(3, StreamingWorkbook.Aggregate.MIN)
+                    .aggregate(4, StreamingWorkbook.Aggregate.MAX)
+                    .aggregate(5, StreamingWorkbook.Aggregate.COUNT);
+            Stream<StreamingWorkbook.Row> rows = Stream.concat(Stream.of(row(new Cell[]{cell("name"), cell("a"), cell("b"), cell("c"), cell("d"), cell("e")})),
+                    IntStream.range(0, 150).mapToObj(i -> row(new Cell[]{cell("row " + i), cell(i), cell(i * 0.5), cell(i - 75), cell(i % 7), i % 2 == 0 ? cell(i) : cell("x")})));
+            w.withSheet("data", rows, options);
+        }
+
+        Assert.assertFalse(workbookXml(baos.toByteArray()).contains("fullCalcOnLoad"));
+        try (org.apache.poi.ss.usermodel.Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(baos.toByteArray()))) {
+            // 100 rows in the first sheet, 50 in the second, each with the header and the footer
+            double[][] expected = {{4950, 24.75, -75, 6, 50}, {6225, 62.25, 25, 6, 25}};
+            for (int s = 0; s < 2; s++) {
+                org.apache.poi.ss.usermodel.Sheet sheet = workbook.getSheetAt(s);
+                int lastRow = s == 0 ? 101 : 51;
+                Assert.assertEquals(lastRow, sheet.getLastRowNum());
+                org.apache.poi.ss.usermodel.Row footer = sheet.getRow(lastRow);
+                Assert.assertEquals("Total", footer.getCell(0).getStringCellValue());
+                Assert.assertEquals("SUM(B2:B" + lastRow + ")", footer.getCell(1).getCellFormula());
+                Assert.assertEquals("COUNT(F2:F" + lastRow + ")", footer.getCell(5).getCellFormula());
+                for (int c = 1; c <= 5; c++) {
+                    // the cached result
+                    Assert.assertEquals(expected[s][c - 1], footer.getCell(c).getNumericCellValue(), 0);
+                }
+            }
+        }
+
+        // a formula without result still requires the full calculation
+        baos = new ByteArrayOutputStream();
+        try (StreamingWorkbook w = new StreamingWorkbook(baos)) {
+            w.withSheet("data", Stream.of(row(new Cell[]{cell(1), formula("A1*2")})));
+        }
+        Assert.assertTrue(workbookXml(baos.toByteArray()).contains("fullCalcOnLoad=\"1\""));
+    }
+
+    @Test
+    public void testFormulaWithResultIsRecalculated() throws IOException {
+        // the result given by the user is only a fallback for the viewers, excel must still calculate the formula
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (StreamingWorkbook w = new StreamingWorkbook(baos)) {
+            w.withSheet("data", Stream.of(row(new Cell[]{cell(1), formula("A1+1", "0")})),
+                    new StreamingWorkbook.SheetOptions().aggregate(0, StreamingWorkbook.Aggregate.SUM));
+        }
+        Assert.assertTrue(workbookXml(baos.toByteArray()).contains("fullCalcOnLoad=\"1\""));
+
+        baos = new ByteArrayOutputStream();
+        try (StreamingWorkbook w = new StreamingWorkbook(baos)) {
+            w.withSheet("data", Stream.of(row(new Cell[]{cell(1), formula("A1+1", "0")})));
+        }
+        Assert.assertTrue(workbookXml(baos.toByteArray()).contains("fullCalcOnLoad=\"1\""));
+    }
+
+    private static String workbookXml(byte[] file) throws IOException {
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(file))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.getName().equals("xl/workbook.xml")) {
+                    return new String(zis.readAllBytes(), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        throw new IllegalStateException("No workbook.xml");
+    }
 }
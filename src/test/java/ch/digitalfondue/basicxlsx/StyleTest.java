@@ -18,6 +18,10 @@ package ch.digitalfondue.basicxlsx;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.stream.Stream;
+
 public class StyleTest {
 
     @Test
@@ -25,4 +29,44 @@ public class StyleTest {
         Assert.assertEquals("none", Style.Pattern.NONE.toXmlValue());
         Assert.assertEquals("darkDown", Style.Pattern.DARK_DOWN.toXmlValue());
     }
+
+    @Test
+    public void derivedStylesAreCached() {
+        Workbook w = new Workbook();
+        Style base = w.defineStyle().numericFormat("0.00").font().name("Calibri").bold(true).build();
+
+        Style yellow = base.derive().bgColor(Style.Color.YELLOW).build();
+        Assert.assertNotSame(base, yellow);
+        Assert.assertSame(yellow, base.derive().bgColor(Style.Color.YELLOW).build());
+        Assert.assertSame(yellow, base.derive().bgColor("#FFFF00").build());
+        Assert.assertNotSame(yellow, base.derive().bgColor(Style.Color.RED).build());
+        Assert.assertNotSame(yellow, base.derive().bgColor(Style.Color.YELLOW).font().italic(true).build());
+        Assert.assertEquals(4, w.styles.size());
+
+        // the base properties are kept
+        Assert.assertEquals("Calibri", yellow.getFontDesc().name);
+        Assert.assertTrue(yellow.getFontDesc().bold);
+
+        // deriving without any change still create (once) a new style
+        Assert.assertSame(base.derive().build(), base.derive().build());
+        Assert.assertEquals(5, w.styles.size());
+    }
+
+    @Test
+    public void derivedStylesInStreamingWorkbook() throws IOException {
+        try (StreamingWorkbook w = new StreamingWorkbook(new ByteArrayOutputStream())) {
+            Style base = w.defineStyle().font().bold(true).build();
+            Style red = base.derive().bgColor(Style.Color.RED).build();
+            w.withSheet("test", Stream.of(StreamingWorkbook.row(new Cell[]{Cell.cell("a").withStyle(red)})));
+
+            // already cached
+            Assert.assertSame(red, base.derive().bgColor(Style.Color.RED).build());
+            try {
+                base.derive().bgColor(Style.Color.BLUE).build();
+                Assert.fail("new styles cannot be registered after writing a sheet");
+            } catch (IllegalStateException e) {
+                //expected
+            }
+        }
+    }
 }
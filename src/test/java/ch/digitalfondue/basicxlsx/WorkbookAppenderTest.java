@@ -0,0 +1,331 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static ch.digitalfondue.basicxlsx.StreamingWorkbook.row;
+
+public class WorkbookAppenderTest {
+
+    @Test
+    public void appendToBasicXlsxWorkbook() throws IOException {
+        Path existing = Files.createTempFile("existing", ".xlsx");
+        Path result = Files.createTempFile("result", ".xlsx");
+        try {
+            Workbook w = new Workbook();
+            Style twoDecimals = w.defineStyle().numericFormat("0.00").build();
+            w.sheet("first").setValueAt(1.5, 0, 0).withStyle(twoDecimals);
+            w.sheet("second").setValueAt("to be replaced", 0, 0);
+            try (OutputStream os = Files.newOutputStream(existing)) {
+                w.write(os);
+            }
+
+            try (OutputStream os = Files.newOutputStream(result); WorkbookAppender appender = WorkbookAppender.open(existing, os)) {
+                Style percent = appender.defineStyle().numericFormat("0.0%").font().bold(true).build();
+                appender.withSheet("appended", IntStream.range(0, 100).mapToObj(i -> row(new Cell[]{Cell.cell(i), Cell.cell(i / 100d).withStyle(percent)})));
+                appender.withSheet("SECOND", Stream.of(row(new Cell[]{Cell.cell("replaced")})));
+            }
+
+            assertUntouchedEntries(existing, result, "xl/worksheets/sheet1.xml");
+            // the written sheets may go over 4GB: zip64 extra field in the local header
+            try (MappedZipFile zip = new MappedZipFile(result)) {
+                ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(result)).order(ByteOrder.LITTLE_ENDIAN);
+                MappedZipFile.Entry sheet = zip.entry("xl/worksheets/sheet3.xml");
+                int nameLength = file.getShort((int) sheet.localHeaderOffset + 26);
+                Assert.assertEquals(0x0001, file.getShort((int) sheet.localHeaderOffset + 30 + nameLength));
+            }
+
+            try (WorkbookReader reader = WorkbookReader.open(result)) {
+                Assert.assertEquals(List.of("first", "second", "appended"), reader.sheetNames());
+                Assert.assertEquals(1.5, reader.rows("first").findFirst().orElseThrow().getNumber(0), 0);
+                Assert.assertEquals("replaced", reader.rows("second").findFirst().orElseThrow().getString(0));
+                Assert.assertEquals(100, reader.rows("appended").count());
+            }
+
+            try (XSSFWorkbook poi = new XSSFWorkbook(Files.newInputStream(result))) {
+                Assert.assertEquals("0.00", poi.getSheet("first").getRow(0).getCell(0).getCellStyle().getDataFormatString());
+                XSSFCellStyle style = poi.getSheet("appended").getRow(50).getCell(1).getCellStyle();
+                Assert.assertEquals("0.0%", style.getDataFormatString());
+                Assert.assertTrue(style.getFont().getBold());
+                Assert.assertNotEquals(poi.getSheet("first").getRow(0).getCell(0).getCellStyle().getDataFormat(), style.getDataFormat());
+                Assert.assertEquals(0.5, poi.getSheet("appended").getRow(50).getCell(1).getNumericCellValue(), 0);
+                Assert.assertTrue(poi.getCTWorkbook().getCalcPr().getFullCalcOnLoad());
+            }
+        } finally {
+            Files.deleteIfExists(existing);
+            Files.deleteIfExists(result);
+        }
+    }
+
+    @Test
+    public void appendToPoiWorkbook() throws IOException {
+        Path existing = Files.createTempFile("existing", ".xlsx");
+        Path result = Files.createTempFile("result", ".xlsx");
+        try {
+            try (XSSFWorkbook poi = new XSSFWorkbook(); OutputStream os = Files.newOutputStream(existing)) {
+                org.apache.poi.ss.usermodel.Sheet sheet = poi.createSheet("data");
+                for (int i = 0; i < 10; i++) {
+                    sheet.createRow(i).createCell(0).setCellValue("shared " + (i % 3));
+                }
+                poi.write(os);
+            }
+
+            try (OutputStream os = Files.newOutputStream(result); WorkbookAppender appender = WorkbookAppender.open(existing, os)) {
+                appender.withSheet("summary", Stream.of(row(new Cell[]{Cell.cell("count"), Cell.formula("COUNTA(data!A:A)", "10")})));
+            }
+
+            assertUntouchedEntries(existing, result, "xl/worksheets/sheet1.xml", "xl/sharedStrings.xml");
+
+            try (XSSFWorkbook poi = new XSSFWorkbook(Files.newInputStream(result))) {
+                Assert.assertEquals(2, poi.getNumberOfSheets());
+                Assert.assertEquals("shared 2", poi.getSheet("data").getRow(5).getCell(0).getStringCellValue());
+                Assert.assertEquals("COUNTA(data!A:A)", poi.getSheet("summary").getRow(0).getCell(1).getCellFormula());
+            }
+            try (WorkbookReader reader = WorkbookReader.open(result)) {
+                Assert.assertEquals(List.of("data", "summary"), reader.sheetNames());
+                Assert.assertEquals(10, reader.rows("data").count());
+            }
+        } finally {
+            Files.deleteIfExists(existing);
+            Files.deleteIfExists(result);
+        }
+    }
+
+    @Test
+    public void fillTemplate() throws IOException {
+        Path template = Files.createTempFile("template", ".xlsx");
+        Path result = Files.createTempFile("result", ".xlsx");
+        try {
+            try (XSSFWorkbook poi = new XSSFWorkbook(); OutputStream os = Files.newOutputStream(template)) {
+                XSSFCellStyle header = poi.createCellStyle();
+                XSSFFont bold = poi.createFont();
+                bold.setBold(true);
+                header.setFont(bold);
+                XSSFCellStyle amount = poi.createCellStyle();
+                amount.setDataFormat(poi.createDataFormat().getFormat("#,##0.00 \"CHF\""));
+                org.apache.poi.ss.usermodel.Sheet data = poi.createSheet("data");
+                data.setColumnWidth(0, 20 * 256);
+                org.apache.poi.ss.usermodel.Row headerRow = data.createRow(0);
+                headerRow.createCell(0).setCellValue("Name");
+                headerRow.createCell(1).setCellValue("Amount");
+                headerRow.getCell(0).setCellStyle(header);
+                headerRow.getCell(1).setCellStyle(header);
+                data.addMergedRegion(new org.apache.poi.ss.util.CellRangeAddress(0, 0, 2, 3));
+                org.apache.poi.ss.usermodel.Sheet styles = poi.createSheet("styles");
+                styles.createRow(0).createCell(1).setCellStyle(amount);
+                poi.createSheet("about").createRow(0).createCell(0).setCellValue("static content");
+                poi.write(os);
+            }
+
+            try (OutputStream os = Files.newOutputStream(result); WorkbookAppender appender = WorkbookAppender.open(template, os)) {
+                Style amount = appender.existingStyleAt("styles", 0, 1);
+                Style highlighted = appender.defineStyle().bgColor(Style.Color.RED).build();
+                appender.fillSheet("data", IntStream.range(0, 1000).mapToObj(i -> row(new Cell[]{
+                        Cell.cell("name " + i).withStyle(i == 10 ? highlighted : null),
+                        Cell.cell(i * 10.5).withStyle(amount)})));
+            }
+
+            assertUntouchedEntries(template, result, "xl/worksheets/sheet2.xml", "xl/worksheets/sheet3.xml", "xl/sharedStrings.xml");
+
+            try (XSSFWorkbook poi = new XSSFWorkbook(Files.newInputStream(result))) {
+                org.apache.poi.ss.usermodel.Sheet data = poi.getSheet("data");
+                Assert.assertEquals(1000, data.getLastRowNum());
+                Assert.assertEquals(20 * 256, data.getColumnWidth(0));
+                Assert.assertEquals(1, data.getNumMergedRegions());
+                Assert.assertEquals("Amount", data.getRow(0).getCell(1).getStringCellValue());
+                Assert.assertTrue(poi.getFontAt(data.getRow(0).getCell(1).getCellStyle().getFontIndex()).getBold());
+                Assert.assertEquals("name 0", data.getRow(1).getCell(0).getStringCellValue());
+                Assert.assertEquals(10.5, data.getRow(2).getCell(1).getNumericCellValue(), 0);
+                Assert.assertEquals("#,##0.00 \"CHF\"", data.getRow(2).getCell(1).getCellStyle().getDataFormatString());
+                Assert.assertEquals("FFFF0000", ((XSSFCellStyle) data.getRow(11).getCell(0).getCellStyle()).getFillForegroundXSSFColor().getARGBHex());
+                Assert.assertEquals("static content", poi.getSheet("about").getRow(0).getCell(0).getStringCellValue());
+            }
+        } finally {
+            Files.deleteIfExists(template);
+            Files.deleteIfExists(result);
+        }
+    }
+
+    @Test
+    public void fillEmptySheet() throws IOException {
+        Path template = Files.createTempFile("template", ".xlsx");
+        Path result = Files.createTempFile("result", ".xlsx");
+        try {
+            Workbook w = new Workbook();
+            w.sheet("empty");
+            try (OutputStream os = Files.newOutputStream(template)) {
+                w.write(os);
+            }
+
+            try (OutputStream os = Files.newOutputStream(result); WorkbookAppender appender = WorkbookAppender.open(template, os)) {
+                appender.fillSheet("empty", IntStream.range(0, 1000).mapToObj(i -> row(new Cell[]{Cell.cell("value " + i)})));
+            }
+
+            try (XSSFWorkbook poi = new XSSFWorkbook(Files.newInputStream(result))) {
+                org.apache.poi.ss.usermodel.Sheet empty = poi.getSheet("empty");
+                Assert.assertEquals(999, empty.getLastRowNum());
+                Assert.assertEquals("value 0", empty.getRow(0).getCell(0).getStringCellValue());
+                Assert.assertEquals("value 999", empty.getRow(999).getCell(0).getStringCellValue());
+            }
+        } finally {
+            Files.deleteIfExists(template);
+            Files.deleteIfExists(result);
+        }
+    }
+
+    // the template sheet is larger than the read buffer: the tags are split between the reads
+    @Test
+    public void fillLargeTemplate() throws IOException {
+        Path template = Files.createTempFile("template", ".xlsx");
+        Path result = Files.createTempFile("result", ".xlsx");
+        try {
+            Workbook w = new Workbook();
+            Sheet large = w.sheet("large");
+            for (int i = 0; i < 10_000; i++) {
+                large.setValueAt("existing " + i, i, 0);
+            }
+            try (OutputStream os = Files.newOutputStream(template)) {
+                w.write(os);
+            }
+
+            try (OutputStream os = Files.newOutputStream(result); WorkbookAppender appender = WorkbookAppender.open(template, os)) {
+                appender.fillSheet("large", IntStream.range(0, 10).mapToObj(i -> row(new Cell[]{Cell.cell("new " + i)})));
+            }
+
+            try (XSSFWorkbook poi = new XSSFWorkbook(Files.newInputStream(result))) {
+                org.apache.poi.ss.usermodel.Sheet sheet = poi.getSheet("large");
+                Assert.assertEquals(10_009, sheet.getLastRowNum());
+                Assert.assertEquals("existing 9999", sheet.getRow(9999).getCell(0).getStringCellValue());
+                Assert.assertEquals("new 0", sheet.getRow(10_000).getCell(0).getStringCellValue());
+                Assert.assertEquals("new 9", sheet.getRow(10_009).getCell(0).getStringCellValue());
+            }
+        } finally {
+            Files.deleteIfExists(template);
+            Files.deleteIfExists(result);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void undefinedExistingStyle() throws IOException {
+        Path existing = Files.createTempFile("existing", ".xlsx");
+        try {
+            Workbook w = new Workbook();
+            w.sheet("first");
+            try (OutputStream os = Files.newOutputStream(existing)) {
+                w.write(os);
+            }
+            try (WorkbookAppender appender = WorkbookAppender.open(existing, OutputStream.nullOutputStream())) {
+                appender.existingStyle(1000);
+            }
+        } finally {
+            Files.deleteIfExists(existing);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void footerNotSupported() throws IOException {
+        Path existing = Files.createTempFile("existing", ".xlsx");
+        try {
+            Workbook w = new Workbook();
+            w.sheet("first");
+            try (OutputStream os = Files.newOutputStream(existing)) {
+                w.write(os);
+            }
+            try (WorkbookAppender appender = WorkbookAppender.open(existing, OutputStream.nullOutputStream())) {
+                appender.withSheet("new", Stream.of(row(new Cell[]{Cell.cell(1)})),
+                        new StreamingWorkbook.SheetOptions().aggregate(0, StreamingWorkbook.Aggregate.SUM));
+            }
+        } finally {
+            Files.deleteIfExists(existing);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void existingStyleCannotBeDerived() throws IOException {
+        Path existing = Files.createTempFile("existing", ".xlsx");
+        try {
+            Workbook w = new Workbook();
+            w.sheet("first");
+            try (OutputStream os = Files.newOutputStream(existing)) {
+                w.write(os);
+            }
+            try (WorkbookAppender appender = WorkbookAppender.open(existing, OutputStream.nullOutputStream())) {
+                appender.existingStyle(0).derive();
+            }
+        } finally {
+            Files.deleteIfExists(existing);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void stylesMustBeDefinedBeforeTheFirstSheet() throws IOException {
+        Path existing = Files.createTempFile("existing", ".xlsx");
+        try {
+            Workbook w = new Workbook();
+            w.sheet("first");
+            try (OutputStream os = Files.newOutputStream(existing)) {
+                w.write(os);
+            }
+            try (WorkbookAppender appender = WorkbookAppender.open(existing, OutputStream.nullOutputStream())) {
+                appender.withSheet("new", Stream.empty());
+                appender.defineStyle();
+            }
+        } finally {
+            Files.deleteIfExists(existing);
+        }
+    }
+
+    // the entries must be copied as is: same crc and same compressed size
+    private static void assertUntouchedEntries(Path existing, Path result, String... names) throws IOException {
+        try (ZipFile before = new ZipFile(existing.toFile()); ZipFile after = new ZipFile(result.toFile())) {
+            Map<String, String> afterContent = new HashMap<>();
+            for (String name : names) {
+                ZipEntry b = before.getEntry(name);
+                ZipEntry a = after.getEntry(name);
+                Assert.assertNotNull(name, a);
+                Assert.assertEquals(name, b.getCrc(), a.getCrc());
+                Assert.assertEquals(name, b.getCompressedSize(), a.getCompressedSize());
+                try (InputStream is = after.getInputStream(a)) {
+                    afterContent.put(name, new String(is.readAllBytes()));
+                }
+            }
+            // all the entries can be read back
+            Assert.assertEquals(after.size(), after.stream().map(ZipEntry::getName).collect(Collectors.toSet()).size());
+            Assert.assertEquals(names.length, afterContent.size());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static ch.digitalfondue.basicxlsx.StreamingWorkbook.row;
+
+public class WorkbookMergerTest {
+
+    private final List<Path> files = new ArrayList<>();
+
+    @After
+    public void cleanup() throws IOException {
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private Path tempFile() throws IOException {
+        Path file = Files.createTempFile("shard", ".xlsx");
+        files.add(file);
+        return file;
+    }
+
+    // all the shards define the same styles, in the same order
+    private Path shard(String sheetName, int offset, boolean extraStyle) throws IOException {
+        Path file = tempFile();
+        try (OutputStream os = Files.newOutputStream(file); StreamingWorkbook w = new StreamingWorkbook(os)) {
+            Style extra = extraStyle ? w.defineStyle().font().italic(true).build() : null;
+            Style amount = w.defineStyle().numericFormat("0.000").font().bold(true).build();
+            w.withSheet(sheetName, IntStream.range(0, 100).mapToObj(i -> row(new Cell[]{
+                    Cell.cell("row " + (offset + i)).withStyle(extra),
+                    Cell.cell(offset + i).withStyle(amount)})));
+        }
+        return file;
+    }
+
+    @Test
+    public void mergeWithIdenticalStyles() throws IOException {
+        Path first = shard("data", 0, false);
+        Path second = shard("data", 100, false);
+        Path result = tempFile();
+        try (OutputStream os = Files.newOutputStream(result)) {
+            WorkbookMerger.merge(List.of(first, second), os);
+        }
+
+        assertRawCopy(first, "xl/worksheets/sheet1.xml", result, "xl/worksheets/sheet1.xml");
+        assertRawCopy(second, "xl/worksheets/sheet1.xml", result, "xl/worksheets/sheet2.xml");
+        assertRawCopy(first, "xl/styles.xml", result, "xl/styles.xml");
+
+        try (WorkbookReader reader = WorkbookReader.open(result)) {
+            Assert.assertEquals(List.of("data", "data (2)"), reader.sheetNames());
+            Assert.assertEquals(100, reader.rows(1).count());
+        }
+        try (XSSFWorkbook poi = new XSSFWorkbook(Files.newInputStream(result))) {
+            Assert.assertEquals("row 150", poi.getSheet("data (2)").getRow(50).getCell(0).getStringCellValue());
+            Assert.assertEquals("0.000", poi.getSheet("data (2)").getRow(50).getCell(1).getCellStyle().getDataFormatString());
+        }
+    }
+
+    @Test
+    public void mergeWithDifferentStyles() throws IOException {
+        Path first = shard("first", 0, false);
+        Path second = shard("second", 100, true);
+        Path result = tempFile();
+        try (OutputStream os = Files.newOutputStream(result)) {
+            WorkbookMerger.merge(List.of(first, second), os);
+        }
+
+        // the first shard define the base style table: its sheet is unchanged
+        assertRawCopy(first, "xl/worksheets/sheet1.xml", result, "xl/worksheets/sheet1.xml");
+
+        try (XSSFWorkbook poi = new XSSFWorkbook(Files.newInputStream(result))) {
+            XSSFCellStyle amount = (XSSFCellStyle) poi.getSheet("second").getRow(10).getCell(1).getCellStyle();
+            Assert.assertEquals("0.000", amount.getDataFormatString());
+            Assert.assertTrue(amount.getFont().getBold());
+            // same style as in the first sheet
+            Assert.assertEquals(poi.getSheet("first").getRow(10).getCell(1).getCellStyle().getIndex(), amount.getIndex());
+            XSSFCellStyle extra = (XSSFCellStyle) poi.getSheet("second").getRow(10).getCell(0).getCellStyle();
+            Assert.assertTrue(extra.getFont().getItalic());
+            Assert.assertEquals(110, poi.getSheet("second").getRow(10).getCell(1).getNumericCellValue(), 0);
+        }
+    }
+
+    @Test
+    public void mergeRolledOverSheets() throws IOException {
+        // each shard has "data" and "data (2)"
+        List<Path> shards = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Path file = tempFile();
+            try (OutputStream os = Files.newOutputStream(file); StreamingWorkbook w = new StreamingWorkbook(os)) {
+                w.withSheet("data", IntStream.range(0, 15).mapToObj(r -> row(new Cell[]{Cell.cell(r)})), new StreamingWorkbook.SheetOptions().rollover(10));
+            }
+            shards.add(file);
+        }
+        Path result = tempFile();
+        try (OutputStream os = Files.newOutputStream(result)) {
+            WorkbookMerger.merge(shards, os);
+        }
+        try (WorkbookReader reader = WorkbookReader.open(result)) {
+            Assert.assertEquals(List.of("data", "data (2)", "data (3)", "data (2) (2)"), reader.sheetNames());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sharedStringsAreRejected() throws IOException {
+        Path poiFile = tempFile();
+        try (XSSFWorkbook poi = new XSSFWorkbook(); OutputStream os = Files.newOutputStream(poiFile)) {
+            poi.createSheet("poi").createRow(0).createCell(0).setCellValue("shared");
+            poi.write(os);
+        }
+        WorkbookMerger.merge(List.of(shard("data", 0, false), poiFile), OutputStream.nullOutputStream());
+    }
+
+    private static void assertRawCopy(Path source, String sourceName, Path result, String resultName) throws IOException {
+        try (ZipFile before = new ZipFile(source.toFile()); ZipFile after = new ZipFile(result.toFile())) {
+            ZipEntry b = before.getEntry(sourceName);
+            ZipEntry a = after.getEntry(resultName);
+            Assert.assertEquals(b.getCrc(), a.getCrc());
+            Assert.assertEquals(b.getCompressedSize(), a.getCompressedSize());
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class WorkbookReaderTest {
+
+    @Test
+    public void readWorkbook() throws IOException {
+        Workbook w = new Workbook();
+        Style date = w.defineStyle().numericFormat("dd-mm-yyyy HH:mm:ss").build();
+        Style builtinDate = w.defineStyle().numericFormat(14).build();
+        Style twoDecimals = w.defineStyle().numericFormat("0.00").build();
+        Sheet s = w.sheet("first");
+        s.setValueAt("Hello éé <&>", 0, 0);
+        s.setValueAt(42, 0, 1);
+        s.setValueAt(-1.5e-3, 0, 2).withStyle(twoDecimals);
+        s.setValueAt(true, 0, 4);
+        s.setValueAt(LocalDateTime.of(2018, 3, 4, 17, 5, 9), 1, 0).withStyle(date);
+        s.setValueAt(LocalDate.of(1900, 1, 1), 1, 1).withStyle(builtinDate);
+        s.setFormulaAt("B1*2", "84", 1, 2);
+        s.setFormulaAt("A1&\"!\"", "Hello!", 1, 3);
+        s.setValueAt("last", 3, 1);
+        w.sheet("second").setValueAt("second sheet", 0, 0);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        w.write(os);
+
+        try (WorkbookReader reader = WorkbookReader.open(new ByteArrayInputStream(os.toByteArray()))) {
+            Assert.assertEquals(List.of("first", "second"), reader.sheetNames());
+            try (Stream<WorkbookReader.Row> rows = reader.rows("first")) {
+                List<String> dump = rows.map(row -> {
+                    StringBuilder sb = new StringBuilder().append(row.getRowIndex()).append(':');
+                    for (int i = 0; i < row.getCellCount(); i++) {
+                        sb.append(row.getType(i)).append('=');
+                        switch (row.getType(i)) {
+                            case STRING:
+                                sb.append(row.getString(i));
+                                break;
+                            case NUMBER:
+                                sb.append(row.getNumber(i));
+                                break;
+                            case BOOLEAN:
+                                sb.append(row.getBoolean(i));
+                                break;
+                            case DATE:
+                                sb.append(row.getDate(i));
+                                break;
+                            default:
+                                break;
+                        }
+                        sb.append(';');
+                    }
+                    return sb.toString();
+                }).collect(Collectors.toList());
+                Assert.assertEquals(List.of(
+                        "0:STRING=Hello éé <&>;NUMBER=42.0;NUMBER=-0.0015;BLANK=;BOOLEAN=true;",
+                        "1:DATE=2018-03-04T17:05:09;DATE=1900-01-01T00:00;NUMBER=84.0;STRING=Hello!;",
+                        "3:BLANK=;STRING=last;"), dump);
+            }
+            Assert.assertEquals("second sheet", reader.rows(1).findFirst().orElseThrow().getString(0));
+        }
+    }
+
+    @Test
+    public void readPoiWorkbook() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            XSSFCellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+            org.apache.poi.ss.usermodel.Sheet sheet = workbook.createSheet("poi");
+            org.apache.poi.ss.usermodel.Row row = sheet.createRow(0);
+            row.createCell(0).setCellValue("shared");
+            row.createCell(1).setCellValue("shared");
+            XSSFRichTextString rich = new XSSFRichTextString("rich text");
+            rich.applyFont(0, 4, workbook.createFont());
+            row.createCell(2).setCellValue(rich);
+            org.apache.poi.ss.usermodel.Cell dateCell = row.createCell(3);
+            dateCell.setCellValue(Utils.getExcelDate(LocalDate.of(2020, 2, 29)).doubleValue());
+            dateCell.setCellStyle(dateStyle);
+            row.createCell(4).setCellErrorValue(org.apache.poi.ss.usermodel.FormulaError.DIV0.getCode());
+            sheet.createRow(2).createCell(27).setCellValue(3.25);
+            workbook.write(os);
+        }
+        try (WorkbookReader reader = WorkbookReader.open(new ByteArrayInputStream(os.toByteArray()));
+             Stream<WorkbookReader.Row> rows = reader.rows("poi")) {
+            List<String> dump = rows.map(row -> row.getRowIndex() + ":" + IntStream.range(0, row.getCellCount())
+                    .filter(i -> row.getType(i) != WorkbookReader.CellType.BLANK)
+                    .mapToObj(i -> i + "=" + (row.getType(i) == WorkbookReader.CellType.DATE ? row.getDate(i) : row.getString(i) != null ? row.getString(i) : row.getNumber(i)))
+                    .collect(Collectors.joining(","))).collect(Collectors.toList());
+            Assert.assertEquals(List.of("0:0=shared,1=shared,2=rich text,3=2020-02-29T00:00,4=#DIV/0!", "2:27=3.25"), dump);
+        }
+    }
+
+    @Test
+    public void readLargeStreamingWorkbook() throws IOException {
+        int rowCount = 50_000;
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (StreamingWorkbook w = new StreamingWorkbook(os)) {
+            w.withSheet("large", IntStream.range(0, rowCount).mapToObj(i ->
+                    StreamingWorkbook.row(new Cell[]{Cell.cell("row " + i), Cell.cell(i), Cell.cell(i * 0.5)})));
+        }
+        AtomicLong sum = new AtomicLong();
+        try (WorkbookReader reader = WorkbookReader.open(new ByteArrayInputStream(os.toByteArray()));
+             Stream<WorkbookReader.Row> rows = reader.rows(0)) {
+            Assert.assertEquals(rowCount, rows.peek(row -> {
+                Assert.assertEquals(row.getRowIndex(), (int) row.getNumber(1));
+                Assert.assertEquals(row.getRowIndex() * 0.5, row.getNumber(2), 0.0);
+                sum.addAndGet((long) row.getNumber(1));
+            }).count());
+        }
+        Assert.assertEquals((long) rowCount * (rowCount - 1) / 2, sum.get());
+    }
+
+    @Test
+    public void parseDouble() {
+        for (String s : new String[]{"0", "-0", "1", "42", "-1.5", "0.1", "1234567.891", "1E3", "1.5e-7", "123456789012345678", "0.30000000000000004", "1.7976931348623157E308", "4.9E-324", " 12 "}) {
+            char[] chars = s.toCharArray();
+            Assert.assertEquals(s, Double.parseDouble(s), WorkbookReader.parseDouble(chars, 0, chars.length), 0.0);
+        }
+        for (String s : new String[]{"", "abc", "1.2.3", "-", "1e", "12a"}) {
+            char[] chars = s.toCharArray();
+            Assert.assertTrue(s, Double.isNaN(WorkbookReader.parseDouble(chars, 0, chars.length)));
+        }
+    }
+
+    @Test
+    public void readMappedFileInParallel() throws IOException, InterruptedException {
+        Path file = Files.createTempFile("basicxlsx", ".xlsx");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file)); StreamingWorkbook w = new StreamingWorkbook(os)) {
+                for (int sheet = 0; sheet < 3; sheet++) {
+                    int rows = 2_000 * (sheet + 1);
+                    w.withSheet("sheet " + sheet, Stream.concat(
+                            Stream.of(StreamingWorkbook.row(new Cell[]{Cell.cell("id"), Cell.cell("value"), Cell.cell("category")})),
+                            IntStream.range(0, rows).mapToObj(i -> StreamingWorkbook.row(new Cell[]{Cell.cell(i), Cell.cell(i / 4d), Cell.cell("category " + (i % 3))}))));
+                }
+            }
+            try (WorkbookReader reader = WorkbookReader.open(file)) {
+                Map<String, Long> counts = reader.readSheets(executor, Stream::count);
+                Assert.assertEquals(List.of("sheet 0", "sheet 1", "sheet 2"), List.copyOf(counts.keySet()));
+                Assert.assertEquals(List.of(2_001L, 4_001L, 6_001L), List.copyOf(counts.values()));
+
+                WorkbookReader.Columns columns = reader.readColumns(2, 1, WorkbookReader.ColumnType.LONG, WorkbookReader.ColumnType.DOUBLE, WorkbookReader.ColumnType.STRING, WorkbookReader.ColumnType.LONG);
+                Assert.assertEquals(6_000, columns.getRowCount());
+                Assert.assertEquals(LongStream.range(0, 6_000).sum(), LongStream.of(columns.getLongs(0)).sum());
+                Assert.assertEquals(5_999 / 4d, columns.getDoubles(1)[5_999], 0.0);
+                Assert.assertArrayEquals(new String[]{"category 0", "category 1", "category 2"}, columns.getDictionary(2));
+                Assert.assertEquals(2, columns.getStringCodes(2)[5]);
+                Assert.assertTrue(columns.isPresent(0, 0));
+                Assert.assertFalse(columns.isPresent(3, 0));
+                try {
+                    columns.getDoubles(0);
+                    Assert.fail();
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void mappedZipFileWithZip64AndStoredEntries() throws IOException {
+        Path file = Files.createTempFile("basicxlsx", ".zip");
+        try {
+            try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                // more than 65535 entries: zip64 end of central directory
+                for (int i = 0; i < 70_000; i++) {
+                    zos.putNextEntry(new ZipEntry("e" + i));
+                    zos.write(("entry " + i).getBytes(StandardCharsets.UTF_8));
+                    zos.closeEntry();
+                }
+                byte[] content = "stored".getBytes(StandardCharsets.UTF_8);
+                ZipEntry stored = new ZipEntry("stored");
+                stored.setMethod(ZipEntry.STORED);
+                stored.setSize(content.length);
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                stored.setCrc(crc.getValue());
+                zos.putNextEntry(stored);
+                zos.write(content);
+                zos.closeEntry();
+            }
+            try (MappedZipFile zip = new MappedZipFile(file)) {
+                Assert.assertEquals("entry 69999", new String(zip.open("e69999").readAllBytes(), StandardCharsets.UTF_8));
+                Assert.assertEquals("entry 0", new String(zip.open("e0").readAllBytes(), StandardCharsets.UTF_8));
+                Assert.assertEquals("stored", new String(zip.open("stored").readAllBytes(), StandardCharsets.UTF_8));
+                Assert.assertNull(zip.open("missing"));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2018-2024 digitalfondue (info@digitalfondue.ch)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.digitalfondue.basicxlsx;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public class ZipWriterTest {
+
+    @Test
+    public void zip64Entry() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ZipWriter zip = new ZipWriter(baos)) {
+            try (OutputStream os = zip.putNextEntry("large.xml", true)) {
+                os.write("large".getBytes(StandardCharsets.UTF_8));
+            }
+            try (OutputStream os = zip.putNextEntry("small.xml")) {
+                os.write("small".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        ByteBuffer file = ByteBuffer.wrap(baos.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        // local header of the first entry: version 4.5 and a Zip64 extra field, as the data descriptor has 8 bytes sizes
+        Assert.assertEquals(45, file.getShort(4));
+        Assert.assertEquals(20, file.getShort(28));
+        Assert.assertEquals(0x0001, file.getShort(30 + "large.xml".length()));
+
+        Path path = Files.createTempFile("zip64", ".zip");
+        try {
+            Files.write(path, baos.toByteArray());
+            try (ZipFile zip = new ZipFile(path.toFile())) {
+                for (String name : new String[]{"large", "small"}) {
+                    ZipEntry entry = zip.getEntry(name + ".xml");
+                    Assert.assertEquals(name.length(), entry.getSize());
+                    try (InputStream is = zip.getInputStream(entry)) {
+                        Assert.assertEquals(name, new String(is.readAllBytes(), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}